@@ -0,0 +1,83 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * CompletableFuture based API for the long-running operators. The operators run on a separate daemon thread pool (the
+ * common pool is left to the parallel streams inside the operators).
+ * Cancelling the future (or the OperatorProgress) stops the operator at its next checkpoint, the future then completes
+ * with a CancellationException. Hitting the deadline of the OperatorProgress completes the future with the best
+ * partial result instead.
+ */
+public class AsyncOperators {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "compgraphics-operator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param distanceMap          the initialized DistanceMap_ (image data and blocked pixel values set)
+     * @param initialPositionValue grey value of the obstacle pixels
+     * @param mode                 Euclidean, Chebyshev or Manhattan
+     * @param progress             cancellation, deadline and progress reporting
+     * @return the (possibly partial) cumulated obstacle distance map
+     */
+    public static CompletableFuture<OperatorResult<double[][]>> getObstacleMapAsync(
+            DistanceMap_ distanceMap, int initialPositionValue, String mode, OperatorProgress progress) {
+        return submit(() -> distanceMap.getObstacleMap(initialPositionValue, mode, progress), progress);
+    }
+
+    /**
+     * @param distanceMap          the initialized DistanceMap_ (image data and blocked pixel values set)
+     * @param initialPosition      the position to start from
+     * @param initialPositionValue grey value of the start pixels
+     * @param mode                 Euclidean, Chebyshev or Manhattan
+     * @param progress             cancellation, deadline and progress reporting
+     * @return the (possibly partially settled) distance map
+     */
+    public static CompletableFuture<OperatorResult<double[][]>> getDistanceMapAsync(
+            DistanceMap_ distanceMap, DistanceMap_.Position initialPosition, int initialPositionValue, String mode,
+            OperatorProgress progress) {
+        return submit(() -> distanceMap.getDistanceMap(initialPosition, initialPositionValue, mode, false, progress),
+                progress);
+    }
+
+    /**
+     * @param registration the registration plugin
+     * @param refImg       the reference image
+     * @param testImg      the image to register
+     * @param width        the width of the images
+     * @param height       the height of the images
+     * @param progress     cancellation, deadline and progress reporting
+     * @return the best {transX, transY, rotAngle, error} found (so far)
+     */
+    public static CompletableFuture<OperatorResult<double[]>> getBestRegistrationParametersAsync(
+            RegistrationTemplate_ registration, int[][] refImg, int[][] testImg, int width, int height,
+            OperatorProgress progress) {
+        return submit(() -> registration.getBestRegistrationParameters(refImg, testImg, width, height, progress),
+                progress);
+    }
+
+    static <T> CompletableFuture<OperatorResult<T>> submit(Supplier<T> operator, OperatorProgress progress) {
+        CompletableFuture<OperatorResult<T>> future = CompletableFuture.supplyAsync(() -> {
+            T value = operator.get();
+            if (progress.isCancelled()) {
+                throw new CancellationException("operator cancelled");
+            }
+            return new OperatorResult<>(value, !progress.wasStopped());
+        }, EXECUTOR);
+
+        // future.cancel(...) does not reach the worker thread, forward it to the cooperative checks
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                progress.cancel();
+            }
+        });
+        return future;
+    }
+
+}
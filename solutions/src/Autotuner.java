@@ -0,0 +1,434 @@
+import java.awt.Point;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Host specific choice of the operator strategies. The candidates are benchmarked on synthetic inputs and the
+ * decisions are persisted as a properties file (system property compgraphics.autotune.file, default
+ * ./autotune/decisions.properties). The decisions depend on the image size class (nearest of the tuned sizes on a log
+ * scale) and for mazes on the wall density bucket:
+ * - ConvolutionFilter: crossover radii DIRECT / SEPARABLE / FFT per size class (selectStrategy)
+ * - DistanceMap_: engine of the cost model distance map (binary heap or bucket queue Dijkstra, parallel
+ *   delta-stepping) and the number of delta-stepping threads per size class and density bucket, used by the
+ *   algorithm "Auto (cost model, tuned)"
+ * - RegionGrowing, ObstacleSafetyZone: tile size per size class
+ * The operators only read the table, they never benchmark: without a valid table (other processor count or table
+ * version) the built-in defaults apply. The table is written on demand ("java Autotuner") or, with the system property
+ * compgraphics.autotune=background, by a daemon thread started at the first lookup. compgraphics.autotune=off ignores
+ * the file.
+ */
+public class Autotuner {
+
+    static final String FILE_PROPERTY = "compgraphics.autotune.file";
+    static final String DEFAULT_FILE = "./autotune/decisions.properties";
+    static final String MODE_PROPERTY = "compgraphics.autotune";
+    static final String MODE_OFF = "off";
+    static final String MODE_BACKGROUND = "background";
+
+    static final int TABLE_VERSION = 2;
+    static final String KEY_VERSION = "version";
+    static final String KEY_PROCESSORS = "processors";
+
+    public static final String ENGINE_HEAP = "heap";
+    public static final String ENGINE_BUCKET = "bucket";
+    public static final String ENGINE_DELTA_STEPPING = "delta-stepping";
+
+    public static final String OPERATOR_REGION_GROWING = "regionGrowing";
+    public static final String OPERATOR_SAFETY_ZONE = "safetyZone";
+
+    static final int[] CONVOLUTION_SIZES = {64, 256, 1024};
+    static final int[] RADII = {1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128};
+    static final int[] MAZE_SIZES = {128, 512, 1024};
+    static final double[] WALL_DENSITIES = {0.05, 0.2, 0.4};
+    static final int[] TILE_TUNING_SIZES = {256, 1024};
+    static final int[] TILE_SIZES = {32, 64, 128, 256};
+    static final int RUNS = 3;
+
+    private static volatile Properties decisions;
+    private static Thread backgroundTuning;
+
+    /**
+     * @return the decision table read from the file, empty (built-in defaults) if there is no valid one or autotuning
+     * is off
+     */
+    public static Properties getDecisions() {
+        Properties table = decisions;
+        if (table == null) {
+            synchronized (Autotuner.class) {
+                table = decisions;
+                if (table == null) {
+                    String mode = System.getProperty(MODE_PROPERTY, "");
+                    table = MODE_OFF.equals(mode) ? null : load();
+                    if (table == null) {
+                        table = new Properties();
+                        if (MODE_BACKGROUND.equals(mode)) {
+                            startBackgroundTuning();
+                        }
+                    }
+                    decisions = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * benchmarks all candidates, persists the new table and uses it from now on
+     *
+     * @return the new decision table
+     */
+    public static Properties tune() {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("Autotuner.tune");
+        Properties table = new Properties();
+        table.setProperty(KEY_VERSION, Integer.toString(TABLE_VERSION));
+        table.setProperty(KEY_PROCESSORS, Integer.toString(Runtime.getRuntime().availableProcessors()));
+        tuneConvolution(table);
+        tuneDistanceMap(table);
+        tuneTileSizes(table);
+        store(table);
+        decisions = table;
+        metrics.finish();
+        return table;
+    }
+
+    private static synchronized void startBackgroundTuning() {
+        if (backgroundTuning != null) {
+            return;
+        }
+        backgroundTuning = new Thread(Autotuner::tune, "autotuner");
+        backgroundTuning.setDaemon(true);
+        backgroundTuning.setPriority(Thread.MIN_PRIORITY);
+        backgroundTuning.start();
+    }
+
+    /**
+     * @param sizes the tuned sizes (edge lengths)
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the tuned size nearest to the image on a log scale (compared by the number of pixels)
+     */
+    static int getSizeClass(int[] sizes, int width, int height) {
+        double logPixels = Math.log((double) width * height);
+        int best = sizes[0];
+        for (int size : sizes) {
+            if (Math.abs(Math.log((double) size * size) - logPixels) < Math.abs(Math.log((double) best * best) - logPixels)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    static String getDensityBucket(double wallDensity) {
+        double best = WALL_DENSITIES[0];
+        for (double density : WALL_DENSITIES) {
+            if (Math.abs(density - wallDensity) < Math.abs(best - wallDensity)) {
+                best = density;
+            }
+        }
+        return "d" + Math.round(100 * best);
+    }
+
+    private static String getConvolutionKey(int size, String name) {
+        return "convolution." + size + "." + name;
+    }
+
+    private static String getDistanceKey(int size, String densityBucket, String name) {
+        return "distanceMap." + size + "." + densityBucket + "." + name;
+    }
+
+    private static String getTileSizeKey(String operator, int size) {
+        return operator + "." + size + ".tileSize";
+    }
+
+    /**
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return {separableMinRadius, fftMinRadius, fftMinRadiusSeparable} of the size class, null if not tuned
+     */
+    public static int[] getConvolutionCrossovers(int width, int height) {
+        Properties table = getDecisions();
+        int size = getSizeClass(CONVOLUTION_SIZES, width, height);
+        String separable = table.getProperty(getConvolutionKey(size, "separableMinRadius"));
+        String fft = table.getProperty(getConvolutionKey(size, "fftMinRadius"));
+        String fftSeparable = table.getProperty(getConvolutionKey(size, "fftMinRadiusSeparable"));
+        if (separable == null || fft == null || fftSeparable == null) {
+            return null;
+        }
+        return new int[]{Integer.parseInt(separable), Integer.parseInt(fft), Integer.parseInt(fftSeparable)};
+    }
+
+    /**
+     * @param width       the width of the maze
+     * @param height      the height of the maze
+     * @param wallDensity fraction of blocked pixels
+     * @return the engine for the cost model distance map: ENGINE_HEAP (default), ENGINE_BUCKET or ENGINE_DELTA_STEPPING
+     */
+    public static String getDistanceEngine(int width, int height, double wallDensity) {
+        return getDecisions().getProperty(getDistanceKey(getSizeClass(MAZE_SIZES, width, height),
+                getDensityBucket(wallDensity), "engine"), ENGINE_HEAP);
+    }
+
+    /**
+     * @return threads of the delta-stepping engine, 0 for the common fork/join pool (default)
+     */
+    public static int getDistanceThreads(int width, int height, double wallDensity) {
+        String threads = getDecisions().getProperty(getDistanceKey(getSizeClass(MAZE_SIZES, width, height),
+                getDensityBucket(wallDensity), "threads"));
+        return threads == null ? 0 : Integer.parseInt(threads);
+    }
+
+    /**
+     * @param operator        OPERATOR_REGION_GROWING or OPERATOR_SAFETY_ZONE
+     * @param width           the width of the image
+     * @param height          the height of the image
+     * @param defaultTileSize used if not tuned
+     * @return the tile size of the operator for the size class
+     */
+    public static int getTileSize(String operator, int width, int height, int defaultTileSize) {
+        String tileSize = getDecisions().getProperty(getTileSizeKey(operator, getSizeClass(TILE_TUNING_SIZES, width, height)));
+        return tileSize == null ? defaultTileSize : Integer.parseInt(tileSize);
+    }
+
+    static File getFile() {
+        return new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+    }
+
+    // the table of the file, null if there is none or it was tuned for another processor count / table version
+    private static Properties load() {
+        File file = getFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties table = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            table.load(in);
+        } catch (IOException e) {
+            System.err.println("Autotuner: cannot read " + file + ", using the defaults (" + e.getMessage() + ")");
+            return null;
+        }
+        if (Integer.toString(TABLE_VERSION).equals(table.getProperty(KEY_VERSION))
+                && Integer.toString(Runtime.getRuntime().availableProcessors()).equals(table.getProperty(KEY_PROCESSORS))) {
+            return table;
+        }
+        return null;
+    }
+
+    private static void store(Properties table) {
+        File file = getFile();
+        File dir = file.getAbsoluteFile().getParentFile();
+        try {
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("cannot create " + dir);
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                table.store(out, "operator strategies tuned for this host");
+            }
+        } catch (IOException e) {
+            // the decisions still apply to this session
+            System.err.println("Autotuner: cannot write " + file + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * runs the calculation with the given number of threads (nested parallel streams use the pool of the calling task)
+     *
+     * @param threads number of threads, 0 for the common fork/join pool
+     */
+    static <T> T runWithThreads(int threads, Supplier<T> calculation) {
+        if (threads <= 0 || threads == ForkJoinPool.commonPool().getParallelism()) {
+            return calculation.get();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(calculation::get).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // median run time in nanoseconds
+    private static long measure(Runnable candidate) {
+        candidate.run(); // warm-up
+        long[] times = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            candidate.run();
+            times[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    // smallest radius of RADII from which on the second candidate is faster (Integer.MAX_VALUE if never); the sweep
+    // stops at the first radius where it wins, the slower candidate is not run for larger kernels
+    private static int findCrossover(double[][] img, int size, double[][][] kernels, ConvolutionFilter.Strategy first,
+                                     ConvolutionFilter.Strategy second) {
+        for (int i = 0; i < RADII.length && RADII[i] < size / 2; i++) {
+            double[][] kernel = kernels[i];
+            int radius = RADII[i];
+            long firstTime = measure(() -> ConvolutionFilter.convolveDouble(img, size, size, kernel, radius, first));
+            long secondTime = measure(() -> ConvolutionFilter.convolveDouble(img, size, size, kernel, radius, second));
+            if (secondTime < firstTime) {
+                return radius;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    static void tuneConvolution(Properties table) {
+        Random random = new Random(1);
+        double[][][] meanKernels = new double[RADII.length][][];
+        double[][][] generalKernels = new double[RADII.length][][];
+        for (int i = 0; i < RADII.length; i++) {
+            meanKernels[i] = ConvolutionFilter.getMeanMask(RADII[i]);
+            int kernelSize = 2 * RADII[i] + 1;
+            generalKernels[i] = new double[kernelSize][kernelSize]; // not separable
+            for (double[] column : generalKernels[i]) {
+                for (int y = 0; y < kernelSize; y++) {
+                    column[y] = random.nextDouble();
+                }
+            }
+        }
+
+        for (int size : CONVOLUTION_SIZES) {
+            double[][] img = new double[size][size];
+            for (double[] column : img) {
+                for (int y = 0; y < column.length; y++) {
+                    column[y] = random.nextInt(256);
+                }
+            }
+            table.setProperty(getConvolutionKey(size, "separableMinRadius"), Integer.toString(findCrossover(img, size,
+                    meanKernels, ConvolutionFilter.Strategy.DIRECT, ConvolutionFilter.Strategy.SEPARABLE)));
+            table.setProperty(getConvolutionKey(size, "fftMinRadius"), Integer.toString(findCrossover(img, size,
+                    generalKernels, ConvolutionFilter.Strategy.DIRECT, ConvolutionFilter.Strategy.FFT)));
+            table.setProperty(getConvolutionKey(size, "fftMinRadiusSeparable"), Integer.toString(findCrossover(img, size,
+                    meanKernels, ConvolutionFilter.Strategy.SEPARABLE, ConvolutionFilter.Strategy.FFT)));
+        }
+    }
+
+    static DistanceMap_ getMazeOperator(int size, double wallDensity, long seed) {
+        Random random = new Random(seed);
+        int[][] maze = new int[size][size];
+        for (int[] column : maze) {
+            for (int y = 0; y < column.length; y++) {
+                column[y] = random.nextDouble() < wallDensity ? DistanceMap_.WALL_COLOR : DistanceMap_.BACKGROUND_COLOR;
+            }
+        }
+        maze[size / 2][size / 2] = DistanceMap_.TARGET_COLOR;
+        return SyntheticCorpus.getDistanceMapOperator(maze, size, size);
+    }
+
+    // thread counts tried for the parallel engines: powers of two up to the number of processors
+    static List<Integer> getThreadCandidates() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> candidates = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            candidates.add(threads);
+        }
+        candidates.add(processors);
+        return candidates;
+    }
+
+    static void tuneDistanceMap(Properties table) {
+        CostModel model = new CostModel("Euclidean", CostModel.CONNECTIVITY_8);
+        long seed = 2;
+        for (int size : MAZE_SIZES) {
+            for (double wallDensity : WALL_DENSITIES) {
+                DistanceMap_ operator = getMazeOperator(size, wallDensity, seed++);
+                String bestEngine = ENGINE_HEAP;
+                int bestThreads = 0;
+                long bestTime = Long.MAX_VALUE;
+                for (String engine : new String[]{ENGINE_HEAP, ENGINE_BUCKET}) {
+                    long time = measure(() -> runDistanceEngine(operator, engine, 0, DistanceMap_.TARGET_COLOR, model,
+                            new OperatorProgress()));
+                    if (time < bestTime) {
+                        bestTime = time;
+                        bestEngine = engine;
+                    }
+                }
+                for (int threads : getThreadCandidates()) {
+                    long time = measure(() -> runDistanceEngine(operator, ENGINE_DELTA_STEPPING, threads,
+                            DistanceMap_.TARGET_COLOR, model, new OperatorProgress()));
+                    if (time < bestTime) {
+                        bestTime = time;
+                        bestEngine = ENGINE_DELTA_STEPPING;
+                        bestThreads = threads;
+                    }
+                }
+                String densityBucket = getDensityBucket(wallDensity);
+                table.setProperty(getDistanceKey(size, densityBucket, "engine"), bestEngine);
+                table.setProperty(getDistanceKey(size, densityBucket, "threads"), Integer.toString(bestThreads));
+            }
+        }
+    }
+
+    static void tuneTileSizes(Properties table) {
+        for (int size : TILE_TUNING_SIZES) {
+            int[][] blobs = SyntheticCorpus.getBlobImage(size, size, 3);
+            List<Point> seeds = SyntheticCorpus.getSeeds(size, size, 4, 16);
+            DistanceMap_ maze = getMazeOperator(size, WALL_DENSITIES[1], 5);
+            for (int y = size / 4; y < size / 2; y++) {
+                maze.inDataArrInt[size / 3][y] = DistanceMap_.OBSTACLE_COLOR;
+            }
+            int bestRegionGrowing = TILE_SIZES[0];
+            int bestSafetyZone = TILE_SIZES[0];
+            long bestRegionGrowingTime = Long.MAX_VALUE;
+            long bestSafetyZoneTime = Long.MAX_VALUE;
+            for (int tileSize : TILE_SIZES) {
+                long time = measure(() -> new RegionGrowing(size, size, 2.0, 10.0, tileSize).getLabels(blobs, seeds));
+                if (time < bestRegionGrowingTime) {
+                    bestRegionGrowingTime = time;
+                    bestRegionGrowing = tileSize;
+                }
+                time = measure(() -> maze.getObstacleSafetyZone(DistanceMap_.OBSTACLE_COLOR, "Euclidean",
+                        DistanceMap_.DEFAULT_SAFETY_DISTANCE, tileSize));
+                if (time < bestSafetyZoneTime) {
+                    bestSafetyZoneTime = time;
+                    bestSafetyZone = tileSize;
+                }
+            }
+            table.setProperty(getTileSizeKey(OPERATOR_REGION_GROWING, size), Integer.toString(bestRegionGrowing));
+            table.setProperty(getTileSizeKey(OPERATOR_SAFETY_ZONE, size), Integer.toString(bestSafetyZone));
+        }
+    }
+
+    /**
+     * runs the cost model distance map with the given engine
+     *
+     * @param threads threads of the delta-stepping engine, 0 for the common fork/join pool
+     */
+    static double[][] runDistanceEngine(DistanceMap_ operator, String engine, int threads, int initialPositionValue,
+                                        CostModel model, OperatorProgress progress) {
+        if (ENGINE_DELTA_STEPPING.equals(engine)) {
+            return runWithThreads(threads, () -> operator.getDistanceMapParallel(initialPositionValue, model, false,
+                    progress));
+        }
+        boolean useBucketQueue = operator.useBucketQueue;
+        operator.useBucketQueue = ENGINE_BUCKET.equals(engine);
+        try {
+            return operator.getDistanceMap(initialPositionValue, model, false, progress);
+        } finally {
+            operator.useBucketQueue = useBucketQueue;
+        }
+    }
+
+    public static void main(String[] args) {
+        Properties table = tune();
+        System.out.println("decisions written to " + getFile());
+        for (String key : new java.util.TreeSet<>(table.stringPropertyNames())) {
+            System.out.println(key + " = " + table.getProperty(key));
+        }
+    }
+
+}
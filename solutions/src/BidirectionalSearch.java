@@ -0,0 +1,241 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Point-to-point shortest path query with bidirectional Dijkstra on the moves and costs of a CostModel (the moves are
+ * symmetric, so the backward search uses the same model). Both searches stop as soon as the sum of their smallest
+ * queue keys reaches the best connection found so far, on open maps this explores a fraction of the grid compared to a
+ * full distance map.
+ * The concurrent variant expands the two frontiers in two threads. Distances are kept in AtomicLongArrays (bits of
+ * the doubles), so each side sees the writes of the other side when it checks for a connection.
+ */
+public class BidirectionalSearch {
+
+    private static final int FORWARD = 0;
+    private static final int BACKWARD = 1;
+
+    private final int width;
+    private final int height;
+    private final CostModel model;
+    private final double[] pixelCosts;
+
+    /**
+     * result of a query
+     */
+    public static class Result {
+        public final IntArrayList path; // packed ids from start to target, empty if there is no connection
+        public final double cost;       // Double.POSITIVE_INFINITY if there is no connection
+        public final long expanded;     // nodes expanded by both searches
+
+        Result(IntArrayList path, double cost, long expanded) {
+            this.path = path;
+            this.cost = cost;
+            this.expanded = expanded;
+        }
+    }
+
+    /**
+     * @param width      the width of the image
+     * @param height     the height of the image
+     * @param model      moves and costs
+     * @param pixelCosts per pixel cost factors, see CostModel.getPixelCosts
+     */
+    public BidirectionalSearch(int width, int height, CostModel model, double[] pixelCosts) {
+        this.width = width;
+        this.height = height;
+        this.model = model;
+        this.pixelCosts = pixelCosts;
+    }
+
+    // state of one query, shared by the two searches
+    private class Query {
+        final AtomicLongArray[] distances = new AtomicLongArray[2];
+        final int[][] predecessors = new int[2][];
+        final boolean[][] settled = new boolean[2][];
+        final IndexMinHeap[] openSets = new IndexMinHeap[2];
+        final long[] expanded = new long[2];
+        volatile double[] topKeys = {0.0, 0.0}; // smallest queue key per side, only increases
+        volatile double bestCost = Double.POSITIVE_INFINITY;
+        int meetingForward = -1;  // last node of the forward part of the best connection
+        int meetingBackward = -1; // first node of the backward part
+
+        Query(int startId, int targetId) {
+            int numPixels = width * height;
+            long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+            for (int side = FORWARD; side <= BACKWARD; side++) {
+                this.distances[side] = new AtomicLongArray(numPixels);
+                for (int id = 0; id < numPixels; id++) {
+                    this.distances[side].set(id, infinity);
+                }
+                this.predecessors[side] = new int[numPixels];
+                Arrays.fill(this.predecessors[side], -1);
+                this.settled[side] = new boolean[numPixels];
+                this.openSets[side] = new IndexMinHeap(1024);
+            }
+            this.distances[FORWARD].set(startId, Double.doubleToLongBits(0.0));
+            this.distances[BACKWARD].set(targetId, Double.doubleToLongBits(0.0));
+            this.openSets[FORWARD].add(startId, 0.0);
+            this.openSets[BACKWARD].add(targetId, 0.0);
+            if (startId == targetId) {
+                updateConnection(0.0, startId, targetId);
+            }
+        }
+
+        double getDistance(int side, int id) {
+            return Double.longBitsToDouble(this.distances[side].get(id));
+        }
+
+        synchronized void updateConnection(double cost, int forwardNode, int backwardNode) {
+            if (cost < this.bestCost) {
+                this.bestCost = cost;
+                this.meetingForward = forwardNode;
+                this.meetingBackward = backwardNode;
+            }
+        }
+
+        synchronized void setTopKey(int side, double key) {
+            double[] keys = this.topKeys.clone();
+            keys[side] = key;
+            this.topKeys = keys;
+        }
+
+        boolean isFinished() {
+            double[] keys = this.topKeys;
+            return keys[FORWARD] + keys[BACKWARD] >= this.bestCost;
+        }
+
+        // settles one node of the side, returns false if the side has nothing left to expand
+        boolean expandNext(int side) {
+            IndexMinHeap openSet = this.openSets[side];
+            while (!openSet.isEmpty() && this.settled[side][openSet.peekId()]) {
+                openSet.poll(); // stale queue entries
+            }
+            if (openSet.isEmpty()) {
+                setTopKey(side, Double.POSITIVE_INFINITY);
+                return false;
+            }
+            setTopKey(side, openSet.peekKey());
+            if (isFinished()) {
+                return false;
+            }
+            int current = openSet.poll();
+            this.settled[side][current] = true;
+            this.expanded[side]++;
+
+            int other = 1 - side;
+            double currentDistance = getDistance(side, current);
+            int currentX = GridIndex.getX(current, width);
+            int currentY = GridIndex.getY(current, width);
+            for (int dir = 0; dir < model.getNumDirections(); dir++) {
+                double moveCost = model.getMoveCost(pixelCosts, width, height, currentX, currentY, dir);
+                if (moveCost == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int neighbor = GridIndex.pack(currentX + model.dx[dir], currentY + model.dy[dir], width);
+                double tentativeScore = currentDistance + moveCost;
+                if (!this.settled[side][neighbor] && tentativeScore < getDistance(side, neighbor)) {
+                    this.predecessors[side][neighbor] = current;
+                    this.distances[side].set(neighbor, Double.doubleToLongBits(tentativeScore));
+                    openSet.add(neighbor, tentativeScore);
+                }
+                // written before the read, so at least one side sees the connection (volatile semantics)
+                double otherDistance = getDistance(other, neighbor);
+                if (tentativeScore + otherDistance < this.bestCost) {
+                    if (side == FORWARD) {
+                        updateConnection(tentativeScore + otherDistance, current, neighbor);
+                    } else {
+                        updateConnection(tentativeScore + otherDistance, neighbor, current);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * alternates between the two searches (the smaller frontier expands first)
+     *
+     * @param startId  packed id of the start
+     * @param targetId packed id of the target
+     * @return path and cost of a shortest path
+     */
+    public Result search(int startId, int targetId) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("BidirectionalSearch.search");
+        Query query = new Query(startId, targetId);
+        boolean[] active = {true, true};
+        while (active[FORWARD] || active[BACKWARD]) {
+            int side = !active[BACKWARD] || (active[FORWARD]
+                    && query.openSets[FORWARD].size() <= query.openSets[BACKWARD].size()) ? FORWARD : BACKWARD;
+            active[side] = query.expandNext(side);
+            if (query.isFinished()) {
+                break;
+            }
+        }
+        return finish(query, metrics);
+    }
+
+    /**
+     * expands the two frontiers concurrently (forward in a second thread, backward in the calling thread)
+     *
+     * @param startId  packed id of the start
+     * @param targetId packed id of the target
+     * @return path and cost of a shortest path
+     */
+    public Result searchConcurrent(int startId, int targetId) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("BidirectionalSearch.searchConcurrent");
+        Query query = new Query(startId, targetId);
+        Thread forward = new Thread(() -> {
+            while (query.expandNext(FORWARD)) {
+                // expand until finished
+            }
+        }, "bidirectional-forward");
+        forward.start();
+        while (query.expandNext(BACKWARD)) {
+            // expand until finished
+        }
+        try {
+            forward.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted", e);
+        }
+        return finish(query, metrics);
+    }
+
+    private Result finish(Query query, OperatorMetrics.Run metrics) {
+        IntArrayList path = new IntArrayList();
+        double cost = Double.POSITIVE_INFINITY;
+        if (query.meetingForward >= 0) {
+            IntArrayList forwardPart = new IntArrayList();
+            for (int id = query.meetingForward; id >= 0; id = query.predecessors[FORWARD][id]) {
+                forwardPart.add(id);
+            }
+            for (int i = forwardPart.size() - 1; i >= 0; i--) {
+                path.add(forwardPart.get(i));
+            }
+            if (query.meetingBackward != query.meetingForward) {
+                for (int id = query.meetingBackward; id >= 0; id = query.predecessors[BACKWARD][id]) {
+                    path.add(id);
+                }
+            }
+            cost = getPathCost(path);
+        }
+
+        long expanded = query.expanded[FORWARD] + query.expanded[BACKWARD];
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded).finish();
+        return new Result(path, cost, expanded);
+    }
+
+    private double getPathCost(IntArrayList path) {
+        double cost = 0.0;
+        for (int i = 1; i < path.size(); i++) {
+            int previousX = GridIndex.getX(path.get(i - 1), this.width);
+            int previousY = GridIndex.getY(path.get(i - 1), this.width);
+            int dir = this.model.getDirection(GridIndex.getX(path.get(i), this.width) - previousX,
+                    GridIndex.getY(path.get(i), this.width) - previousY);
+            cost += this.model.getMoveCost(this.pixelCosts, this.width, this.height, previousX, previousY, dir);
+        }
+        return cost;
+    }
+
+}
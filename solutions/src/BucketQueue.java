@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * Circular bucket queue (Dial's algorithm) for non-negative keys. With a bucket width not larger than the smallest
+ * edge cost all nodes of the current bucket are final when polled, so the queue yields exact shortest distances
+ * while every operation is O(1).
+ */
+public class BucketQueue implements NodeQueue {
+
+    private final double bucketWidth;
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+    private int currentBucket; // absolute bucket index of the bucket polled next
+    private int size;
+
+    /**
+     * @param bucketWidth the key range per bucket, must not exceed the smallest edge cost
+     * @param maxEdgeCost the largest edge cost, determines the number of buckets in the ring
+     */
+    public BucketQueue(double bucketWidth, double maxEdgeCost) {
+        if (!(bucketWidth > 0.0)) {
+            throw new RuntimeException("bucket width must be > 0");
+        }
+        this.bucketWidth = bucketWidth;
+        int numBuckets = (int) Math.ceil(maxEdgeCost / bucketWidth) + 2;
+        this.buckets = new int[numBuckets][16];
+        this.bucketSizes = new int[numBuckets];
+    }
+
+    public void add(int id, double key) {
+        long absoluteBucket = (long) (key / this.bucketWidth);
+        if (absoluteBucket < this.currentBucket) {
+            absoluteBucket = this.currentBucket; // rounding, key belongs to the bucket being processed
+        }
+        if (absoluteBucket - this.currentBucket >= this.buckets.length) {
+            throw new RuntimeException("key exceeds bucket ring, maxEdgeCost too small");
+        }
+        int ringIdx = (int) (absoluteBucket % this.buckets.length);
+        int[] bucket = this.buckets[ringIdx];
+        if (this.bucketSizes[ringIdx] == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+            this.buckets[ringIdx] = bucket;
+        }
+        bucket[this.bucketSizes[ringIdx]++] = id;
+        this.size++;
+    }
+
+    public int poll() {
+        if (this.size == 0) {
+            throw new RuntimeException("queue is empty");
+        }
+        int ringIdx = this.currentBucket % this.buckets.length;
+        while (this.bucketSizes[ringIdx] == 0) {
+            this.currentBucket++;
+            ringIdx = this.currentBucket % this.buckets.length;
+        }
+        this.size--;
+        return this.buckets[ringIdx][--this.bucketSizes[ringIdx]];
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Raster-scan (chamfer) distance transform with blocked pixels. Forward and backward sweeps are repeated until no
+ * distance changes anymore, which yields geodesic distances around walls.
+ * Supported masks: "3-4" and "5-7-11" (approximations of Euclidean), Chebyshev and Manhattan are exact.
+ * The image is split into tiles which are processed in wavefront order, all tiles of one wavefront run in parallel.
+ */
+public class ChamferDistanceTransform {
+
+    public static final String MASK_3_4 = "3-4";
+    public static final String MASK_5_7_11 = "5-7-11";
+
+    static final int DEFAULT_TILE_SIZE = 64;
+
+    final int width;
+    final int height;
+    final int tileSize;
+
+    // forward mask, the backward mask is the point reflection
+    final int[] maskDx;
+    final int[] maskDy;
+    final double[] maskCosts;
+
+    private int passCount;
+
+    /**
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param mode     Euclidean, Chebyshev or Manhattan
+     * @param mask     MASK_3_4 or MASK_5_7_11, only used for Euclidean
+     * @param tileSize edge length of the tiles processed in parallel (>= 3)
+     */
+    public ChamferDistanceTransform(int width, int height, String mode, String mask, int tileSize) {
+        if (tileSize < 3) {
+            throw new RuntimeException("tile size must be >= 3");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+
+        double orthogonal;
+        double diagonal;
+        double knight = Double.NaN;
+        switch (mode) {
+            case "Euclidean":
+                if (MASK_3_4.equals(mask)) {
+                    orthogonal = 1.0;
+                    diagonal = 4.0 / 3.0;
+                } else if (MASK_5_7_11.equals(mask)) {
+                    orthogonal = 1.0;
+                    diagonal = 7.0 / 5.0;
+                    knight = 11.0 / 5.0;
+                } else {
+                    throw new RuntimeException("unknown chamfer mask " + mask);
+                }
+                break;
+            case "Chebyshev":
+                orthogonal = 1.0;
+                diagonal = 1.0;
+                break;
+            case "Manhattan":
+                orthogonal = 1.0;
+                diagonal = 2.0;
+                break;
+            default:
+                throw new RuntimeException("unknown metric " + mode);
+        }
+
+        // neighbours which precede the hot-spot in raster order
+        List<int[]> offsets = new ArrayList<>();
+        List<Double> costs = new ArrayList<>();
+        offsets.add(new int[]{-1, 0});  costs.add(orthogonal);
+        offsets.add(new int[]{0, -1});  costs.add(orthogonal);
+        offsets.add(new int[]{-1, -1}); costs.add(diagonal);
+        offsets.add(new int[]{1, -1});  costs.add(diagonal);
+        if (!Double.isNaN(knight)) {
+            offsets.add(new int[]{-2, -1}); costs.add(knight);
+            offsets.add(new int[]{-1, -2}); costs.add(knight);
+            offsets.add(new int[]{1, -2});  costs.add(knight);
+            offsets.add(new int[]{2, -1});  costs.add(knight);
+        }
+        this.maskDx = new int[offsets.size()];
+        this.maskDy = new int[offsets.size()];
+        this.maskCosts = new double[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++) {
+            this.maskDx[i] = offsets.get(i)[0];
+            this.maskDy[i] = offsets.get(i)[1];
+            this.maskCosts[i] = costs.get(i);
+        }
+    }
+
+    public ChamferDistanceTransform(int width, int height, String mode, String mask) {
+        this(width, height, mode, mask, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @return the number of sweeps (forward + backward) of the last calculation
+     */
+    public int getPassCount() {
+        return this.passCount;
+    }
+
+    /**
+     * calculates the distance map from all pixels with seedValue
+     *
+     * @param image     the grey values in row major order (index = y * width + x)
+     * @param blocked   blocked[greyValue] is true for values that must not be entered (walls, obstacles)
+     * @param seedValue the grey value of the source pixels (distance 0)
+     * @return flat distance map in row major order, unreachable and blocked pixels are +infinity
+     */
+    public double[] getDistanceMap(int[] image, boolean[] blocked, int seedValue) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ChamferDistanceTransform.getDistanceMap");
+        int size = this.width * this.height;
+        boolean[] blockedPixels = new boolean[size];
+        double[] distanceMap = new double[size];
+        IntStream.range(0, this.height).parallel().forEach(y -> {
+            for (int i = y * this.width; i < (y + 1) * this.width; i++) {
+                blockedPixels[i] = blocked[image[i]];
+                distanceMap[i] = image[i] == seedValue ? 0.0 : Double.POSITIVE_INFINITY;
+            }
+        });
+
+        int tilesX = (this.width + this.tileSize - 1) / this.tileSize;
+        int tilesY = (this.height + this.tileSize - 1) / this.tileSize;
+        // tile (tx, ty) only depends on tiles with a smaller wavefront index tx + 2 * ty (the mask reaches one row
+        // of tiles up and one column of tiles to the right)
+        int numWaves = (tilesX - 1) + 2 * (tilesY - 1) + 1;
+
+        this.passCount = 0;
+        LongAdder relaxations = new LongAdder();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int direction = 1; direction >= -1; direction -= 2) {
+                LongAdder passChanges = new LongAdder();
+                for (int wave = 0; wave < numWaves; wave++) {
+                    final int currentWave = wave;
+                    final int currentDirection = direction;
+                    IntStream.range(0, tilesY).parallel().forEach(row -> {
+                        int ty = currentDirection > 0 ? row : tilesY - 1 - row;
+                        int tx = currentWave - 2 * row;
+                        if (tx >= 0 && tx < tilesX) {
+                            if (currentDirection < 0) {
+                                tx = tilesX - 1 - tx;
+                            }
+                            passChanges.add(sweepTile(distanceMap, blockedPixels, tx, ty, currentDirection));
+                        }
+                    });
+                }
+                this.passCount++;
+                relaxations.add(passChanges.sum());
+                changed |= passChanges.sum() > 0;
+            }
+        }
+
+        metrics.add(OperatorMetrics.Counter.RELAXATIONS, relaxations.sum())
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) this.passCount * size)
+                .finish();
+        return distanceMap;
+    }
+
+    // applies the forward (direction = 1) or backward (direction = -1) half mask on all pixels of a tile
+    // returns the number of improved pixels
+    private int sweepTile(double[] distanceMap, boolean[] blockedPixels, int tx, int ty, int direction) {
+        int xStart = tx * this.tileSize;
+        int xEnd = Math.min(xStart + this.tileSize, this.width) - 1;
+        int yStart = ty * this.tileSize;
+        int yEnd = Math.min(yStart + this.tileSize, this.height) - 1;
+        if (direction < 0) {
+            int tmp = xStart; xStart = xEnd; xEnd = tmp;
+            tmp = yStart; yStart = yEnd; yEnd = tmp;
+        }
+
+        int changes = 0;
+        for (int y = yStart; y != yEnd + direction; y += direction) {
+            for (int x = xStart; x != xEnd + direction; x += direction) {
+                int idx = y * this.width + x;
+                if (blockedPixels[idx]) {
+                    continue;
+                }
+                double best = distanceMap[idx];
+                for (int m = 0; m < this.maskCosts.length; m++) {
+                    int dx = this.maskDx[m] * direction;
+                    int dy = this.maskDy[m] * direction;
+                    int nbX = x + dx;
+                    int nbY = y + dy;
+                    if (nbX >= 0 && nbY >= 0 && nbX < this.width && nbY < this.height) {
+                        double candidate = distanceMap[nbY * this.width + nbX] + this.maskCosts[m];
+                        if (candidate < best && isAllowedMove(blockedPixels, x, y, dx, dy)) {
+                            best = candidate;
+                        }
+                    } //if inside the image
+                } //for mask
+                if (best < distanceMap[idx]) {
+                    distanceMap[idx] = best;
+                    changes++;
+                }
+            } //for x
+        } //for y
+        return changes;
+    }
+
+    // corners: a diagonal or knight move from (x + dx, y + dy) to (x, y) is not allowed if both cells it passes
+    // are blocked (same rule as DistanceMap_.isAllowedMove)
+    private boolean isAllowedMove(boolean[] blockedPixels, int x, int y, int dx, int dy) {
+        if (dx == 0 || dy == 0) {
+            return true;
+        }
+        int ax = Math.abs(dx);
+        int ay = Math.abs(dy);
+        int firstX, firstY, secondX, secondY;
+        if (ax == ay) {
+            firstX = x + dx; firstY = y;
+            secondX = x; secondY = y + dy;
+        } else if (ax > ay) {
+            // e.g. (2,1): passes (1,0) and (1,1)
+            firstX = x + Integer.signum(dx); firstY = y;
+            secondX = x + Integer.signum(dx); secondY = y + dy;
+        } else {
+            firstX = x; firstY = y + Integer.signum(dy);
+            secondX = x + dx; secondY = y + Integer.signum(dy);
+        }
+        return !(blockedPixels[firstY * this.width + firstX] && blockedPixels[secondY * this.width + secondX]);
+    }
+
+}
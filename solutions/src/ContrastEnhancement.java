@@ -0,0 +1,183 @@
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Histogram equalization of 8-bit images working directly on the row major pixel buffer (byte[] of the
+ * ImageProcessor or the ByteBuffer of a MappedImageIO image, so huge scans are not converted to int[][]):
+ * - global: one transfer function from the histogram of the whole image
+ * - CLAHE (contrast limited adaptive histogram equalization): the image is split into tilesX x tilesY tiles, the
+ *   histograms of the tiles are built in parallel and turned into clipped transfer functions
+ *   (ImageTransformationFilter.getEqualizationTF). Every pixel is mapped with the transfer functions of the four
+ *   nearest tile centres, bilinearly blended by its position, so there are no seams at the tile borders.
+ * The transfer functions are lookup tables like in ImageTransformationFilter.getTransformedImage, the mapping is one
+ * streaming pass over the rows (rows in parallel), input and output buffer may be the same.
+ */
+public class ContrastEnhancement {
+
+    public static final int MAX_VALUE = 255;
+    public static final int DEFAULT_TILES = 8;
+    public static final double DEFAULT_CLIP_LIMIT = 3.0;
+
+    static final int BAND_HEIGHT = 64; // rows per partial histogram of the global equalization
+
+    /**
+     * @param pixels the pixels (row major, index y * width + x)
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the equalized pixels
+     */
+    public static byte[] getEqualizedImage(byte[] pixels, int width, int height) {
+        byte[] result = new byte[pixels.length];
+        equalize(ByteBuffer.wrap(pixels), ByteBuffer.wrap(result), width, height);
+        return result;
+    }
+
+    /**
+     * global histogram equalization
+     *
+     * @param in     the pixels (row major, index y * width + x)
+     * @param out    receives the equalized pixels (may be in)
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    public static void equalize(ByteBuffer in, ByteBuffer out, int width, int height) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ContrastEnhancement.equalize");
+        // partial histograms of bands of rows, summed up
+        int numBands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        int[] histogram = IntStream.range(0, numBands).parallel().mapToObj(band -> getHistogram(in, width, 0,
+                band * BAND_HEIGHT, width, Math.min(BAND_HEIGHT, height - band * BAND_HEIGHT)))
+                .reduce(new int[MAX_VALUE + 1], (a, b) -> {
+                    int[] sum = new int[MAX_VALUE + 1];
+                    for (int i = 0; i <= MAX_VALUE; i++) {
+                        sum[i] = a[i] + b[i];
+                    }
+                    return sum;
+                });
+        int[] transferFunction = ImageTransformationFilter.getEqualizationTF(histogram, MAX_VALUE,
+                Double.POSITIVE_INFINITY);
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                out.put(offset + x, (byte) transferFunction[in.get(offset + x) & 0xFF]);
+            }
+        });
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+    }
+
+    /**
+     * @param pixels    the pixels (row major, index y * width + x)
+     * @param width     the width of the image
+     * @param height    the height of the image
+     * @param tilesX    number of tiles in x direction
+     * @param tilesY    number of tiles in y direction
+     * @param clipLimit the max slope of the tile transfer functions, see ImageTransformationFilter.getEqualizationTF
+     * @return the enhanced pixels
+     */
+    public static byte[] getCLAHEImage(byte[] pixels, int width, int height, int tilesX, int tilesY, double clipLimit) {
+        byte[] result = new byte[pixels.length];
+        applyCLAHE(ByteBuffer.wrap(pixels), ByteBuffer.wrap(result), width, height, tilesX, tilesY, clipLimit);
+        return result;
+    }
+
+    /**
+     * contrast limited adaptive histogram equalization
+     *
+     * @param in        the pixels (row major, index y * width + x)
+     * @param out       receives the enhanced pixels (may be in)
+     * @param width     the width of the image
+     * @param height    the height of the image
+     * @param tilesX    number of tiles in x direction
+     * @param tilesY    number of tiles in y direction
+     * @param clipLimit the max slope of the tile transfer functions, see ImageTransformationFilter.getEqualizationTF
+     */
+    public static void applyCLAHE(ByteBuffer in, ByteBuffer out, int width, int height, int tilesX, int tilesY,
+                                  double clipLimit) {
+        if (tilesX < 1 || tilesY < 1 || tilesX > width || tilesY > height) {
+            throw new RuntimeException("invalid number of tiles " + tilesX + " x " + tilesY);
+        }
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ContrastEnhancement.applyCLAHE");
+        int tileWidth = (width + tilesX - 1) / tilesX;
+        int tileHeight = (height + tilesY - 1) / tilesY;
+        // ceil can leave trailing tiles empty (e.g. 10 pixels in 4 tiles of 3), they are dropped
+        int numTilesX = (width + tileWidth - 1) / tileWidth;
+        int numTilesY = (height + tileHeight - 1) / tileHeight;
+
+        int[][] transferFunctions = IntStream.range(0, numTilesX * numTilesY).parallel().mapToObj(tile -> {
+            int tileX = (tile % numTilesX) * tileWidth;
+            int tileY = (tile / numTilesX) * tileHeight;
+            int[] histogram = getHistogram(in, width, tileX, tileY, Math.min(tileWidth, width - tileX),
+                    Math.min(tileHeight, height - tileY));
+            return ImageTransformationFilter.getEqualizationTF(histogram, MAX_VALUE, clipLimit);
+        }).toArray(int[][]::new);
+
+        // interpolation between the tile centres, per column and per row
+        Interpolation columns = new Interpolation(width, tileWidth, numTilesX);
+        Interpolation rows = new Interpolation(height, tileHeight, numTilesY);
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int offset = y * width;
+            float weightY = rows.weights[y];
+            int tileRow0 = rows.tiles0[y] * numTilesX;
+            int tileRow1 = rows.tiles1[y] * numTilesX;
+            for (int x = 0; x < width; x++) {
+                int value = in.get(offset + x) & 0xFF;
+                float weightX = columns.weights[x];
+                int[] topLeft = transferFunctions[tileRow0 + columns.tiles0[x]];
+                int[] topRight = transferFunctions[tileRow0 + columns.tiles1[x]];
+                int[] bottomLeft = transferFunctions[tileRow1 + columns.tiles0[x]];
+                int[] bottomRight = transferFunctions[tileRow1 + columns.tiles1[x]];
+                float top = topLeft[value] + weightX * (topRight[value] - topLeft[value]);
+                float bottom = bottomLeft[value] + weightX * (bottomRight[value] - bottomLeft[value]);
+                out.put(offset + x, (byte) Math.round(top + weightY * (bottom - top)));
+            }
+        });
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+    }
+
+    // the two tiles (index along one axis) whose centres enclose a coordinate and the weight of the second one,
+    // coordinates before the first or after the last centre only use that tile
+    private static class Interpolation {
+        final int[] tiles0;
+        final int[] tiles1;
+        final float[] weights;
+
+        Interpolation(int length, int tileLength, int numTiles) {
+            this.tiles0 = new int[length];
+            this.tiles1 = new int[length];
+            this.weights = new float[length];
+            double[] centres = new double[numTiles];
+            for (int tile = 0; tile < numTiles; tile++) {
+                int start = tile * tileLength;
+                int end = Math.min(length, start + tileLength);
+                centres[tile] = (start + end - 1) / 2.0;
+            }
+            int tile = 0;
+            for (int i = 0; i < length; i++) {
+                while (tile + 1 < numTiles && centres[tile + 1] <= i) {
+                    tile++;
+                }
+                this.tiles0[i] = tile;
+                if (i <= centres[tile] || tile + 1 == numTiles) {
+                    this.tiles1[i] = tile;
+                    this.weights[i] = 0.0f;
+                } else {
+                    this.tiles1[i] = tile + 1;
+                    this.weights[i] = (float) ((i - centres[tile]) / (centres[tile + 1] - centres[tile]));
+                }
+            }
+        }
+    }
+
+    // histogram of a rectangle of the row major pixels
+    static int[] getHistogram(ByteBuffer pixels, int width, int xStart, int yStart, int regionWidth, int regionHeight) {
+        int[] histogram = new int[MAX_VALUE + 1];
+        for (int y = yStart; y < yStart + regionHeight; y++) {
+            int offset = y * width;
+            for (int x = xStart; x < xStart + regionWidth; x++) {
+                histogram[pixels.get(offset + x) & 0xFF]++;
+            }
+        }
+        return histogram;
+    }
+
+}
@@ -0,0 +1,54 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+/**
+ * Contrast enhancement of a greyscale image by global histogram equalization or CLAHE (tiled, contrast limited).
+ */
+public class ContrastEnhancement_ implements PlugInFilter {
+
+	public int setup(String arg, ImagePlus imp) {
+		if (arg.equals("about"))
+			{showAbout(); return DONE;}
+		return DOES_8G;
+	} //setup
+
+
+	public void run(ImageProcessor ip) {
+		byte[] pixels = (byte[])ip.getPixels();
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+
+		GenericDialog gd = new GenericDialog("user input");
+		String[] methods = new String[] {"CLAHE", "Histogram equalization"};
+		gd.addChoice("method", methods, methods[0]);
+		gd.addNumericField("tiles x (CLAHE)", ContrastEnhancement.DEFAULT_TILES, 0);
+		gd.addNumericField("tiles y (CLAHE)", ContrastEnhancement.DEFAULT_TILES, 0);
+		gd.addNumericField("clip limit (max slope, CLAHE)", ContrastEnhancement.DEFAULT_CLIP_LIMIT, 1);
+		gd.showDialog();
+		if(gd.wasCanceled()) {
+		  return;
+		} //if -was canceled
+		String method = gd.getNextChoice();
+		int tilesX = (int)Math.round(gd.getNextNumber());
+		int tilesY = (int)Math.round(gd.getNextNumber());
+		double clipLimit = gd.getNextNumber();
+
+		// the pixel buffer is processed directly, no conversion to int[][]
+		if (method.equals("CLAHE")) {
+			ImageJUtility.showNewImage(ContrastEnhancement.getCLAHEImage(pixels, width, height, tilesX, tilesY, clipLimit),
+					width, height, "CLAHE " + tilesX + "x" + tilesY + ", clip limit " + clipLimit);
+		} else {
+			ImageJUtility.showNewImage(ContrastEnhancement.getEqualizedImage(pixels, width, height), width, height,
+					"equalized image");
+		}
+	} //run
+
+	void showAbout() {
+		IJ.showMessage("About ContrastEnhancement_...",
+			"this is a PluginFilter for histogram equalization and CLAHE\n");
+	} //showAbout
+
+} //class ContrastEnhancement_
@@ -1,8 +1,57 @@
+import java.util.stream.IntStream;
+
 /**
- * Utility class that supports various convolution filters
+ * Utility class that supports various convolution filters.
+ * Pixels outside the image are treated as zero (not part of the sum). Depending on the kernel, each call picks
+ * - DIRECT: the plain (2r+1)^2 loop, fastest for small kernels
+ * - SEPARABLE: two 1D passes for rank-1 kernels (e.g. mean, Gaussian), O(r) per pixel
+ * - FFT: multiplication in the frequency domain, O(log(n)) per pixel independent of the kernel size
  */
 public class ConvolutionFilter {
 
+    public enum Strategy { DIRECT, SEPARABLE, FFT }
+
+    // crossover radii, defaults measured on 512x512 images, the Autotuner table has host specific values per size class
+    static final int SEPARABLE_MIN_RADIUS = 2;
+    static final int FFT_MIN_RADIUS = 12;
+    static final int FFT_MIN_RADIUS_SEPARABLE = 96;
+
+    static final double SEPARABILITY_TOLERANCE = 1e-12;
+
+    /**
+     * picks the fastest strategy for a kernel based on its size and whether it is separable (built-in crossovers)
+     *
+     * @param kernel The kernel that should be applied.
+     * @param radius The radius of the kernel.
+     * @return The strategy to use.
+     */
+    public static Strategy selectStrategy(double[][] kernel, int radius) {
+        return selectStrategy(kernel, radius, new int[]{SEPARABLE_MIN_RADIUS, FFT_MIN_RADIUS, FFT_MIN_RADIUS_SEPARABLE});
+    }
+
+    /**
+     * same as above with the crossovers tuned for the size class of the image (Autotuner), the built-in ones if the
+     * host has not been tuned
+     *
+     * @param kernel The kernel that should be applied.
+     * @param radius The radius of the kernel.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The strategy to use.
+     */
+    public static Strategy selectStrategy(double[][] kernel, int radius, int width, int height) {
+        int[] crossovers = Autotuner.getConvolutionCrossovers(width, height);
+        return crossovers == null ? selectStrategy(kernel, radius) : selectStrategy(kernel, radius, crossovers);
+    }
+
+    // crossovers = {separableMinRadius, fftMinRadius, fftMinRadiusSeparable}
+    private static Strategy selectStrategy(double[][] kernel, int radius, int[] crossovers) {
+        if (radius >= crossovers[0] && getSeparableFactors(kernel, radius) != null) {
+            return radius >= crossovers[2] ? Strategy.FFT : Strategy.SEPARABLE;
+        }
+        return radius >= crossovers[1] ? Strategy.FFT : Strategy.DIRECT;
+    }
+
     /**
      * convolution of input image with kernel, normalization to kernel sum 1.0 only use for low-pass filters
      *
@@ -14,7 +63,63 @@ public class ConvolutionFilter {
      * @return The image with the applied kernel.
      */
     public static double[][] convolveDoubleNorm(double[][] inputImg, int width, int height, double[][] kernel, int radius) {
+        return convolveDoubleNorm(inputImg, width, height, kernel, radius, selectStrategy(kernel, radius, width, height));
+    }
+
+    /**
+     * convolution of input image with kernel, each pixel is divided by the sum of the kernel coefficients inside the
+     * image
+     *
+     * @param inputImg The input image on which the kernel should be applied.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param kernel   The kernel that should be applied on the image.
+     * @param radius   The radius of the kernel.
+     * @param strategy The convolution strategy.
+     * @return The image with the applied kernel.
+     */
+    public static double[][] convolveDoubleNorm(double[][] inputImg, int width, int height, double[][] kernel, int radius,
+                                                Strategy strategy) {
+        if (strategy == Strategy.DIRECT) {
+            return convolveDoubleNormDirect(inputImg, width, height, kernel, radius);
+        }
+
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ConvolutionFilter.convolveDoubleNorm." + strategy);
+        // the coefficient sum per pixel is the convolution of the in-bounds mask (all ones) with the kernel
+        double[][] mask = new double[width][height];
+        for (int x = 0; x < width; x++) {
+            java.util.Arrays.fill(mask[x], 1.0);
+        }
+
+        double[][] returnImg;
+        double[][] coeffSum;
+        if (strategy == Strategy.FFT) {
+            double[][][] results = convolveFFT(inputImg, mask, width, height, kernel, radius);
+            returnImg = results[0];
+            coeffSum = results[1];
+        } else {
+            double[][] factors = getSeparableFactors(kernel, radius);
+            if (factors == null) {
+                throw new RuntimeException("kernel is not separable");
+            }
+            returnImg = convolveSeparable(inputImg, width, height, factors, radius);
+            coeffSum = convolveSeparable(mask, width, height, factors, radius);
+            metrics.add(OperatorMetrics.Counter.KERNEL_TAPS, 4L * (2 * radius + 1) * width * height);
+        }
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                returnImg[x][y] /= coeffSum[x][y];
+            }
+        }
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return returnImg;
+    }
+
+    static double[][] convolveDoubleNormDirect(double[][] inputImg, int width, int height, double[][] kernel, int radius) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ConvolutionFilter.convolveDoubleNorm");
         double[][] returnImg = new double[width][height];
+        long kernelTaps = 0;
 
         //move hot-spot to all possible positions, e.g. (3,3) cf. lecture slide
         for(int x = 0; x < width; x++) {
@@ -30,6 +135,7 @@ public class ConvolutionFilter {
                         if (nbX >= 0 && nbY >= 0 && nbX < width && nbY < height) {
                             sum += inputImg[nbX][nbY] * kernel[xOffset + radius][yOffset + radius];
                             coeffSum += kernel[xOffset + radius][yOffset + radius];
+                            kernelTaps++;
                         } //if inside the image
                     } //for yOffset
                 } //for xOffset
@@ -37,6 +143,9 @@ public class ConvolutionFilter {
             } //for y
         } //for x
 
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height)
+                .add(OperatorMetrics.Counter.KERNEL_TAPS, kernelTaps)
+                .finish();
         return returnImg;
     }
 
@@ -51,7 +160,46 @@ public class ConvolutionFilter {
      * @return The image with the applied kernel.
      */
     public static double[][] convolveDouble(double[][] inputImg, int width, int height, double[][] kernel, int radius) {
+        return convolveDouble(inputImg, width, height, kernel, radius, selectStrategy(kernel, radius, width, height));
+    }
+
+    /**
+     * convolution of input image with kernel using the given strategy
+     *
+     * @param inputImg The input image on which the kernel should be applied.
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param kernel   The kernel that should be applied on the image.
+     * @param radius   The radius of the kernel.
+     * @param strategy The convolution strategy.
+     * @return The image with the applied kernel.
+     */
+    public static double[][] convolveDouble(double[][] inputImg, int width, int height, double[][] kernel, int radius,
+                                            Strategy strategy) {
+        if (strategy == Strategy.DIRECT) {
+            return convolveDoubleDirect(inputImg, width, height, kernel, radius);
+        }
+
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ConvolutionFilter.convolveDouble." + strategy);
+        double[][] returnImg;
+        if (strategy == Strategy.FFT) {
+            returnImg = convolveFFT(inputImg, null, width, height, kernel, radius)[0];
+        } else {
+            double[][] factors = getSeparableFactors(kernel, radius);
+            if (factors == null) {
+                throw new RuntimeException("kernel is not separable");
+            }
+            returnImg = convolveSeparable(inputImg, width, height, factors, radius);
+            metrics.add(OperatorMetrics.Counter.KERNEL_TAPS, 2L * (2 * radius + 1) * width * height);
+        }
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return returnImg;
+    }
+
+    static double[][] convolveDoubleDirect(double[][] inputImg, int width, int height, double[][] kernel, int radius) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ConvolutionFilter.convolveDouble");
         double[][] returnImg = new double[width][height];
+        long kernelTaps = 0;
 
         //move hot-spot to all possible positions, e.g. (3,3) cf. lecture slide
         for(int x = 0; x < width; x++) {
@@ -65,6 +213,7 @@ public class ConvolutionFilter {
                      int nbY = y + yOffset;
                      if (nbX >= 0 && nbY >= 0 && nbX < width && nbY < height) {
                          sum += inputImg[nbX][nbY] * kernel[xOffset + radius][yOffset + radius];
+                         kernelTaps++;
                      } //if inside the image
                   } //for yOffset
               } //for xOffset
@@ -72,9 +221,141 @@ public class ConvolutionFilter {
             } //for y
         } //for x
 
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height)
+                .add(OperatorMetrics.Counter.KERNEL_TAPS, kernelTaps)
+                .finish();
+        return returnImg;
+    }
+
+    /**
+     * splits a rank-1 kernel into kernel[x][y] = xFactors[x] * yFactors[y]
+     *
+     * @param kernel The kernel.
+     * @param radius The radius of the kernel.
+     * @return {xFactors, yFactors} or null if the kernel is not separable
+     */
+    static double[][] getSeparableFactors(double[][] kernel, int radius) {
+        int size = 2 * radius + 1;
+        // pivot: largest absolute coefficient
+        int pivotX = 0;
+        int pivotY = 0;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (Math.abs(kernel[x][y]) > Math.abs(kernel[pivotX][pivotY])) {
+                    pivotX = x;
+                    pivotY = y;
+                }
+            }
+        }
+        double pivot = kernel[pivotX][pivotY];
+        if (pivot == 0.0) {
+            return null;
+        }
+
+        double[] xFactors = new double[size];
+        double[] yFactors = new double[size];
+        for (int i = 0; i < size; i++) {
+            xFactors[i] = kernel[i][pivotY];
+            yFactors[i] = kernel[pivotX][i] / pivot;
+        }
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (Math.abs(kernel[x][y] - xFactors[x] * yFactors[y]) > SEPARABILITY_TOLERANCE * Math.abs(pivot)) {
+                    return null;
+                }
+            }
+        }
+        return new double[][]{xFactors, yFactors};
+    }
+
+    // two 1D passes (along y on the contiguous columns, then along x), pixels outside the image are zero
+    static double[][] convolveSeparable(double[][] inputImg, int width, int height, double[][] factors, int radius) {
+        double[] xFactors = factors[0];
+        double[] yFactors = factors[1];
+        double[][] tmpImg = new double[width][height];
+        double[][] returnImg = new double[width][height];
+
+        IntStream.range(0, width).parallel().forEach(x -> {
+            for (int y = 0; y < height; y++) {
+                double sum = 0.0;
+                for (int yOffset = Math.max(-radius, -y); yOffset <= Math.min(radius, height - 1 - y); yOffset++) {
+                    sum += inputImg[x][y + yOffset] * yFactors[yOffset + radius];
+                }
+                tmpImg[x][y] = sum;
+            }
+        });
+        IntStream.range(0, width).parallel().forEach(x -> {
+            for (int y = 0; y < height; y++) {
+                double sum = 0.0;
+                for (int xOffset = Math.max(-radius, -x); xOffset <= Math.min(radius, width - 1 - x); xOffset++) {
+                    sum += tmpImg[x + xOffset][y] * xFactors[xOffset + radius];
+                }
+                returnImg[x][y] = sum;
+            }
+        });
         return returnImg;
     }
 
+    /**
+     * convolution via FFT with zero padding (no wrap around), a second real image can be convolved with the same
+     * kernel for free by packing it into the imaginary part
+     *
+     * @param inputImg  The input image.
+     * @param secondImg A second input image or null.
+     * @param width     The width of the images.
+     * @param height    The height of the images.
+     * @param kernel    The kernel.
+     * @param radius    The radius of the kernel.
+     * @return {result of inputImg, result of secondImg (null if not given)}
+     */
+    static double[][][] convolveFFT(double[][] inputImg, double[][] secondImg, int width, int height,
+                                    double[][] kernel, int radius) {
+        int nx = FFT.nextPowerOfTwo(width + radius);
+        int ny = FFT.nextPowerOfTwo(height + radius);
+
+        double[][] imgRe = new double[nx][ny];
+        double[][] imgIm = new double[nx][ny];
+        for (int x = 0; x < width; x++) {
+            System.arraycopy(inputImg[x], 0, imgRe[x], 0, height);
+            if (secondImg != null) {
+                System.arraycopy(secondImg[x], 0, imgIm[x], 0, height);
+            }
+        }
+
+        // kernel offset (xOffset, yOffset) at index (xOffset mod nx, yOffset mod ny)
+        double[][] kernelRe = new double[nx][ny];
+        double[][] kernelIm = new double[nx][ny];
+        for (int xOffset = -radius; xOffset <= radius; xOffset++) {
+            for (int yOffset = -radius; yOffset <= radius; yOffset++) {
+                kernelRe[(xOffset + nx) % nx][(yOffset + ny) % ny] = kernel[xOffset + radius][yOffset + radius];
+            }
+        }
+
+        FFT.transform2D(imgRe, imgIm, false);
+        FFT.transform2D(kernelRe, kernelIm, false);
+
+        // the filters of this class are correlations (no kernel flip): multiply with the complex conjugate
+        IntStream.range(0, nx).parallel().forEach(x -> {
+            for (int y = 0; y < ny; y++) {
+                double re = imgRe[x][y] * kernelRe[x][y] + imgIm[x][y] * kernelIm[x][y];
+                double im = imgIm[x][y] * kernelRe[x][y] - imgRe[x][y] * kernelIm[x][y];
+                imgRe[x][y] = re;
+                imgIm[x][y] = im;
+            }
+        });
+        FFT.transform2D(imgRe, imgIm, true);
+
+        double[][] returnImg = new double[width][height];
+        double[][] secondReturnImg = secondImg != null ? new double[width][height] : null;
+        for (int x = 0; x < width; x++) {
+            System.arraycopy(imgRe[x], 0, returnImg[x], 0, height);
+            if (secondReturnImg != null) {
+                System.arraycopy(imgIm[x], 0, secondReturnImg[x], 0, height);
+            }
+        }
+        return new double[][][]{returnImg, secondReturnImg};
+    }
+
     /**
      * returns kernel image according to specified radius for mean low-pass filtering
      *
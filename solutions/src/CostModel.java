@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Move set and costs for the distance map calculation. The metric is resolved once into per-direction arrays
+ * (dx, dy, step length, traversed pixels), so the engines do not compare strings per relaxation.
+ * Connectivity:
+ * - 8:  the unit moves
+ * - 16: + knight moves (1,2)
+ * - 32: + (1,3) and (2,3) moves, better approximation of Euclidean distances
+ * Larger moves are only allowed if all pixels traversed by the line segment are free; diagonal unit moves follow the
+ * corner rule of DistanceMap_.isAllowedMove (not both corner pixels blocked).
+ * Optional terrain costs: the cost of a move is stepLength * (cost(source) + cost(target)) / 2 with per grey value
+ * costs, an infinite cost blocks the grey value.
+ */
+public class CostModel {
+
+    public static final int CONNECTIVITY_8 = 8;
+    public static final int CONNECTIVITY_16 = 16;
+    public static final int CONNECTIVITY_32 = 32;
+
+    static final int NUM_GREY_VALUES = 256;
+
+    final String mode;
+    final int connectivity;
+
+    // per direction
+    final int[] dx;
+    final int[] dy;
+    final double[] stepLength;
+    // pixels traversed by the move (relative to the source, without source and target), empty for unit moves
+    final int[][] traversedDx;
+    final int[][] traversedDy;
+
+    // per grey value, null = uniform terrain
+    private double[] terrainCosts;
+
+    /**
+     * @param mode         Euclidean, Chebyshev or Manhattan
+     * @param connectivity CONNECTIVITY_8, CONNECTIVITY_16 or CONNECTIVITY_32
+     */
+    public CostModel(String mode, int connectivity) {
+        if (connectivity != CONNECTIVITY_8 && connectivity != CONNECTIVITY_16 && connectivity != CONNECTIVITY_32) {
+            throw new RuntimeException("unsupported connectivity " + connectivity);
+        }
+        this.mode = mode;
+        this.connectivity = connectivity;
+
+        // unit moves in the neighbour order of DistanceMap_.getDistanceMap (dx outer, dy inner)
+        List<int[]> moves = new ArrayList<>();
+        for (int moveX = -1; moveX <= 1; moveX++) {
+            for (int moveY = -1; moveY <= 1; moveY++) {
+                if (moveX != 0 || moveY != 0) {
+                    moves.add(new int[]{moveX, moveY});
+                }
+            }
+        }
+        if (connectivity >= CONNECTIVITY_16) {
+            addSymmetricMoves(moves, 1, 2);
+        }
+        if (connectivity >= CONNECTIVITY_32) {
+            addSymmetricMoves(moves, 1, 3);
+            addSymmetricMoves(moves, 2, 3);
+        }
+
+        int numMoves = moves.size();
+        this.dx = new int[numMoves];
+        this.dy = new int[numMoves];
+        this.stepLength = new double[numMoves];
+        this.traversedDx = new int[numMoves][];
+        this.traversedDy = new int[numMoves][];
+        for (int dir = 0; dir < numMoves; dir++) {
+            this.dx[dir] = moves.get(dir)[0];
+            this.dy[dir] = moves.get(dir)[1];
+            this.stepLength[dir] = getStepLength(this.dx[dir], this.dy[dir], mode);
+            setTraversedPixels(dir);
+        }
+    }
+
+    // the 8 sign/axis permutations of (a, b)
+    private static void addSymmetricMoves(List<int[]> moves, int a, int b) {
+        for (int signA = -1; signA <= 1; signA += 2) {
+            for (int signB = -1; signB <= 1; signB += 2) {
+                moves.add(new int[]{signA * a, signB * b});
+                moves.add(new int[]{signB * b, signA * a});
+            }
+        }
+    }
+
+    /**
+     * same costs as DistanceMap_.costsBetweenPositions
+     *
+     * @param dx   distance in x
+     * @param dy   distance in y
+     * @param mode Euclidean, Chebyshev or Manhattan
+     * @return the length of the move
+     */
+    static double getStepLength(int dx, int dy, String mode) {
+        switch (mode) {
+            case "Euclidean":
+                return Math.sqrt(dx * dx + dy * dy);
+            case "Chebyshev":
+                return Math.max(Math.abs(dx), Math.abs(dy));
+            case "Manhattan":
+                return Math.abs(dx) + Math.abs(dy);
+            default:
+                throw new RuntimeException("unknown metric " + mode);
+        }
+    }
+
+    // pixels the segment from the source to the target center passes through (cells touched at the sample points,
+    // both cells if a sample lies exactly on a cell border)
+    private void setTraversedPixels(int dir) {
+        int moveX = this.dx[dir];
+        int moveY = this.dy[dir];
+        List<int[]> cells = new ArrayList<>();
+        if (Math.max(Math.abs(moveX), Math.abs(moveY)) > 1) {
+            int numSamples = 4 * Math.max(Math.abs(moveX), Math.abs(moveY));
+            for (int s = 1; s < numSamples; s++) {
+                double px = (double) moveX * s / numSamples;
+                double py = (double) moveY * s / numSamples;
+                for (int cellX : getCells(px)) {
+                    for (int cellY : getCells(py)) {
+                        boolean isEndpoint = (cellX == 0 && cellY == 0) || (cellX == moveX && cellY == moveY);
+                        boolean isKnown = false;
+                        for (int[] cell : cells) {
+                            isKnown |= cell[0] == cellX && cell[1] == cellY;
+                        }
+                        if (!isEndpoint && !isKnown) {
+                            cells.add(new int[]{cellX, cellY});
+                        }
+                    }
+                }
+            }
+        }
+        this.traversedDx[dir] = new int[cells.size()];
+        this.traversedDy[dir] = new int[cells.size()];
+        for (int i = 0; i < cells.size(); i++) {
+            this.traversedDx[dir][i] = cells.get(i)[0];
+            this.traversedDy[dir][i] = cells.get(i)[1];
+        }
+    }
+
+    private static int[] getCells(double pos) {
+        double fraction = pos - Math.floor(pos);
+        if (Math.abs(fraction - 0.5) < 1e-9) {
+            return new int[]{(int) Math.floor(pos), (int) Math.ceil(pos)};
+        }
+        return new int[]{(int) Math.round(pos)};
+    }
+
+    /**
+     * @param terrainCosts cost factor per grey value (length 256, &gt; 0, Double.POSITIVE_INFINITY = blocked) or
+     *                     null for uniform terrain
+     * @return this
+     */
+    public CostModel setTerrainCosts(double[] terrainCosts) {
+        if (terrainCosts != null && terrainCosts.length != NUM_GREY_VALUES) {
+            throw new RuntimeException("terrain cost LUT needs " + NUM_GREY_VALUES + " entries");
+        }
+        this.terrainCosts = terrainCosts;
+        return this;
+    }
+
+    /**
+     * @param minCost cost factor of white (255)
+     * @param maxCost cost factor of black (0)
+     * @return LUT with linearly increasing costs for darker grey values
+     */
+    public static double[] getLinearTerrainCosts(double minCost, double maxCost) {
+        double[] costs = new double[NUM_GREY_VALUES];
+        for (int grey = 0; grey < NUM_GREY_VALUES; grey++) {
+            costs[grey] = maxCost - (maxCost - minCost) * grey / (NUM_GREY_VALUES - 1);
+        }
+        return costs;
+    }
+
+    public int getNumDirections() {
+        return this.dx.length;
+    }
+
+    public boolean hasTerrainCosts() {
+        return this.terrainCosts != null;
+    }
+
+    /**
+     * @param img     the image [width][height]
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @param blocked blocked grey values (blocked[greyValue])
+     * @return cost factor per pixel id (y * width + x), Double.POSITIVE_INFINITY for blocked pixels
+     */
+    public double[] getPixelCosts(int[][] img, int width, int height, boolean[] blocked) {
+        double[] pixelCosts = new double[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grey = img[x][y];
+                double cost = this.terrainCosts == null ? 1.0 : this.terrainCosts[grey];
+                pixelCosts[GridIndex.pack(x, y, width)] = blocked[grey] ? Double.POSITIVE_INFINITY : cost;
+            }
+        }
+        return pixelCosts;
+    }
+
+    /**
+     * @param pixelCosts the result of getPixelCosts
+     * @return {smallest, largest} finite move cost (bounds for a BucketQueue), {+inf, 0} if all pixels are blocked
+     */
+    public double[] getMoveCostRange(double[] pixelCosts) {
+        double minPixelCost = Double.POSITIVE_INFINITY;
+        double maxPixelCost = 0.0;
+        for (double pixelCost : pixelCosts) {
+            if (pixelCost != Double.POSITIVE_INFINITY) {
+                minPixelCost = Math.min(minPixelCost, pixelCost);
+                maxPixelCost = Math.max(maxPixelCost, pixelCost);
+            }
+        }
+        double minStep = Double.POSITIVE_INFINITY;
+        double maxStep = 0.0;
+        for (double step : this.stepLength) {
+            minStep = Math.min(minStep, step);
+            maxStep = Math.max(maxStep, step);
+        }
+        if (this.terrainCosts == null) {
+            return minPixelCost == Double.POSITIVE_INFINITY ? new double[]{Double.POSITIVE_INFINITY, 0.0}
+                    : new double[]{minStep, maxStep};
+        }
+        return new double[]{minStep * minPixelCost, maxStep * maxPixelCost};
+    }
+
+    /**
+     * @param pixelCosts the result of getPixelCosts
+     * @param width      the width of the image
+     * @param height     the height of the image
+     * @param x          source x
+     * @param y          source y
+     * @param dir        the direction index
+     * @return the cost of the move or Double.POSITIVE_INFINITY if it is not allowed
+     */
+    public double getMoveCost(double[] pixelCosts, int width, int height, int x, int y, int dir) {
+        int targetX = x + this.dx[dir];
+        int targetY = y + this.dy[dir];
+        if (targetX < 0 || targetY < 0 || targetX >= width || targetY >= height) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double targetCost = pixelCosts[GridIndex.pack(targetX, targetY, width)];
+        if (targetCost == Double.POSITIVE_INFINITY) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        int[] crossedX = this.traversedDx[dir];
+        if (crossedX.length == 0) {
+            // unit move, diagonal corner rule
+            if (this.dx[dir] != 0 && this.dy[dir] != 0
+                    && pixelCosts[GridIndex.pack(x, targetY, width)] == Double.POSITIVE_INFINITY
+                    && pixelCosts[GridIndex.pack(targetX, y, width)] == Double.POSITIVE_INFINITY) {
+                return Double.POSITIVE_INFINITY;
+            }
+        } else {
+            int[] crossedY = this.traversedDy[dir];
+            for (int i = 0; i < crossedX.length; i++) {
+                if (pixelCosts[GridIndex.pack(x + crossedX[i], y + crossedY[i], width)] == Double.POSITIVE_INFINITY) {
+                    return Double.POSITIVE_INFINITY;
+                }
+            }
+        }
+
+        if (this.terrainCosts == null) {
+            return this.stepLength[dir];
+        }
+        return this.stepLength[dir] * 0.5 * (pixelCosts[GridIndex.pack(x, y, width)] + targetCost);
+    }
+
+    /**
+     * @param moveX distance in x
+     * @param moveY distance in y
+     * @return the direction index of the move or -1 if it is not part of the move set
+     */
+    public int getDirection(int moveX, int moveY) {
+        for (int dir = 0; dir < this.dx.length; dir++) {
+            if (this.dx[dir] == moveX && this.dy[dir] == moveY) {
+                return dir;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel delta-stepping (bucket based label-correcting) shortest paths on the pixel grid with the moves and costs of
+ * a CostModel. Nodes are kept in buckets of width delta; the nodes of the smallest bucket are relaxed in parallel
+ * chunks (work stealing of the fork/join pool) until the bucket stays empty, then the next bucket follows.
+ * Distances are stored as the bits of positive doubles in an AtomicLongArray (the long order equals the double order)
+ * and lowered with compare-and-set. The result is the fixed point d(v) = min(d(u) + cost(u, v)), so it is identical to
+ * the sequential Dijkstra engine (DistanceMap_.getDistanceMap(int, CostModel, ...)) independent of the scheduling.
+ */
+public class DeltaStepping {
+
+    static final int CHUNK_SIZE = 512;
+    public static final double DEFAULT_DELTA_FACTOR = 4.0; // delta = factor * cheapest move
+
+    private final int width;
+    private final int height;
+    private final CostModel model;
+    private final double[] pixelCosts;
+    private final double delta;
+
+    private long relaxations;
+    private int phases;
+
+    /**
+     * @param width      the width of the image
+     * @param height     the height of the image
+     * @param model      moves and costs
+     * @param pixelCosts per pixel cost factors, see CostModel.getPixelCosts
+     * @param delta      bucket width, &lt;= 0 for DEFAULT_DELTA_FACTOR times the cheapest move
+     */
+    public DeltaStepping(int width, int height, CostModel model, double[] pixelCosts, double delta) {
+        this.width = width;
+        this.height = height;
+        this.model = model;
+        this.pixelCosts = pixelCosts;
+        if (delta <= 0.0) {
+            double minPixelCost = Double.POSITIVE_INFINITY;
+            for (double pixelCost : pixelCosts) {
+                minPixelCost = Math.min(minPixelCost, pixelCost);
+            }
+            double minStep = Double.POSITIVE_INFINITY;
+            for (double stepLength : model.stepLength) {
+                minStep = Math.min(minStep, stepLength);
+            }
+            delta = DEFAULT_DELTA_FACTOR * minStep * (Double.isInfinite(minPixelCost) ? 1.0 : minPixelCost);
+        }
+        this.delta = delta;
+    }
+
+    /**
+     * @param seeds    packed ids (y * width + x) with distance 0
+     * @param progress cancellation / deadline, checked between the relaxation phases
+     * @return distance per packed id, Double.POSITIVE_INFINITY if unreachable
+     */
+    public double[] getDistances(IntArrayList seeds, OperatorProgress progress) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DeltaStepping.getDistances");
+        int numPixels = this.width * this.height;
+        AtomicLongArray distances = new AtomicLongArray(numPixels);
+        // distance bits a node was last expanded with, skips duplicate frontier entries
+        AtomicLongArray expandedWith = new AtomicLongArray(numPixels);
+        long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+        IntStream.range(0, numPixels).parallel().forEach(id -> {
+            distances.set(id, infinity);
+            expandedWith.set(id, -1L);
+        });
+
+        TreeMap<Long, List<int[]>> buckets = new TreeMap<>();
+        int[] seedIds = seeds.toArray();
+        for (int seed : seedIds) {
+            distances.set(seed, Double.doubleToLongBits(0.0));
+        }
+        buckets.computeIfAbsent(0L, b -> new ArrayList<>()).add(seedIds);
+
+        LongAdder relaxationCounter = new LongAdder();
+        LongAdder expandedCounter = new LongAdder();
+        this.phases = 0;
+        while (!buckets.isEmpty() && !progress.checkpointNow(expandedCounter.sum(), numPixels)) {
+            Map.Entry<Long, List<int[]>> smallest = buckets.pollFirstEntry();
+            long bucket = smallest.getKey();
+            int[] frontier = concat(smallest.getValue());
+
+            // the bucket is relaxed until no node falls back into it
+            while (frontier.length > 0) {
+                this.phases++;
+                metrics.recordQueueSize(frontier.length);
+                int[] currentFrontier = frontier;
+                int numChunks = (currentFrontier.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                List<PhaseResult> results = IntStream.range(0, numChunks).parallel()
+                        .mapToObj(chunk -> relaxChunk(currentFrontier, chunk * CHUNK_SIZE,
+                                Math.min(currentFrontier.length, (chunk + 1) * CHUNK_SIZE), bucket, distances,
+                                expandedWith, relaxationCounter, expandedCounter))
+                        .collect(Collectors.toList());
+
+                List<int[]> sameBucket = new ArrayList<>();
+                for (PhaseResult result : results) {
+                    sameBucket.add(result.sameBucket.toArray());
+                    for (Map.Entry<Long, IntArrayList> later : result.laterBuckets.entrySet()) {
+                        buckets.computeIfAbsent(later.getKey(), b -> new ArrayList<>()).add(later.getValue().toArray());
+                    }
+                }
+                frontier = concat(sameBucket);
+            }
+        }
+
+        double[] result = new double[numPixels];
+        IntStream.range(0, numPixels).parallel().forEach(id -> result[id] = Double.longBitsToDouble(distances.get(id)));
+        this.relaxations = relaxationCounter.sum();
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expandedCounter.sum())
+                .add(OperatorMetrics.Counter.RELAXATIONS, this.relaxations)
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, numPixels)
+                .finish();
+        return result;
+    }
+
+    // nodes inserted by one chunk, the lists are only touched by the thread relaxing the chunk
+    private static class PhaseResult {
+        final IntArrayList sameBucket = new IntArrayList();
+        final Map<Long, IntArrayList> laterBuckets = new TreeMap<>();
+    }
+
+    private PhaseResult relaxChunk(int[] frontier, int from, int to, long bucket, AtomicLongArray distances,
+                                   AtomicLongArray expandedWith, LongAdder relaxationCounter, LongAdder expandedCounter) {
+        PhaseResult result = new PhaseResult();
+        long relaxed = 0;
+        long expanded = 0;
+        for (int i = from; i < to; i++) {
+            int current = frontier[i];
+            long currentBits = distances.get(current);
+            long previousBits = expandedWith.get(current);
+            // stale entry (already expanded with this distance by another chunk / phase)
+            if (previousBits == currentBits || !expandedWith.compareAndSet(current, previousBits, currentBits)) {
+                continue;
+            }
+            expanded++;
+            double currentDistance = Double.longBitsToDouble(currentBits);
+            int currentX = GridIndex.getX(current, this.width);
+            int currentY = GridIndex.getY(current, this.width);
+            for (int dir = 0; dir < this.model.getNumDirections(); dir++) {
+                double moveCost = this.model.getMoveCost(this.pixelCosts, this.width, this.height, currentX, currentY, dir);
+                if (moveCost == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int neighbor = GridIndex.pack(currentX + this.model.dx[dir], currentY + this.model.dy[dir], this.width);
+                double tentativeScore = currentDistance + moveCost;
+                if (lowerDistance(distances, neighbor, Double.doubleToLongBits(tentativeScore))) {
+                    relaxed++;
+                    long targetBucket = (long) (tentativeScore / this.delta);
+                    if (targetBucket <= bucket) {
+                        result.sameBucket.add(neighbor);
+                    } else {
+                        result.laterBuckets.computeIfAbsent(targetBucket, b -> new IntArrayList()).add(neighbor);
+                    }
+                }
+            }
+        }
+        relaxationCounter.add(relaxed);
+        expandedCounter.add(expanded);
+        return result;
+    }
+
+    // lock-free minimum, true if this call lowered the distance
+    private static boolean lowerDistance(AtomicLongArray distances, int id, long newBits) {
+        long oldBits = distances.get(id);
+        while (newBits < oldBits) {
+            if (distances.compareAndSet(id, oldBits, newBits)) {
+                return true;
+            }
+            oldBits = distances.get(id);
+        }
+        return false;
+    }
+
+    private static int[] concat(List<int[]> parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] result = new int[length];
+        int pos = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    public long getRelaxations() {
+        return this.relaxations;
+    }
+
+    public int getPhaseCount() {
+        return this.phases;
+    }
+
+    public double getDelta() {
+        return this.delta;
+    }
+
+}
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * On-disk cache for distance fields (double[width][height]) so that a known maze does not have to be recomputed.
+ * Files are named after a content hash of the image data, the metric/algorithm and the blocked values.
+ *
+ * File format (little endian, version 2):
+ * <pre>
+ *     int    magic "DFC1"
+ *     short  version
+ *     byte   encoding (0 = uint16 quantised, 1 = float32, 2 = float64)
+ *     byte   reserved
+ *     int    width, int height
+ *     double scale (uint16: value = q * scale, q = 0xFFFF is +infinity)
+ *     int    uncompressed payload length, int compressed payload length
+ *     byte[32] key (SHA-256)
+ *     byte[] payload: row major values, delta coded to the previous value, deflate (LZ77) compressed
+ * </pre>
+ * uint16 is only used if the quantisation error stays below MAX_QUANTISATION_ERROR, so the descent along the
+ * gradient (calculateShortestPath) still finds a strictly smaller neighbour in every step. Otherwise float32 is used.
+ * Fields whose values are compared to thresholds (e.g. the obstacle distances of the safety zone) are stored lossless
+ * as float64, a rounded value could fall on the other side of the threshold.
+ */
+public class DistanceFieldCache {
+
+    static final String CACHE_DIR_PROPERTY = "compgraphics.cache.dir";
+    static final String DEFAULT_CACHE_DIR = "./cache";
+
+    static final int MAGIC = 0x31434644; // "DFC1"
+    static final short VERSION = 2; // entries of older versions are recalculated
+    static final byte ENCODING_UINT16 = 0;
+    static final byte ENCODING_FLOAT32 = 1;
+    static final byte ENCODING_FLOAT64 = 2;
+    static final int HEADER_SIZE = 4 + 2 + 1 + 1 + 4 + 4 + 8 + 4 + 4 + 32;
+
+    static final int UINT16_INFINITY = 0xFFFF;
+    static final double MAX_QUANTISATION_ERROR = 0.125;
+
+    /**
+     * @param inDataArrInt       the image the field was calculated on
+     * @param width              the width of the image
+     * @param height             the height of the image
+     * @param fieldName          distinguishes the fields of one image (e.g. "target/Euclidean/Queue")
+     * @param blockedPixelValues the blocked values used for the calculation
+     * @return hex encoded SHA-256 key
+     */
+    public static String getKey(int[][] inDataArrInt, int width, int height, String fieldName,
+                                List<Integer> blockedPixelValues) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(ByteBuffer.allocate(8).putInt(width).putInt(height).array());
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) inDataArrInt[x][y];
+            }
+            digest.update(row);
+        }
+        digest.update(fieldName.getBytes(StandardCharsets.UTF_8));
+        for (Integer blockedPixelValue : blockedPixelValues) {
+            digest.update(blockedPixelValue.byteValue());
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    static File getCacheFile(String key) {
+        return new File(System.getProperty(CACHE_DIR_PROPERTY, DEFAULT_CACHE_DIR), key + ".dfc");
+    }
+
+    /**
+     * @param key    the key from getKey
+     * @param width  the expected width
+     * @param height the expected height
+     * @return the cached field or null if there is no (valid) cache entry
+     */
+    public static double[][] load(String key, int width, int height) {
+        File file = getCacheFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        // read into a heap buffer, a mapped entry could not be replaced by store or deleted on Windows
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer in = ByteBuffer.allocate((int) size);
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+            in.flip();
+            return decode(in.order(ByteOrder.LITTLE_ENDIAN), key, width, height);
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            return null; // corrupt or outdated entry, recalculate
+        }
+    }
+
+    /**
+     * stores the field (quantised if the error is small enough), failures are ignored (the cache is optional)
+     *
+     * @param key    the key from getKey
+     * @param field  the distance field [width][height]
+     * @param width  the width of the field
+     * @param height the height of the field
+     */
+    public static void store(String key, double[][] field, int width, int height) {
+        store(key, field, width, height, false);
+    }
+
+    /**
+     * stores the field, failures are ignored (the cache is optional)
+     *
+     * @param key      the key from getKey
+     * @param field    the distance field [width][height]
+     * @param width    the width of the field
+     * @param height   the height of the field
+     * @param lossless true stores the exact values (float64), for fields that are thresholded
+     */
+    public static void store(String key, double[][] field, int width, int height, boolean lossless) {
+        File file = getCacheFile(key);
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), key, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ByteBuffer encoded = encode(key, field, width, height, lossless);
+                    while (encoded.hasRemaining()) {
+                        channel.write(encoded);
+                    }
+                }
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp); // only left over if the write or the move failed
+            }
+        } catch (IOException e) {
+            // cache is optional
+        }
+    }
+
+    static ByteBuffer encode(String key, double[][] field, int width, int height, boolean lossless) {
+        double max = 0.0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (!Double.isInfinite(field[x][y]) && field[x][y] > max) {
+                    max = field[x][y];
+                }
+            }
+        }
+        double scale = max > 0.0 ? max / (UINT16_INFINITY - 1) : 1.0;
+        byte encoding = lossless ? ENCODING_FLOAT64
+                : scale / 2.0 <= MAX_QUANTISATION_ERROR ? ENCODING_UINT16 : ENCODING_FLOAT32;
+
+        // delta coding to the previous value in row major order
+        ByteBuffer raw;
+        if (encoding == ENCODING_UINT16) {
+            raw = ByteBuffer.allocate(2 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+            int previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int quantised = Double.isInfinite(field[x][y]) ? UINT16_INFINITY : (int) Math.round(field[x][y] / scale);
+                    raw.putShort((short) (quantised - previous));
+                    previous = quantised;
+                }
+            }
+        } else if (encoding == ENCODING_FLOAT64) {
+            raw = ByteBuffer.allocate(8 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+            long previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    long bits = Double.doubleToLongBits(field[x][y]);
+                    raw.putLong(bits - previous);
+                    previous = bits;
+                }
+            }
+        } else {
+            raw = ByteBuffer.allocate(4 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+            int previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int bits = Float.floatToIntBits((float) field[x][y]);
+                    raw.putInt(bits - previous);
+                    previous = bits;
+                }
+            }
+        }
+        raw.flip();
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteBuffer compressed = ByteBuffer.allocate(raw.remaining() / 2 + 64);
+        while (!deflater.finished()) {
+            if (!compressed.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(compressed.capacity() * 2);
+                compressed.flip();
+                larger.put(compressed);
+                compressed = larger;
+            }
+            deflater.deflate(compressed);
+        }
+        deflater.end();
+        compressed.flip();
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + compressed.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putShort(VERSION).put(encoding).put((byte) 0);
+        out.putInt(width).putInt(height).putDouble(scale);
+        out.putInt(raw.limit()).putInt(compressed.remaining());
+        out.put(hexToBytes(key));
+        out.put(compressed);
+        out.flip();
+        return out;
+    }
+
+    static double[][] decode(ByteBuffer in, String key, int width, int height) throws DataFormatException {
+        if (in.getInt() != MAGIC || in.getShort() != VERSION) {
+            return null;
+        }
+        byte encoding = in.get();
+        in.get(); // reserved
+        if (in.getInt() != width || in.getInt() != height) {
+            return null;
+        }
+        double scale = in.getDouble();
+        int rawLength = in.getInt();
+        int compressedLength = in.getInt();
+        byte[] storedKey = new byte[32];
+        in.get(storedKey);
+        if (!java.util.Arrays.equals(storedKey, hexToBytes(key))) {
+            return null;
+        }
+
+        ByteBuffer compressed = in.slice();
+        compressed.limit(compressedLength);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        ByteBuffer raw = ByteBuffer.allocate(rawLength).order(ByteOrder.LITTLE_ENDIAN);
+        while (raw.hasRemaining() && !inflater.finished()) {
+            if (inflater.inflate(raw) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("truncated cache entry");
+            }
+        }
+        inflater.end();
+        raw.flip();
+
+        double[][] field = new double[width][height];
+        if (encoding == ENCODING_UINT16) {
+            int previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int quantised = (previous + raw.getShort()) & 0xFFFF;
+                    field[x][y] = quantised == UINT16_INFINITY ? Double.POSITIVE_INFINITY : quantised * scale;
+                    previous = quantised;
+                }
+            }
+        } else if (encoding == ENCODING_FLOAT32) {
+            int previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int bits = previous + raw.getInt();
+                    field[x][y] = Float.intBitsToFloat(bits);
+                    previous = bits;
+                }
+            }
+        } else if (encoding == ENCODING_FLOAT64) {
+            long previous = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    long bits = previous + raw.getLong();
+                    field[x][y] = Double.longBitsToDouble(bits);
+                    previous = bits;
+                }
+            }
+        } else {
+            return null;
+        }
+        return field;
+    }
+
+    static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
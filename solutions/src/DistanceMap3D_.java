@@ -0,0 +1,91 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+/**
+ * Creates a 3D distance map and the shortest path for image stacks (e.g. multi-floor buildings).
+ * Uses the same color coding as DistanceMap_.
+ */
+public class DistanceMap3D_ implements PlugInFilter {
+
+    private ImagePlus imp = null;
+
+    public int setup(String arg, ImagePlus imp) {
+        if (arg.equals("about"))
+        {showAbout(); return DONE;}
+        this.imp = imp;
+        return DOES_8G + NO_CHANGES; // the whole stack is processed at once
+    } //setup
+
+    public void run(ImageProcessor ip) {
+        GenericDialog gd = new GenericDialog("Metrik");
+        String[] choices = new String[] {"Euclidean", "Chebyshev", "Manhattan"};
+        String[] connectivities = new String[] {"6", "18", "26"};
+        String[] queues = new String[] {"Bucket", "Heap"};
+        gd.addChoice("Metrik", choices, choices[0]);
+        gd.addChoice("Connectivity", connectivities, connectivities[2]);
+        gd.addChoice("Queue", queues, queues[0]);
+        gd.showDialog();
+        if(gd.wasCanceled()) {
+            return;
+        }
+        String mode = gd.getNextChoice();
+        int connectivity = Integer.parseInt(gd.getNextChoice());
+        boolean useBucketQueue = gd.getNextChoice().equals("Bucket");
+
+        ImageStack stack = this.imp.getStack();
+        int width = stack.getWidth();
+        int height = stack.getHeight();
+        int depth = stack.getSize();
+        byte[][] slices = new byte[depth][];
+        for (int z = 0; z < depth; z++) {
+            slices[z] = (byte[]) stack.getPixels(z + 1);
+        }
+
+        VolumeDistanceMap volume = new VolumeDistanceMap(slices, width, height, new int[] {DistanceMap_.WALL_COLOR});
+        float[] distanceMap = volume.getDistanceMap(DistanceMap_.TARGET_COLOR, mode, connectivity, useBucketQueue);
+
+        int[] startPositions = volume.getInitialPositionsFromValue(DistanceMap_.START_COLOR);
+        if (startPositions.length == 0) {
+            throw new RuntimeException("No startposition found in image");
+        }
+        int[] shortestPath = volume.calculateShortestPath(distanceMap, startPositions[0], connectivity);
+
+        // scale to [0;200], walls and unreachable voxels to 255
+        float max = 0.0f;
+        for (float distance : distanceMap) {
+            if (!Float.isInfinite(distance) && distance > max) {
+                max = distance;
+            }
+        }
+        byte[] result = new byte[distanceMap.length];
+        for (int i = 0; i < distanceMap.length; i++) {
+            result[i] = (byte) (Float.isInfinite(distanceMap[i]) ? 255 : (int) (distanceMap[i] / max * 200));
+        }
+        for (int index : shortestPath) {
+            result[index] = (byte) DistanceMap_.LUT_COLOR;
+        }
+
+        ImageStack resultStack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            byte[] slice = new byte[width * height];
+            System.arraycopy(result, z * width * height, slice, 0, slice.length);
+            resultStack.addSlice("z=" + z, slice);
+        }
+        ImagePlus resultImagePlus = new ImagePlus("3D distance map with shortest path", resultStack);
+        resultImagePlus.setLut(DistanceMapRenderer.getMazeLUT());
+        resultImagePlus.show();
+
+        IJ.log(String.format("Length of path (3D, %d-connectivity): %.3f", connectivity,
+                volume.calculateOverallPath(shortestPath, mode)));
+    } //run
+
+    void showAbout() {
+        IJ.showMessage("About DistanceMap3D_...",
+                "Creates a 3D DistanceMap for Path Finding in image stacks\n");
+    } //showAbout
+
+} //class DistanceMap3D_
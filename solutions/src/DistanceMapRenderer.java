@@ -0,0 +1,113 @@
+import ij.ImagePlus;
+import ij.plugin.LutLoader;
+import ij.process.ByteProcessor;
+import ij.process.LUT;
+
+import java.util.stream.IntStream;
+
+/**
+ * Renders distance maps and mazes directly into the 8-bit pixel buffer of the result image: scaling and path overlay
+ * happen in one pass over the map, the byte[] is handed to the ByteProcessor without a copy. The mazeLUT is loaded
+ * from disk once and shared by all result images.
+ */
+public class DistanceMapRenderer {
+
+    static final String MAZE_LUT_PATH = "./luts/mazeLUT.lut";
+
+    private static volatile LUT mazeLUT;
+
+    /**
+     * @return the shared mazeLUT (loaded on first use, must not be modified)
+     */
+    public static LUT getMazeLUT() {
+        LUT lut = mazeLUT;
+        if (lut == null) {
+            synchronized (DistanceMapRenderer.class) {
+                lut = mazeLUT;
+                if (lut == null) {
+                    lut = LutLoader.openLut(MAZE_LUT_PATH);
+                    mazeLUT = lut;
+                }
+            }
+        }
+        return lut;
+    }
+
+    /**
+     * DistanceMapScaler.getMazeScaler ([0;200], infinity and WALL_COLOR distances 255) with the path drawn in
+     *
+     * @param distanceMap the distance map [width][height]
+     * @param width       the width of the map
+     * @param height      the height of the map
+     * @param range       {min, max} of the finite distances gathered during the calculation, null to determine it
+     * @param path        packed ids (y * width + x) to overlay or null
+     * @param pathColor   grey value of the path
+     * @return row major 8-bit pixels
+     */
+    public static byte[] renderScaled(double[][] distanceMap, int width, int height, double[] range,
+                                      IntArrayList path, int pathColor) {
+        byte[] pixels = DistanceMapScaler.getMazeScaler().scaleTo8Bit(distanceMap, width, height, range);
+        overlayPath(pixels, path, pathColor);
+        return pixels;
+    }
+
+    /**
+     * @return row major 8-bit pixels of the distances clamped to [0;255] (infinity 255)
+     */
+    public static byte[] renderClamped(double[][] distanceMap, int width, int height) {
+        byte[] pixels = new byte[width * height];
+        IntStream.range(0, width).parallel().forEach(x -> {
+            double[] column = distanceMap[x];
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = (byte) Math.min((int) column[y], 255);
+            }
+        });
+        return pixels;
+    }
+
+    /**
+     * @param img       the image [width][height] with values in [0;255]
+     * @param width     the width of the image
+     * @param height    the height of the image
+     * @param path      packed ids (y * width + x) to overlay or null
+     * @param pathColor grey value of the path
+     * @return row major 8-bit pixels of the image with the path (the image itself is not modified)
+     */
+    public static byte[] renderImage(int[][] img, int width, int height, IntArrayList path, int pathColor) {
+        byte[] pixels = new byte[width * height];
+        IntStream.range(0, width).parallel().forEach(x -> {
+            int[] column = img[x];
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = (byte) column[y];
+            }
+        });
+        overlayPath(pixels, path, pathColor);
+        return pixels;
+    }
+
+    private static void overlayPath(byte[] pixels, IntArrayList path, int pathColor) {
+        if (path == null) {
+            return;
+        }
+        for (int i = 0; i < path.size(); i++) {
+            pixels[path.get(i)] = (byte) pathColor; // packed id == row major pixel index
+        }
+    }
+
+    /**
+     * @param title  the window title
+     * @param pixels row major 8-bit pixels (used without a copy)
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param useMazeLUT true to display the image with the shared mazeLUT
+     * @return the (not yet shown) image
+     */
+    public static ImagePlus createImage(String title, byte[] pixels, int width, int height, boolean useMazeLUT) {
+        ByteProcessor processor = new ByteProcessor(width, height, pixels, null);
+        if (useMazeLUT) {
+            processor.setLut(getMazeLUT());
+        }
+        return new ImagePlus(title, processor);
+    }
+
+}
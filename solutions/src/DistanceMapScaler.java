@@ -1,33 +1,246 @@
+import java.util.stream.IntStream;
+
+/**
+ * Maps distance fields to grey values. The range of the finite distances is found with a parallel reduction (or taken
+ * from the distance calculation), the mapping runs in parallel over blocks of columns and writes the row major pixel
+ * buffer of an 8-bit or 16-bit image directly.
+ * - target interval [targetMin;targetMax]
+ * - sentinels: grey value for infinite (unreachable) distances and optionally for one wall distance value
+ * - mapping of the normalised distance t in [0;1]: LINEAR (t), LOG (log(1 + d) / log(1 + range), stretches small
+ *   distances) or GAMMA (t^gamma)
+ * Presets: getImageIntervalScaler ([0;255]) and getMazeScaler ([0;200], the scaling of the DistanceMap_ results).
+ */
 public class DistanceMapScaler {
 
-    public static int[][] scaleToImageInterval(double[][] distanceMap, int height, int width) {
-        double min = Double.POSITIVE_INFINITY;
-        double max = Double.NEGATIVE_INFINITY;
-
-        // Find the min and max values in the distance map
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                double currentValue = distanceMap[j][i];
-                if (!Double.isInfinite(currentValue)) {
-                    if (currentValue < min) {
-                        min = currentValue;
-                    }
-                    if (currentValue > max) {
-                        max = currentValue;
+    public enum Mapping {LINEAR, LOG, GAMMA}
+
+    public static final int MAX_8_BIT = 255;
+    public static final int MAX_16_BIT = 65535;
+
+    static final int BLOCK_WIDTH = 16; // columns per parallel block, one row of a block is a contiguous output run
+
+    private final int targetMin;
+    private final int targetMax;
+    private int infinityValue;
+    private boolean hasWallSentinel = false;
+    private double wallDistance;
+    private int wallValue;
+    private Mapping mapping = Mapping.LINEAR;
+    private double gamma = 1.0;
+
+    /**
+     * @param targetMin grey value of the smallest finite distance
+     * @param targetMax grey value of the largest finite distance (also used for infinite distances by default)
+     */
+    public DistanceMapScaler(int targetMin, int targetMax) {
+        if (targetMin < 0 || targetMax < targetMin || targetMax > MAX_16_BIT) {
+            throw new RuntimeException("invalid target interval [" + targetMin + ";" + targetMax + "]");
+        }
+        this.targetMin = targetMin;
+        this.targetMax = targetMax;
+        this.infinityValue = targetMax;
+    }
+
+    /**
+     * @return [0;255], infinite distances 255
+     */
+    public static DistanceMapScaler getImageIntervalScaler() {
+        return new DistanceMapScaler(0, MAX_8_BIT);
+    }
+
+    /**
+     * @return [0;200], infinite and WALL_COLOR distances 255 (LUT_COLOR 201 stays free for paths in the mazeLUT)
+     */
+    public static DistanceMapScaler getMazeScaler() {
+        return new DistanceMapScaler(0, 200).setInfinityValue(MAX_8_BIT).setWallValue(DistanceMap_.WALL_COLOR, MAX_8_BIT);
+    }
+
+    /**
+     * @param infinityValue grey value of infinite distances
+     * @return this
+     */
+    public DistanceMapScaler setInfinityValue(int infinityValue) {
+        this.infinityValue = infinityValue;
+        return this;
+    }
+
+    /**
+     * @param wallDistance distances equal to this value get wallValue (they still count for the range)
+     * @param wallValue    grey value of these distances
+     * @return this
+     */
+    public DistanceMapScaler setWallValue(double wallDistance, int wallValue) {
+        this.hasWallSentinel = true;
+        this.wallDistance = wallDistance;
+        this.wallValue = wallValue;
+        return this;
+    }
+
+    /**
+     * @param mapping LINEAR, LOG or GAMMA
+     * @param gamma   exponent of GAMMA (&gt; 0, ignored otherwise)
+     * @return this
+     */
+    public DistanceMapScaler setMapping(Mapping mapping, double gamma) {
+        if (mapping == Mapping.GAMMA && !(gamma > 0.0)) {
+            throw new RuntimeException("gamma has to be > 0");
+        }
+        this.mapping = mapping;
+        this.gamma = gamma;
+        return this;
+    }
+
+    /**
+     * @param distanceMap the distance map [width][height]
+     * @param width       the width of the map
+     * @param height      the height of the map
+     * @return {min, max} of the finite distances, {+inf, -inf} if there are none
+     */
+    public static double[] getFiniteRange(double[][] distanceMap, int width, int height) {
+        int numBlocks = (width + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+        return IntStream.range(0, numBlocks).parallel().mapToObj(block -> {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int x = block * BLOCK_WIDTH; x < Math.min(width, (block + 1) * BLOCK_WIDTH); x++) {
+                double[] column = distanceMap[x];
+                for (int y = 0; y < height; y++) {
+                    double value = column[y];
+                    if (!Double.isInfinite(value)) {
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
                     }
                 }
             }
+            return new double[]{min, max};
+        }).reduce(new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY},
+                (a, b) -> new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+    }
+
+    // per-call state of the mapping, the range is fixed before the parallel pass
+    private class Transfer {
+        final double min;
+        final double range;
+        final double logNorm;
+        final int span = targetMax - targetMin;
+
+        Transfer(double[] finiteRange) {
+            this.min = finiteRange[0];
+            this.range = finiteRange[1] - finiteRange[0];
+            this.logNorm = Math.log1p(this.range);
+        }
+
+        int apply(double value) {
+            if (Double.isInfinite(value)) {
+                return infinityValue;
+            }
+            if (hasWallSentinel && value == wallDistance) {
+                return wallValue;
+            }
+            double normalizedValue;
+            switch (mapping) {
+                case LOG:
+                    normalizedValue = Math.log1p(value - this.min) / this.logNorm;
+                    break;
+                case GAMMA:
+                    normalizedValue = Math.pow((value - this.min) / this.range, gamma);
+                    break;
+                default:
+                    normalizedValue = (value - this.min) / this.range;
+            }
+            // a constant map (range 0) gives NaN, cast to 0 like the former scalers; distances beyond a given range are
+            // clamped to the target interval
+            return targetMin + Math.min(this.span, Math.max(0, (int) (normalizedValue * this.span)));
         }
+    }
+
+    private Transfer getTransfer(double[][] distanceMap, int width, int height, double[] range) {
+        return new Transfer(range != null ? range : getFiniteRange(distanceMap, width, height));
+    }
 
+    /**
+     * @param distanceMap the distance map [width][height]
+     * @param width       the width of the map
+     * @param height      the height of the map
+     * @param range       {min, max} of the finite distances if known from the calculation, null to determine it
+     * @return the grey values [width][height]
+     */
+    public int[][] scale(double[][] distanceMap, int width, int height, double[] range) {
+        Transfer transfer = getTransfer(distanceMap, width, height, range);
         int[][] scaledMap = new int[width][height];
+        IntStream.range(0, width).parallel().forEach(x -> {
+            double[] column = distanceMap[x];
+            int[] scaledColumn = scaledMap[x];
+            for (int y = 0; y < height; y++) {
+                scaledColumn[y] = transfer.apply(column[y]);
+            }
+        });
+        return scaledMap;
+    }
 
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                double normalizedValue = (distanceMap[j][i] - min) / (max - min);
-                scaledMap[j][i] = (int) (normalizedValue * 255);
+    /**
+     * @param distanceMap the distance map [width][height]
+     * @param width       the width of the map
+     * @param height      the height of the map
+     * @param range       {min, max} of the finite distances if known from the calculation, null to determine it
+     * @return row major pixels of an 8-bit image (target interval and sentinels have to be &lt;= 255)
+     */
+    public byte[] scaleTo8Bit(double[][] distanceMap, int width, int height, double[] range) {
+        checkOutputRange(MAX_8_BIT);
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DistanceMapScaler.scaleTo8Bit");
+        Transfer transfer = getTransfer(distanceMap, width, height, range);
+        byte[] pixels = new byte[width * height];
+        int numBlocks = (width + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            int fromX = block * BLOCK_WIDTH;
+            int toX = Math.min(width, fromX + BLOCK_WIDTH);
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                for (int x = fromX; x < toX; x++) {
+                    pixels[offset + x] = (byte) transfer.apply(distanceMap[x][y]);
+                }
+            }
+        });
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return pixels;
+    }
+
+    /**
+     * @param distanceMap the distance map [width][height]
+     * @param width       the width of the map
+     * @param height      the height of the map
+     * @param range       {min, max} of the finite distances if known from the calculation, null to determine it
+     * @return row major pixels of a 16-bit image (unsigned, as used by the ShortProcessor)
+     */
+    public short[] scaleTo16Bit(double[][] distanceMap, int width, int height, double[] range) {
+        checkOutputRange(MAX_16_BIT);
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DistanceMapScaler.scaleTo16Bit");
+        Transfer transfer = getTransfer(distanceMap, width, height, range);
+        short[] pixels = new short[width * height];
+        int numBlocks = (width + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+        IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            int fromX = block * BLOCK_WIDTH;
+            int toX = Math.min(width, fromX + BLOCK_WIDTH);
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                for (int x = fromX; x < toX; x++) {
+                    pixels[offset + x] = (short) transfer.apply(distanceMap[x][y]);
+                }
             }
+        });
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return pixels;
+    }
+
+    private void checkOutputRange(int maxValue) {
+        if (this.targetMax > maxValue || this.infinityValue < 0 || this.infinityValue > maxValue
+                || (this.hasWallSentinel && (this.wallValue < 0 || this.wallValue > maxValue))) {
+            throw new RuntimeException("grey values do not fit into [0;" + maxValue + "]");
         }
-        return scaledMap;
     }
 
-}
\ No newline at end of file
+    // scales the provided distance map to the [0;255] interval (infinite distances 255)
+    public static int[][] scaleToImageInterval(double[][] distanceMap, int height, int width) {
+        return getImageIntervalScaler().scale(distanceMap, width, height, null);
+    }
+
+}
@@ -1,15 +1,17 @@
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.GenericDialog;
-import ij.plugin.LutLoader;
+import ij.gui.ImageWindow;
 import ij.plugin.filter.PlugInFilter;
-import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 
+import java.awt.Rectangle;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class DistanceMap_ implements PlugInFilter{
 
@@ -17,6 +19,11 @@ public class DistanceMap_ implements PlugInFilter{
     int width;
     int height;
     ArrayList<Integer> blockedPixelValues;
+    boolean useCache = false;
+    CostModel costModel = null; // move set of the cost model engine, null = 8-neighbourhood
+    boolean useBucketQueue = false; // queue of the cost model Dijkstra: bucket queue (Dial) instead of the binary heap
+    boolean useCheckpoints = false; // long runs (obstacle map) save snapshots and resume from them (OperatorCheckpoint)
+    double[] lastDistanceRange = null; // {min, max} of the finite distances of the last calculated map, null = unknown
 
     static final int WALL_COLOR = 0;
     static final int BACKGROUND_COLOR = 255;
@@ -27,44 +34,10 @@ public class DistanceMap_ implements PlugInFilter{
 
     static final double EPSILON = 0.000001;
 
-    public static class DistanceMapScaler {
+    static final double DEFAULT_SAFETY_DISTANCE = 4.0;
 
-        // scales the provided distance map to the specified [0;200] interval
-        public static int[][] scaleToImageInterval(double[][] distanceMap, int height, int width) {
-            double min = Double.POSITIVE_INFINITY;
-            double max = Double.NEGATIVE_INFINITY;
-
-            // Find the min and max values in the distance map
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    double currentValue = distanceMap[j][i];
-                    if (!Double.isInfinite(currentValue)) {
-                        if (currentValue < min) {
-                            min = currentValue;
-                        }
-                        if (currentValue > max) {
-                            max = currentValue;
-                        }
-                    }
-                }
-            }
-
-            int[][] scaledMap = new int[width][height];
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    if(!Double.isInfinite(distanceMap[j][i]) && !(distanceMap[j][i] == WALL_COLOR)) {
-                        double normalizedValue = (distanceMap[j][i] - min) / (max - min);
-                        scaledMap[j][i] = (int) (normalizedValue * 200);
-                    }
-                    else {
-                        scaledMap[j][i] = 255;
-                    }
-                }
-            }
-            return scaledMap;
-        }
-    }
+    static final long LAZY_VIEW_SLICE_MILLIS = 50; // search time per viewport check of the lazy view
+    static final long LAZY_VIEW_POLL_MILLIS = 100;
 
     // helper class for storing Positions to help with distance map calculations
     public class Position {
@@ -103,6 +76,47 @@ public class DistanceMap_ implements PlugInFilter{
         return DOES_8G;
     } //setup
 
+    // lookup table of the blocked pixel values, blocked[greyValue] (avoids boxing in the hot loops)
+    boolean[] getBlockedLookup() {
+        boolean[] blocked = new boolean[256];
+        for (Integer blockedPixelValue : this.blockedPixelValues) {
+            blocked[blockedPixelValue] = true;
+        }
+        return blocked;
+    }
+
+    // fraction of the pixels with a blocked value
+    double getBlockedFraction() {
+        boolean[] blocked = getBlockedLookup();
+        long numBlocked = 0;
+        for (int[] column : this.inDataArrInt) {
+            for (int value : column) {
+                if (blocked[value]) {
+                    numBlocked++;
+                }
+            }
+        }
+        return (double) numBlocked / ((double) this.width * this.height);
+    }
+
+    // same rules as isAllowedMove(Position, int, int) without allocations
+    boolean isAllowedMove(int currentX, int currentY, int dX, int dY, boolean[] blocked) {
+        int targetX = currentX + dX;
+        int targetY = currentY + dY;
+
+        // case: out of image
+        if((targetX < 0 || targetX >= width) || (targetY < 0 || targetY >= height)) {
+            return false;
+        }
+        // case blocked Area (barriers, obstacle safety zone)
+        if(blocked[inDataArrInt[targetX][targetY]]) {
+            return false;
+        }
+
+        // case: corners
+        return !(blocked[inDataArrInt[currentX][targetY]] && blocked[inDataArrInt[targetX][currentY]]);
+    }
+
     boolean isAllowedMove(Position currentPosition, int dX, int dY) {
         int targetX = currentPosition.xPos + dX;
         int targetY = currentPosition.yPos + dY;
@@ -168,15 +182,45 @@ public class DistanceMap_ implements PlugInFilter{
     }
 
 
+    // allocation-light variant of getInitialPositionsFromValue, returns packed ids (y * width + x)
+    public IntArrayList getInitialPositionIdsFromValue(int initialPositionValue) {
+        IntArrayList positions = new IntArrayList();
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                if (this.inDataArrInt[j][i] == initialPositionValue) {
+                    positions.add(GridIndex.pack(j, i, this.width));
+                }
+            }
+        }
+        return positions;
+    }
+
+
     // calculates the distance map based on an initialPosition with a user-defined mode
     // the printUpdates determines whether the number of updates will be printed
     public double[][] getDistanceMap(Position initialPosition, int initialPositionValue, String mode, boolean printUpdates) {
+        return getDistanceMap(initialPosition, initialPositionValue, mode, printUpdates, new OperatorProgress());
+    }
 
-        ArrayDeque<Position> openSet = new ArrayDeque<>();
-        HashSet<Position> visitedPixels = new HashSet<>();
+    // same as above, stops early with the distances found so far if the progress requests it (cancel, deadline)
+    public double[][] getDistanceMap(Position initialPosition, int initialPositionValue, String mode, boolean printUpdates,
+                                     OperatorProgress progress) {
 
         if(initialPosition == null)
             throw new RuntimeException("no target position exists");
+        return getDistanceMap(GridIndex.pack(initialPosition.xPos, initialPosition.yPos, this.width),
+                initialPositionValue, mode, printUpdates, progress);
+    }
+
+    // allocation-light variant, the initial position is a packed id (y * width + x)
+    public double[][] getDistanceMap(int initialPositionId, int initialPositionValue, String mode, boolean printUpdates,
+                                     OperatorProgress progress) {
+
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DistanceMap_.getDistanceMap");
+        IntArrayDeque openSet = new IntArrayDeque();
+        BitSet visitedPixels = new BitSet(this.width * this.height);
+        boolean[] blocked = getBlockedLookup();
+        CostModel moves = new CostModel(mode, CostModel.CONNECTIVITY_8); // metric resolved once, same neighbour order
 
         double[][] distanceMap = new double[this.width][this.height];
         for (int i = 0; i < this.height; i++) {
@@ -189,40 +233,218 @@ public class DistanceMap_ implements PlugInFilter{
             }
         }
 
-        openSet.add(initialPosition);
-        visitedPixels.add(initialPosition);
+        openSet.addLast(initialPositionId);
+        visitedPixels.set(initialPositionId);
 
         int updates = 0;
-
-        while (!openSet.isEmpty()) {
-            Position current = openSet.poll();
-            for (int dx = -1; dx <= 1; dx++) {
-                for (int dy = -1; dy <= 1; dy++) {
-                    if (dx != 0 || dy != 0) {    // exclude non - moves
-                        if (isAllowedMove(current, dx, dy)) {
-                            Position neighbor = new Position(current.xPos + dx, current.yPos + dy);
-                            if (!visitedPixels.contains(neighbor)) {
-                                openSet.add(neighbor);
-                                visitedPixels.add(neighbor);
-                            }
-                            double tentativeScore = distanceMap[current.xPos][current.yPos] + costsBetweenPositions(dx, dy, mode);
-                            if (tentativeScore < distanceMap[neighbor.xPos][neighbor.yPos]) {
-                                distanceMap[neighbor.xPos][neighbor.yPos] = tentativeScore;
-                                updates++;
-                            }
-                        }
+        long expanded = 0;
+        long totalPixels = (long) this.width * this.height;
+
+        while (!openSet.isEmpty() && !progress.checkpoint(expanded, totalPixels)) {
+            metrics.recordQueueSize(openSet.size());
+            int current = openSet.pollFirst();
+            int currentX = GridIndex.getX(current, this.width);
+            int currentY = GridIndex.getY(current, this.width);
+            expanded++;
+            for (int dir = 0; dir < moves.getNumDirections(); dir++) {
+                int dx = moves.dx[dir];
+                int dy = moves.dy[dir];
+                if (isAllowedMove(currentX, currentY, dx, dy, blocked)) {
+                    int neighborX = currentX + dx;
+                    int neighborY = currentY + dy;
+                    int neighbor = GridIndex.pack(neighborX, neighborY, this.width);
+                    if (!visitedPixels.get(neighbor)) {
+                        openSet.addLast(neighbor);
+                        visitedPixels.set(neighbor);
+                    }
+                    double tentativeScore = distanceMap[currentX][currentY] + moves.stepLength[dir];
+                    if (tentativeScore < distanceMap[neighborX][neighborY]) {
+                        distanceMap[neighborX][neighborY] = tentativeScore;
+                        updates++;
                     }
                 }
+            }
+        }
+        if(printUpdates) {
+            System.out.println("Number of updates: " + updates);
+        }
+
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded)
+                .add(OperatorMetrics.Counter.RELAXATIONS, updates)
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) this.width * this.height)
+                .finish();
+        return distanceMap;
+    }
 
+    // multi-source Dijkstra from all pixels with initialPositionValue using the move set and (terrain) costs of the
+    // cost model, stops early with the distances found so far if the progress requests it (cancel, deadline)
+    public double[][] getDistanceMap(int initialPositionValue, CostModel model, boolean printUpdates,
+                                     OperatorProgress progress) {
+        IntArrayList seeds = getInitialPositionIdsFromValue(initialPositionValue);
+        if (seeds.isEmpty()) {
+            throw new RuntimeException("no target position exists");
+        }
+        return getDistanceMap(seeds, model, printUpdates, progress, null);
+    }
+
+    // multi-source Dijkstra from the seeds (packed ids), if nearestSeed is not null it receives the index (in seeds)
+    // of the nearest seed per pixel, -1 if unreachable (ties go to the smaller index, so the labels are deterministic)
+    double[][] getDistanceMap(IntArrayList seeds, CostModel model, boolean printUpdates, OperatorProgress progress,
+                              int[][] nearestSeed) {
+        int[] labels = nearestSeed != null ? new int[this.width * this.height] : null;
+        double[][] distanceMap = toDistanceMap(getDistances(seeds, model, printUpdates, progress, labels));
+        if (nearestSeed != null) {
+            for (int i = 0; i < this.height; i++) {
+                for (int j = 0; j < this.width; j++) {
+                    nearestSeed[j][i] = labels[GridIndex.pack(j, i, this.width)];
+                }
+            }
+        }
+        return distanceMap;
+    }
+
+    // the multi-source Dijkstra of getDistanceMap with packed distances (index GridIndex.pack), does not touch the
+    // state of the instance (lastDistanceRange), so it may run concurrently; labels (packed, may be null) receives
+    // the index of the nearest seed
+    double[] getDistances(IntArrayList seeds, CostModel model, boolean printUpdates, OperatorProgress progress,
+                          int[] labels) {
+
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DistanceMap_.getDistanceMap.costModel");
+        int numPixels = this.width * this.height;
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        double[] distances = new double[numPixels];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[numPixels];
+        if (labels != null) {
+            Arrays.fill(labels, -1);
+        }
+
+        double[] moveCostRange = model.getMoveCostRange(pixelCosts);
+        NodeQueue openSet = this.useBucketQueue && moveCostRange[0] != Double.POSITIVE_INFINITY
+                ? new BucketQueue(moveCostRange[0], moveCostRange[1]) : new IndexMinHeap(seeds.size() * 4);
+        for (int i = 0; i < seeds.size(); i++) {
+            distances[seeds.get(i)] = 0.0;
+            openSet.add(seeds.get(i), 0.0);
+            if (labels != null) {
+                labels[seeds.get(i)] = i;
+            }
+        }
+
+        long updates = 0;
+        long expanded = 0;
+        while (!openSet.isEmpty() && !progress.checkpoint(expanded, numPixels)) {
+            metrics.recordQueueSize(openSet.size());
+            int current = openSet.poll();
+            if (settled[current]) {
+                continue; // stale queue entry
+            }
+            settled[current] = true;
+            expanded++;
+            int currentX = GridIndex.getX(current, this.width);
+            int currentY = GridIndex.getY(current, this.width);
+            for (int dir = 0; dir < model.getNumDirections(); dir++) {
+                double moveCost = model.getMoveCost(pixelCosts, this.width, this.height, currentX, currentY, dir);
+                if (moveCost == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int neighbor = GridIndex.pack(currentX + model.dx[dir], currentY + model.dy[dir], this.width);
+                double tentativeScore = distances[current] + moveCost;
+                if (!settled[neighbor] && tentativeScore < distances[neighbor]) {
+                    distances[neighbor] = tentativeScore;
+                    openSet.add(neighbor, tentativeScore);
+                    updates++;
+                    if (labels != null) {
+                        labels[neighbor] = labels[current];
+                    }
+                } else if (labels != null && !settled[neighbor] && tentativeScore == distances[neighbor]
+                        && labels[current] < labels[neighbor]) {
+                    labels[neighbor] = labels[current];
+                }
             }
         }
         if(printUpdates) {
             System.out.println("Number of updates: " + updates);
         }
 
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded)
+                .add(OperatorMetrics.Counter.RELAXATIONS, updates)
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, numPixels)
+                .finish();
+        return distances;
+    }
+
+    // distance to the nearest pixel with initialPositionValue and the index of that pixel (geodesic Voronoi partition)
+    // in one multi-source pass instead of one distance map per target
+    public NearestTargetField getNearestTargetField(int initialPositionValue, CostModel model, OperatorProgress progress) {
+        IntArrayList targets = getInitialPositionIdsFromValue(initialPositionValue);
+        if (targets.isEmpty()) {
+            throw new RuntimeException("no target position exists");
+        }
+        int[][] labels = new int[this.width][this.height];
+        double[][] distanceMap = getDistanceMap(targets, model, false, progress, labels);
+        return new NearestTargetField(targets, distanceMap, labels);
+    }
+
+    // same distances as getDistanceMap(int, CostModel, ...), calculated with parallel delta-stepping (DeltaStepping)
+    public double[][] getDistanceMapParallel(int initialPositionValue, CostModel model, boolean printUpdates,
+                                             OperatorProgress progress) {
+        IntArrayList seeds = getInitialPositionIdsFromValue(initialPositionValue);
+        if (seeds.isEmpty()) {
+            throw new RuntimeException("no target position exists");
+        }
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        DeltaStepping deltaStepping = new DeltaStepping(this.width, this.height, model, pixelCosts, 0.0);
+        double[] distances = deltaStepping.getDistances(seeds, progress);
+        if(printUpdates) {
+            System.out.println("Number of updates: " + deltaStepping.getRelaxations()
+                    + " (" + deltaStepping.getPhaseCount() + " phases)");
+        }
+
+        return toDistanceMap(distances);
+    }
+
+    // converts packed distances to [width][height] and keeps the range of the finite distances for the rendering
+    double[][] toDistanceMap(double[] distances) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double[][] distanceMap = new double[this.width][this.height];
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                double distance = distances[GridIndex.pack(j, i, this.width)];
+                distanceMap[j][i] = distance;
+                if (!Double.isInfinite(distance)) {
+                    min = Math.min(min, distance);
+                    max = Math.max(max, distance);
+                }
+            }
+        }
+        this.lastDistanceRange = new double[]{min, max};
         return distanceMap;
     }
 
+    // calculates the distance map with a raster-scan chamfer transform (mask: 3-4 or 5-7-11 for Euclidean)
+    // the sweeps are repeated until convergence, so the distances respect the blocked pixel values
+    public double[][] getDistanceMapChamfer(int initialPositionValue, String mode, String mask, boolean printUpdates) {
+        int[] flatImage = new int[this.width * this.height];
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                flatImage[i * this.width + j] = this.inDataArrInt[j][i];
+            }
+        }
+        boolean[] blocked = new boolean[256];
+        for (Integer blockedPixelValue : this.blockedPixelValues) {
+            blocked[blockedPixelValue] = true;
+        }
+
+        ChamferDistanceTransform chamfer = new ChamferDistanceTransform(this.width, this.height, mode, mask);
+        double[] flatDistanceMap = chamfer.getDistanceMap(flatImage, blocked, initialPositionValue);
+        if(printUpdates) {
+            System.out.println("Number of chamfer sweeps: " + chamfer.getPassCount());
+        }
+
+        return toDistanceMap(flatDistanceMap);
+    }
+
     // calculates the shortest path through the distance map by always choosing the smallest next neighbor
     Vector<Position> calculateShortestPath(double[][] distanceMap) {
 
@@ -261,6 +483,89 @@ public class DistanceMap_ implements PlugInFilter{
         return resultPath;
     }
 
+    // allocation-light variant of calculateShortestPath, returns the packed ids (y * width + x) of the path
+    // the descent uses the move set of costModel (8-neighbourhood if not set), with a cost model the next position is
+    // the neighbour minimising distance + move cost (the predecessor on an optimal path of a Dijkstra field)
+    IntArrayList calculateShortestPathIds(double[][] distanceMap) {
+        boolean followCosts = this.costModel != null;
+        CostModel model = followCosts ? this.costModel : new CostModel("Euclidean", CostModel.CONNECTIVITY_8);
+        IntArrayList startPositions = getInitialPositionIdsFromValue(START_COLOR);
+        if(startPositions.isEmpty()) {
+            throw new RuntimeException("No startposition found in image");
+        }
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+
+        IntArrayList resultPath = new IntArrayList();
+        int currentX = GridIndex.getX(startPositions.get(0), this.width);
+        int currentY = GridIndex.getY(startPositions.get(0), this.width);
+        resultPath.add(startPositions.get(0));
+
+        double smallestNeighborDistanceToGoal = distanceMap[currentX][currentY];
+        while(smallestNeighborDistanceToGoal > EPSILON) {
+            int bestX = -1;
+            int bestY = -1;
+            double currentDistanceToGoal = distanceMap[currentX][currentY];
+            double bestScore = Double.POSITIVE_INFINITY;
+            for (int dir = 0; dir < model.getNumDirections(); dir++) {
+                double moveCost = model.getMoveCost(pixelCosts, this.width, this.height, currentX, currentY, dir);
+                if (moveCost != Double.POSITIVE_INFINITY) {
+                    double neighborDistanceToGoal = distanceMap[currentX + model.dx[dir]][currentY + model.dy[dir]];
+                    double score = followCosts ? neighborDistanceToGoal + moveCost : neighborDistanceToGoal;
+                    if (neighborDistanceToGoal < currentDistanceToGoal && score < bestScore) {
+                        bestX = currentX + model.dx[dir];
+                        bestY = currentY + model.dy[dir];
+                        bestScore = score;
+                    }
+                }
+            }
+            if (bestX < 0) {
+                throw new RuntimeException("No path to the target found");
+            }
+            smallestNeighborDistanceToGoal = distanceMap[bestX][bestY];
+            resultPath.add(GridIndex.pack(bestX, bestY, this.width));
+            currentX = bestX;
+            currentY = bestY;
+        }
+
+        return resultPath;
+    }
+
+    // shortest path from the first START_COLOR to the first TARGET_COLOR pixel with bidirectional Dijkstra
+    // (BidirectionalSearch), only explores the grid around the path instead of the whole distance map
+    BidirectionalSearch.Result getShortestPathBidirectional(CostModel model, boolean concurrent) {
+        IntArrayList startPositions = getInitialPositionIdsFromValue(START_COLOR);
+        IntArrayList targetPositions = getInitialPositionIdsFromValue(TARGET_COLOR);
+        if(startPositions.isEmpty() || targetPositions.isEmpty()) {
+            throw new RuntimeException("No start or target position found in image");
+        }
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        BidirectionalSearch search = new BidirectionalSearch(this.width, this.height, model, pixelCosts);
+        return concurrent ? search.searchConcurrent(startPositions.get(0), targetPositions.get(0))
+                : search.search(startPositions.get(0), targetPositions.get(0));
+    }
+
+    // collision free paths from every START_COLOR pixel to a TARGET_COLOR pixel (the i-th start in scan order goes to
+    // the i-th target, surplus starts or targets are ignored) with prioritised planning (MultiAgentPlanner), the
+    // heuristic of each agent is the exact distance field of its target (never the lossy DistanceFieldCache, a rounded
+    // heuristic may overestimate), the fields are calculated concurrently with getDistances
+    MultiAgentPlanner.Result planAgents(CostModel model) {
+        IntArrayList startPositions = getInitialPositionIdsFromValue(START_COLOR);
+        IntArrayList targetPositions = getInitialPositionIdsFromValue(TARGET_COLOR);
+        if(startPositions.isEmpty() || targetPositions.isEmpty()) {
+            throw new RuntimeException("No start or target position found in image");
+        }
+        int numAgents = Math.min(startPositions.size(), targetPositions.size());
+        int[] starts = Arrays.copyOf(startPositions.toArray(), numAgents);
+        int[] goals = Arrays.copyOf(targetPositions.toArray(), numAgents);
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        MultiAgentPlanner planner = new MultiAgentPlanner(this.width, this.height, model, pixelCosts, goalId -> {
+            IntArrayList seeds = new IntArrayList(1);
+            seeds.add(goalId);
+            return getDistances(seeds, model, false, new OperatorProgress(), null);
+        });
+        return planner.plan(starts, goals);
+    }
+
     // draws the shortestPast on a given image-array
     int[][] plotShortestPath(int [][] originalMaze, Vector<Position> shortestPath) {
         int [][] resultMap = new int[originalMaze.length][];
@@ -275,6 +580,52 @@ public class DistanceMap_ implements PlugInFilter{
         return resultMap;
     }
 
+    // draws a path of packed ids on a given image-array
+    int[][] plotShortestPath(int [][] originalMaze, IntArrayList shortestPath) {
+        int [][] resultMap = new int[originalMaze.length][];
+        for(int i = 0; i < originalMaze.length; i++) {
+            resultMap[i] = originalMaze[i].clone();
+        }
+
+        for(int i = 0; i < shortestPath.size(); i++) {
+            int id = shortestPath.get(i);
+            resultMap[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)] = LUT_COLOR;
+        }
+
+        return resultMap;
+    }
+
+    // calculates the path length of a path of packed ids
+    double calculateOverallPath(IntArrayList shortestPath, String mode) {
+        double overallCost = 0;
+        for(int i = 1; i < shortestPath.size(); i++) {
+            int previous = shortestPath.get(i - 1);
+            int current = shortestPath.get(i);
+            overallCost += costsBetweenPositions(GridIndex.getX(current, this.width) - GridIndex.getX(previous, this.width),
+                    GridIndex.getY(current, this.width) - GridIndex.getY(previous, this.width), mode);
+        }
+        return overallCost;
+    }
+
+    // calculates the cost of a path of packed ids with the move set and terrain costs of the cost model
+    double calculateOverallPath(IntArrayList shortestPath, CostModel model) {
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        double overallCost = 0;
+        for(int i = 1; i < shortestPath.size(); i++) {
+            int previous = shortestPath.get(i - 1);
+            int current = shortestPath.get(i);
+            int previousX = GridIndex.getX(previous, this.width);
+            int previousY = GridIndex.getY(previous, this.width);
+            int dir = model.getDirection(GridIndex.getX(current, this.width) - previousX,
+                    GridIndex.getY(current, this.width) - previousY);
+            if (dir < 0) {
+                throw new RuntimeException("path contains a move outside of the move set");
+            }
+            overallCost += model.getMoveCost(pixelCosts, this.width, this.height, previousX, previousY, dir);
+        }
+        return overallCost;
+    }
+
     // calculates the path length of the shortestPath
     // note:
     //      this could have been simply a printout of the first 'smallestNeighborDistanceToGoal'
@@ -305,25 +656,22 @@ public class DistanceMap_ implements PlugInFilter{
     // subsequently this is used to establish the safetyDistance (all points that reach the safety distance limit
     // will be blocked pixels)
     double[][] getObstacleMap(int initialPositionValue, String mode) {
-        Vector<double[][]> allObstacleMaps = new Vector<>();
-        Vector<Position> allStartingPositions = getInitialPositionsFromValue(initialPositionValue);
-
-        // used for progress bar calculations
-        double displayIncrement = 2.0; // 2% per increment
-        double completionPercentage = 0.0;
-        int printedIncrements = 0;
-        System.out.print("Calculating Distance Maps: [");
+        return getObstacleMap(initialPositionValue, mode, new OperatorProgress(),
+                this.useCheckpoints ? getObstacleMapCheckpoint(initialPositionValue, mode) : null);
+    }
 
-        for (Position startingPosition : allStartingPositions) {
-            allObstacleMaps.add(getDistanceMap(startingPosition, initialPositionValue, mode, false));
+    // same as above, stops early if the progress requests it (cancel, deadline)
+    // the returned map then only contains the distances to the obstacle pixels processed so far
+    double[][] getObstacleMap(int initialPositionValue, String mode, OperatorProgress progress) {
+        return getObstacleMap(initialPositionValue, mode, progress, null);
+    }
 
-            completionPercentage += 100.0 / allStartingPositions.size();
-            while (completionPercentage >= printedIncrements * displayIncrement + displayIncrement) {
-                System.out.print("#");
-                printedIncrements++;
-            }
-        }
-        System.out.println("]");
+    // same as above, if checkpoint is not null the cumulated map and the next obstacle pixel are saved periodically (and
+    // when stopped early), a later call with the same image and parameters resumes from there
+    double[][] getObstacleMap(int initialPositionValue, String mode, OperatorProgress progress,
+                              OperatorCheckpoint checkpoint) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("DistanceMap_.getObstacleMap");
+        IntArrayList allStartingPositions = getInitialPositionIdsFromValue(initialPositionValue);
 
         double[][] intermediaryMap = new double[this.width][this.height];
         for (int i = 0; i < this.height; i++) {
@@ -335,19 +683,98 @@ public class DistanceMap_ implements PlugInFilter{
                 }
             }
         }
+        int firstPosition = 0;
+        OperatorCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.restore() : null;
+        if (snapshot != null) {
+            firstPosition = (int) snapshot.getLong("nextPosition");
+            double[] distances = snapshot.getDoubles("distances");
+            for (int id = 0; id < distances.length; id++) {
+                intermediaryMap[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)] = distances[id];
+            }
+        }
+
+        // used for progress bar calculations
+        double displayIncrement = 2.0; // 2% per increment
+        double completionPercentage = 100.0 * firstPosition / Math.max(1, allStartingPositions.size());
+        int printedIncrements = 0;
+        System.out.print("Calculating Distance Maps: [");
 
-        for (double[][] map : allObstacleMaps) {
+        // the maps of the obstacle pixels are folded into the cumulated map one by one
+        int p = firstPosition;
+        for (; p < allStartingPositions.size(); p++) {
+            if (progress.checkpointNow(p, allStartingPositions.size())) {
+                break;
+            }
+            if (checkpoint != null && checkpoint.isDue()) {
+                checkpoint.save(getObstacleMapSnapshot(intermediaryMap, p));
+            }
+            double[][] map = getDistanceMap(allStartingPositions.get(p), initialPositionValue, mode, false, progress);
             for (int i = 0; i < this.height; i++) {
                 for (int j = 0; j < this.width; j++) {
                     if(map[j][i] < intermediaryMap[j][i])
                         intermediaryMap[j][i] = map[j][i];
                 }
             }
+            if (progress.wasStopped()) {
+                break; // partial map of position p (upper bounds), a resumed run calculates it again
+            }
+
+            completionPercentage += 100.0 / allStartingPositions.size();
+            while (completionPercentage >= printedIncrements * displayIncrement + displayIncrement) {
+                System.out.print("#");
+                printedIncrements++;
+            }
+        }
+        System.out.println("]");
+
+        if (checkpoint != null) {
+            if (p < allStartingPositions.size()) {
+                checkpoint.save(getObstacleMapSnapshot(intermediaryMap, p));
+            } else {
+                checkpoint.delete();
+            }
         }
 
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) (p - firstPosition) * this.width * this.height)
+                .finish();
         return intermediaryMap;
     }
 
+    OperatorCheckpoint getObstacleMapCheckpoint(int initialPositionValue, String mode) {
+        return new OperatorCheckpoint(OperatorCheckpoint.getKey("DistanceMap_.getObstacleMap/" + mode + "/"
+                + initialPositionValue + "/" + this.blockedPixelValues, this.width, this.height, this.inDataArrInt),
+                OperatorCheckpoint.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    // cumulated map (packed ids) and the next obstacle pixel to process
+    OperatorCheckpoint.Snapshot getObstacleMapSnapshot(double[][] intermediaryMap, int nextPosition) {
+        double[] distances = new double[this.width * this.height];
+        for (int id = 0; id < distances.length; id++) {
+            distances[id] = intermediaryMap[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)];
+        }
+        return new OperatorCheckpoint.Snapshot().putLong("nextPosition", nextPosition).putDoubles("distances", distances);
+    }
+
+    // safety zone without the cumulated obstacle map: bounded-radius dilation from the obstacle boundary pixels, tile
+    // parallel (ObstacleSafetyZone), same zone as filterOutObstacleIds(getObstacleMap(...), safetyDistance)
+    BitSet getObstacleSafetyZone(int obstacleValue, String mode, double safetyDistance) {
+        return getObstacleSafetyZone(obstacleValue, mode, safetyDistance, Autotuner.getTileSize(
+                Autotuner.OPERATOR_SAFETY_ZONE, this.width, this.height, ObstacleSafetyZone.DEFAULT_TILE_SIZE));
+    }
+
+    BitSet getObstacleSafetyZone(int obstacleValue, String mode, double safetyDistance, int tileSize) {
+        int[] flatImage = new int[this.width * this.height];
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                flatImage[GridIndex.pack(j, i, this.width)] = this.inDataArrInt[j][i];
+            }
+        }
+        boolean[] blocked = getBlockedLookup();
+        blocked[obstacleValue] = false;
+        return new ObstacleSafetyZone(this.width, this.height, mode, tileSize).getSafetyZone(flatImage, blocked, obstacleValue,
+                safetyDistance);
+    }
+
     // returns all Positions than can be reached from an obstacle by moving a certain distance (=safetyDistance)
     Vector<Position> filterOutObstacles(double[][] obstacleMap, double safetyDistance) {
         Vector<Position> obstacles = new Vector<>();
@@ -362,6 +789,20 @@ public class DistanceMap_ implements PlugInFilter{
     }
 
 
+    // allocation-light variant of filterOutObstacles, returns the blocked pixels as bitmap of packed ids
+    BitSet filterOutObstacleIds(double[][] obstacleMap, double safetyDistance) {
+        BitSet obstacles = new BitSet(this.width * this.height);
+        for (int i = 0; i < this.height; i++) {
+            for (int j = 0; j < this.width; j++) {
+                if(obstacleMap[j][i] < safetyDistance) {
+                    obstacles.set(GridIndex.pack(j, i, this.width));
+                }
+            }
+        }
+        return obstacles;
+    }
+
+
     public void run(ImageProcessor ip) {
 
         this.blockedPixelValues = new ArrayList<>();
@@ -371,72 +812,272 @@ public class DistanceMap_ implements PlugInFilter{
         GenericDialog gd = new GenericDialog("Metrik");
         String[] choices = new String[] {"Euclidean", "Chebyshev", "Manhattan"};
 
+        String[] algorithms = new String[] {"Queue", "Chamfer 3-4", "Chamfer 5-7-11", "Dijkstra (cost model)",
+                "Delta-stepping (cost model, parallel)", "Auto (cost model, tuned)"};
+        String[] connectivities = new String[] {"8", "16", "32"};
+
         gd.addChoice("Metrik", choices, choices[0]);
+        gd.addChoice("Algorithm", algorithms, algorithms[0]);
+        gd.addChoice("Connectivity (cost model)", connectivities, connectivities[0]);
+        gd.addCheckbox("Terrain costs from grey values (cost model)", false);
+        gd.addCheckbox("Use distance field cache", false);
+        gd.addCheckbox("Bidirectional start/target query (two threads)", false);
+        gd.addCheckbox("Nearest of all targets (Voronoi partition)", false);
+        gd.addCheckbox("Lazy tiled view (large mazes, only the visible part is calculated)", false);
+        gd.addCheckbox("Multi-agent planning (all start pixels, collision free)", false);
+        gd.addNumericField("Obstacle safety distance", DEFAULT_SAFETY_DISTANCE, 1);
+        gd.addCheckbox("Bounded safety zone (no full obstacle map)", false);
+        gd.addCheckbox("Checkpoint the obstacle map (resume after a restart)", false);
         gd.showDialog();
         if(gd.wasCanceled()) {
             return;
         }
         String mode = gd.getNextChoice();
+        String algorithm = gd.getNextChoice();
+        int connectivity = Integer.parseInt(gd.getNextChoice());
+        boolean useTerrainCosts = gd.getNextBoolean();
+        this.useCache = gd.getNextBoolean();
+        boolean useBidirectionalQuery = gd.getNextBoolean();
+        boolean useNearestTargetField = gd.getNextBoolean();
+        boolean useLazyView = gd.getNextBoolean();
+        boolean useMultiAgentPlanning = gd.getNextBoolean();
+        double safetyDistance = gd.getNextNumber();
+        boolean useBoundedSafetyZone = gd.getNextBoolean();
+        this.useCheckpoints = gd.getNextBoolean();
+
+        if (algorithm.contains("cost model")) {
+            // darker grey values are harder terrain: cost factor 1 (white) to 5 (black)
+            this.costModel = new CostModel(mode, connectivity)
+                    .setTerrainCosts(useTerrainCosts ? CostModel.getLinearTerrainCosts(1.0, 5.0) : null);
+            algorithm = algorithm + "/" + connectivity + (useTerrainCosts ? "/terrain" : "");
+        }
+        final String algorithmKey = algorithm;
 
         byte[] pixels = (byte[])ip.getPixels();
         this.width = ip.getWidth();
         this.height = ip.getHeight();
         this.inDataArrInt = ImageJUtility.convertFrom1DByteArr(pixels, this.width, this.height);
 
+        if (useLazyView) {
+            showLazyDistanceView(this.costModel != null ? this.costModel : new CostModel(mode, CostModel.CONNECTIVITY_8));
+            return;
+        }
 
         // tasks (1,1), (1,2) - calculate distance map and print out the number of update operations
-        Vector<Position> initialPositionsGoal = getInitialPositionsFromValue(TARGET_COLOR);
-        double[][] distanceMap = getDistanceMap(initialPositionsGoal.elementAt(0), TARGET_COLOR, mode, true);
+        IntArrayList initialPositionsGoal = getInitialPositionIdsFromValue(TARGET_COLOR);
+        if(initialPositionsGoal.isEmpty()) {
+            throw new RuntimeException("no target position exists");
+        }
+        final int targetId = initialPositionsGoal.get(0);
+        double[][] distanceMap = getCachedDistanceMap("target/" + mode + "/" + algorithmKey,
+                () -> getTargetDistanceMap(targetId, mode, algorithmKey));
+
+        double[] distanceRange = this.lastDistanceRange;
 
         // task (1,3)
-        int[][] scaledMap = DistanceMapScaler.scaleToImageInterval(distanceMap, this.height, this.width);
-        int[][] distanceMapWithoutOverflow = new int[this.width][this.height];
-        for(int i = 0; i < this.height; i++) {
-            for(int j = 0; j < this.width; j++) {
-                distanceMapWithoutOverflow[j][i] = Math.min((int)distanceMap[j][i], 255);
-            }
-        }
-        ImageJUtility.showNewImage(scaledMap, this.width, this.height, "Scaled Distance Map [0;200]");
-        ImageJUtility.showNewImage(distanceMapWithoutOverflow, this.width, this.height, "Distance Map Without Overflow");
+        DistanceMapRenderer.createImage("Scaled Distance Map [0;200]", DistanceMapRenderer.renderScaled(distanceMap,
+                this.width, this.height, distanceRange, null, LUT_COLOR), this.width, this.height, false).show();
+        DistanceMapRenderer.createImage("Distance Map Without Overflow",
+                DistanceMapRenderer.renderClamped(distanceMap, this.width, this.height), this.width, this.height, false).show();
 
 
         // task (2,1)
-        Vector<Position> shortestPath = calculateShortestPath(distanceMap);
-        int[][] resultMap = plotShortestPath(scaledMap, shortestPath);
+        IntArrayList shortestPath = calculateShortestPathIds(distanceMap);
+
+        // task (2,2) - scaled map and path rendered into the pixels of the result image, shared mazeLUT
+        DistanceMapRenderer.createImage("Distance map with shortest path", DistanceMapRenderer.renderScaled(distanceMap,
+                this.width, this.height, distanceRange, shortestPath, LUT_COLOR), this.width, this.height, true).show();
+
+        // point-to-point query without a full distance map
+        if (useBidirectionalQuery) {
+            BidirectionalSearch.Result query = getShortestPathBidirectional(
+                    this.costModel != null ? this.costModel : new CostModel(mode, CostModel.CONNECTIVITY_8), true);
+            System.out.printf("%s%.3f%s%.1f%s\n", "Bidirectional query: cost ", query.cost, ", explored ",
+                    100.0 * query.expanded / ((double) this.width * this.height), "% of the pixels");
+            ImageJUtility.showNewImage(plotShortestPath(this.inDataArrInt, query.path), this.width, this.height,
+                    "Bidirectional shortest path");
+        }
 
-        // task (2,2)
-        byte[] resultImageBytes = ImageJUtility.convertFrom2DIntArr(resultMap, this.width, this.height);
-        ImageProcessor imageProcessor = new ByteProcessor(this.width, this.height, resultImageBytes, null);
-        imageProcessor.setLut(LutLoader.openLut("./luts/mazeLUT.lut"));
-        ImagePlus resultImagePlus = new ImagePlus("Distance map with shortest path", imageProcessor);
-        resultImagePlus.show();
+        // all targets at once: nearest target per pixel, the path from the start descends to the nearest one
+        if (useNearestTargetField) {
+            NearestTargetField nearestTargets = getNearestTargetField(TARGET_COLOR,
+                    this.costModel != null ? this.costModel : new CostModel(mode, CostModel.CONNECTIVITY_8),
+                    new OperatorProgress());
+            int startId = getInitialPositionIdsFromValue(START_COLOR).get(0);
+            int startX = GridIndex.getX(startId, this.width);
+            int startY = GridIndex.getY(startId, this.width);
+            int nearestId = nearestTargets.getNearestTargetId(startX, startY);
+            if (nearestId != NearestTargetField.UNREACHABLE) {
+                System.out.printf("%s%d%s%d%s%.3f\n", "Nearest of " + nearestTargets.getNumTargets() + " targets: (",
+                        GridIndex.getX(nearestId, this.width), ", ", GridIndex.getY(nearestId, this.width), "), distance ",
+                        nearestTargets.getDistance(startX, startY));
+                IntArrayList nearestPath = calculateShortestPathIds(nearestTargets.getDistanceMap());
+                ImageJUtility.showNewImage(plotShortestPath(nearestTargets.getPartitionImage(), nearestPath),
+                        this.width, this.height, "Voronoi partition of the targets with shortest path");
+            } else {
+                ImageJUtility.showNewImage(nearestTargets.getPartitionImage(), this.width, this.height,
+                        "Voronoi partition of the targets");
+            }
+        }
+
+        // many agents on the same maze: paths respect each other (reservation table)
+        if (useMultiAgentPlanning) {
+            MultiAgentPlanner.Result agents = planAgents(
+                    this.costModel != null ? this.costModel : new CostModel(mode, CostModel.CONNECTIVITY_8));
+            System.out.printf("%s%d%s%d%s%d%s%d\n", "Multi-agent planning: ", agents.numPlanned, " of ",
+                    agents.paths.length, " agents planned, makespan ", agents.makespan, ", rounds ", agents.rounds);
+            int[][] agentPaths = plotShortestPath(this.inDataArrInt, new IntArrayList());
+            for (IntArrayList path : agents.paths) {
+                for (int i = 0; path != null && i < path.size(); i++) {
+                    agentPaths[GridIndex.getX(path.get(i), this.width)][GridIndex.getY(path.get(i), this.width)] = LUT_COLOR;
+                }
+            }
+            ImageJUtility.showNewImage(agentPaths, this.width, this.height, "Multi-agent paths");
+        }
 
         // tasks (3,1), (3,2)
-        Vector<Position> initialPositionsObstacles = getInitialPositionsFromValue(OBSTACLE_COLOR);
-        double[][] obstacleDistanceMap = getObstacleMap(OBSTACLE_COLOR, mode);
-        int[][] scaledObstacleMap = DistanceMapScaler.scaleToImageInterval(obstacleDistanceMap, this.height, this.width);
-        ImageJUtility.showNewImage(scaledObstacleMap, this.width, this.height, "Scaled Obstacle Map");
+        BitSet obstacles;
+        if (useBoundedSafetyZone) {
+            obstacles = getObstacleSafetyZone(OBSTACLE_COLOR, mode, safetyDistance);
+        } else {
+            // thresholded with the safety distance, cached lossless
+            double[][] obstacleDistanceMap = getCachedDistanceMap("obstacle/" + mode, true,
+                    () -> getObstacleMap(OBSTACLE_COLOR, mode));
+            DistanceMapRenderer.createImage("Scaled Obstacle Map", DistanceMapRenderer.renderScaled(obstacleDistanceMap,
+                    this.width, this.height, this.lastDistanceRange, null, LUT_COLOR), this.width, this.height, false).show();
+            obstacles = filterOutObstacleIds(obstacleDistanceMap, safetyDistance);
+        }
 
         // task (3,3)
         this.blockedPixelValues.add((Integer)OBSTACLE_COLOR);
-        Vector<Position> obstacles = filterOutObstacles(obstacleDistanceMap, 4.0);
-        for(Position obstacle : obstacles) {
-            this.inDataArrInt[obstacle.xPos][obstacle.yPos] = OBSTACLE_COLOR;
+        for(int id = obstacles.nextSetBit(0); id >= 0; id = obstacles.nextSetBit(id + 1)) {
+            this.inDataArrInt[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)] = OBSTACLE_COLOR;
+        }
+        double[][] combinedDistanceMap = getCachedDistanceMap("combined/" + mode + "/" + algorithmKey,
+                () -> getTargetDistanceMap(targetId, mode, algorithmKey));
+        IntArrayList shortestPathAroundObstacles = calculateShortestPathIds(combinedDistanceMap);
+        DistanceMapRenderer.createImage("Original image with shortest path (Obstacles considered)",
+                DistanceMapRenderer.renderImage(this.inDataArrInt, this.width, this.height, shortestPathAroundObstacles,
+                        LUT_COLOR), this.width, this.height, true).show();
+
+        if (this.costModel != null) {
+            System.out.printf("%s%.3f\n", "Cost of path (without Obstacles): ", calculateOverallPath(shortestPath, this.costModel));
+            System.out.printf("%s%.3f\n", "Cost of path (with    Obstacles): ", calculateOverallPath(shortestPathAroundObstacles, this.costModel));
+        } else {
+            System.out.printf("%s%.3f\n", "Length of path (without Obstacles): ", calculateOverallPath(shortestPath, mode));
+            System.out.printf("%s%.3f\n", "Length of path (with    Obstacles): ", calculateOverallPath(shortestPathAroundObstacles, mode));
         }
-        double[][] combinedDistanceMap = getDistanceMap(initialPositionsGoal.elementAt(0), TARGET_COLOR, mode, true);
-        Vector<Position> shortestPathAroundObstacles = calculateShortestPath(combinedDistanceMap);
-        int[][] resultMapObstacles = plotShortestPath(this.inDataArrInt, shortestPathAroundObstacles);
 
-        byte[] resultImageBytesObstacles = ImageJUtility.convertFrom2DIntArr(resultMapObstacles, this.width, this.height);
-        ImageProcessor imageProcessorObstacles = new ByteProcessor(this.width, this.height, resultImageBytesObstacles, null);
-        imageProcessorObstacles.setLut(LutLoader.openLut("./luts/mazeLUT.lut"));
-        ImagePlus resultImagePlusObstacles = new ImagePlus("Original image with shortest path (Obstacles considered)", imageProcessorObstacles);
-        resultImagePlusObstacles.show();
+    } //run
 
-        System.out.printf("%s%.3f\n", "Length of path (without Obstacles): ", calculateOverallPath(shortestPath, mode));
-        System.out.printf("%s%.3f\n", "Length of path (with    Obstacles): ", calculateOverallPath(shortestPathAroundObstacles, mode));
+    // shows the distance map from the targets as a lazily calculated tiled view: a daemon thread follows the visible part
+    // of the window, the search runs toward it in short slices and the tiles are drawn as soon as they are complete
+    void showLazyDistanceView(CostModel model) {
+        IntArrayList targets = getInitialPositionIdsFromValue(TARGET_COLOR);
+        if (targets.isEmpty()) {
+            throw new RuntimeException("no target position exists");
+        }
+        double[] pixelCosts = model.getPixelCosts(this.inDataArrInt, this.width, this.height, getBlockedLookup());
+        // first guess of the maximum distance, the field widens the display range when it settles larger distances
+        double displayMax = this.width + this.height;
+        LazyDistanceField field = new LazyDistanceField(this.width, this.height, model, pixelCosts, targets,
+                LazyDistanceField.DEFAULT_TILE_SIZE, displayMax, LazyDistanceField.DEFAULT_CACHED_TILES);
+
+        byte[] viewPixels = new byte[this.width * this.height];
+        Arrays.fill(viewPixels, (byte) BACKGROUND_COLOR);
+        ImagePlus view = DistanceMapRenderer.createImage("Lazy distance map", viewPixels, this.width, this.height, true);
+        view.show();
+        final int viewWidth = this.width;
+        final int[] drawnTiles = {0};
+        Consumer<LazyDistanceField.Tile> drawTile = tile -> {
+            drawnTiles[0]++;
+            for (int y = 0; y < tile.height; y++) {
+                System.arraycopy(tile.pixels, y * tile.width, viewPixels, (tile.y + y) * viewWidth + tile.x, tile.width);
+            }
+        };
 
-    } //run
+        ImageWindow window = view.getWindow();
+        if (window == null) {
+            // no window to follow (batch mode), calculate everything
+            field.requestViewport(0, 0, this.width, this.height, drawTile, new OperatorProgress());
+            view.updateAndDraw();
+            return;
+        }
+        Thread viewer = new Thread(() -> {
+            Rectangle requested = null;
+            boolean complete = false;
+            while (!window.isClosed()) {
+                // the field is only asked again while its tiles are pending or after the visible part changed
+                Rectangle visible = new Rectangle(view.getCanvas().getSrcRect());
+                if (!complete || !visible.equals(requested)) {
+                    int drawnBefore = drawnTiles[0];
+                    complete = field.requestViewport(visible.x, visible.y, visible.width, visible.height, drawTile,
+                            new OperatorProgress().setDeadline(LAZY_VIEW_SLICE_MILLIS));
+                    requested = visible;
+                    if (drawnTiles[0] != drawnBefore) {
+                        view.updateAndDraw();
+                    }
+                    if (!complete) {
+                        continue;
+                    }
+                }
+                try {
+                    Thread.sleep(LAZY_VIEW_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "lazy-distance-view");
+        viewer.setDaemon(true);
+        viewer.start();
+    }
+
+    // loads the distance field from the DistanceFieldCache if useCache is set and the current image data, field name
+    // and blocked values are known, otherwise calculates (and stores) it
+    double[][] getCachedDistanceMap(String fieldName, Supplier<double[][]> calculation) {
+        return getCachedDistanceMap(fieldName, false, calculation);
+    }
+
+    // lossless: the field is stored with its exact values (fields compared to thresholds)
+    double[][] getCachedDistanceMap(String fieldName, boolean lossless, Supplier<double[][]> calculation) {
+        this.lastDistanceRange = null; // only known if the engine calculates the map
+        if (!this.useCache) {
+            return calculation.get();
+        }
+        String key = DistanceFieldCache.getKey(this.inDataArrInt, this.width, this.height, fieldName, this.blockedPixelValues);
+        double[][] distanceMap = DistanceFieldCache.load(key, this.width, this.height);
+        if (distanceMap == null) {
+            distanceMap = calculation.get();
+            DistanceFieldCache.store(key, distanceMap, this.width, this.height, lossless);
+        }
+        return distanceMap;
+    }
+
+    // distance map from the target with the algorithm chosen in the dialog
+    double[][] getTargetDistanceMap(int targetId, String mode, String algorithm) {
+        if (algorithm.startsWith("Dijkstra")) {
+            return getDistanceMap(TARGET_COLOR, this.costModel, true, new OperatorProgress());
+        }
+        if (algorithm.startsWith("Delta-stepping")) {
+            return getDistanceMapParallel(TARGET_COLOR, this.costModel, true, new OperatorProgress());
+        }
+        if (algorithm.startsWith("Auto")) {
+            // engine benchmarked on this host for the size and wall density (heap / bucket queue Dijkstra or
+            // delta-stepping)
+            double wallDensity = getBlockedFraction();
+            return Autotuner.runDistanceEngine(this, Autotuner.getDistanceEngine(this.width, this.height, wallDensity),
+                    Autotuner.getDistanceThreads(this.width, this.height, wallDensity), TARGET_COLOR, this.costModel,
+                    new OperatorProgress());
+        }
+        switch (algorithm) {
+            case "Chamfer 3-4":
+                return getDistanceMapChamfer(TARGET_COLOR, mode, ChamferDistanceTransform.MASK_3_4, true);
+            case "Chamfer 5-7-11":
+                return getDistanceMapChamfer(TARGET_COLOR, mode, ChamferDistanceTransform.MASK_5_7_11, true);
+            default:
+                return getDistanceMap(targetId, TARGET_COLOR, mode, true, new OperatorProgress());
+        }
+    }
 
     void showAbout() {
         IJ.showMessage("About DistanceMap_...",
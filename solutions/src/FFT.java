@@ -0,0 +1,132 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Iterative radix-2 complex FFT with cached twiddle factors and bit reversal tables.
+ * 2D transforms work on the [x][y] layout used throughout the project and transform the rows / columns in parallel.
+ */
+public class FFT {
+
+    // per transform length: {cos, sin} of the n/2 twiddle factors
+    private static final Map<Integer, double[][]> TWIDDLES = new ConcurrentHashMap<>();
+    private static final Map<Integer, int[]> BIT_REVERSALS = new ConcurrentHashMap<>();
+
+    /**
+     * @param n the minimum length
+     * @return the smallest power of two &gt;= n
+     */
+    public static int nextPowerOfTwo(int n) {
+        int result = 1;
+        while (result < n) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    private static double[][] getTwiddles(int n) {
+        return TWIDDLES.computeIfAbsent(n, len -> {
+            double[][] twiddles = new double[2][len / 2];
+            for (int k = 0; k < len / 2; k++) {
+                double angle = -2.0 * Math.PI * k / len;
+                twiddles[0][k] = Math.cos(angle);
+                twiddles[1][k] = Math.sin(angle);
+            }
+            return twiddles;
+        });
+    }
+
+    private static int[] getBitReversal(int n) {
+        return BIT_REVERSALS.computeIfAbsent(n, len -> {
+            int bits = Integer.numberOfTrailingZeros(len);
+            int[] reversed = new int[len];
+            for (int i = 0; i < len; i++) {
+                reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+            return reversed;
+        });
+    }
+
+    /**
+     * in-place 1D transform
+     *
+     * @param re      real parts, length must be a power of two
+     * @param im      imaginary parts
+     * @param inverse true for the inverse transform (scaled by 1/n)
+     */
+    public static void transform(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+        if (Integer.bitCount(n) != 1 || im.length != n) {
+            throw new RuntimeException("FFT length must be a power of two, was " + n);
+        }
+
+        int[] reversed = getBitReversal(n);
+        for (int i = 0; i < n; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double tmp = re[i]; re[i] = re[j]; re[j] = tmp;
+                tmp = im[i]; im[i] = im[j]; im[j] = tmp;
+            }
+        }
+
+        double[][] twiddles = getTwiddles(n);
+        double[] cos = twiddles[0];
+        double[] sin = twiddles[1];
+        double sign = inverse ? -1.0 : 1.0;
+        for (int size = 2; size <= n; size <<= 1) {
+            int half = size >> 1;
+            int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    double wRe = cos[k * step];
+                    double wIm = sign * sin[k * step];
+                    int even = start + k;
+                    int odd = even + half;
+                    double oddRe = re[odd] * wRe - im[odd] * wIm;
+                    double oddIm = re[odd] * wIm + im[odd] * wRe;
+                    re[odd] = re[even] - oddRe;
+                    im[odd] = im[even] - oddIm;
+                    re[even] += oddRe;
+                    im[even] += oddIm;
+                }
+            }
+        }
+
+        if (inverse) {
+            double scale = 1.0 / n;
+            for (int i = 0; i < n; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * in-place 2D transform, first along y (contiguous columns), then along x
+     *
+     * @param re      real parts [nx][ny], nx and ny must be powers of two
+     * @param im      imaginary parts [nx][ny]
+     * @param inverse true for the inverse transform (scaled by 1/(nx*ny))
+     */
+    public static void transform2D(double[][] re, double[][] im, boolean inverse) {
+        int nx = re.length;
+        int ny = re[0].length;
+
+        IntStream.range(0, nx).parallel().forEach(x -> transform(re[x], im[x], inverse));
+
+        IntStream.range(0, ny).parallel().forEach(y -> {
+            double[] lineRe = new double[nx];
+            double[] lineIm = new double[nx];
+            for (int x = 0; x < nx; x++) {
+                lineRe[x] = re[x][y];
+                lineIm[x] = im[x][y];
+            }
+            transform(lineRe, lineIm, inverse);
+            for (int x = 0; x < nx; x++) {
+                re[x][y] = lineRe[x];
+                im[x][y] = lineIm[x];
+            }
+        });
+    }
+
+}
@@ -1,3 +1,6 @@
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
 public class ImageTransformationFilter {
 
     /**
@@ -11,6 +14,7 @@ public class ImageTransformationFilter {
      * @return The resulting image.
      */
     public static int[][] getTransformedImage(int[][] inImg, int width, int height, int[] transferFunction) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ImageTransformationFilter.getTransformedImage");
         int[][] returnImg = new int[width][height];
 
         for(int x = 0; x < width;x++) {
@@ -20,9 +24,31 @@ public class ImageTransformationFilter {
             } //for y
         } //for x
 
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
         return returnImg;
     }
 
+    /**
+     * apply scalar transformation to 8-bit pixels without converting them to int[][] (the byte[] of an ImageProcessor
+     * or the mapped pixels of a MappedImageIO image), rows in parallel
+     *
+     * @param in               the pixels (row major, index y * width + x)
+     * @param out              receives the transformed pixels (may be in)
+     * @param width            The width of the image.
+     * @param height           The height of the image.
+     * @param transferFunction The transfer function, see getTransformedImage.
+     */
+    public static void transform(ByteBuffer in, ByteBuffer out, int width, int height, int[] transferFunction) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ImageTransformationFilter.transform");
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                out.put(offset + x, (byte) transferFunction[in.get(offset + x) & 0xFF]);
+            }
+        });
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+    }
+
     /**
      * get transfer function for contrast inversion
      *
@@ -57,4 +83,84 @@ public class ImageTransformationFilter {
         return transferFunction;
     }
 
+    /**
+     * Returns the grey value histogram of an image.
+     *
+     * @param inImg  The input image.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param maxVal the max value of the image space (note: this is 255 for most of the images)
+     * @return The histogram, the index corresponds to a grey value and the value to its number of pixels.
+     */
+    public static int[] getHistogram(int[][] inImg, int width, int height, int maxVal) {
+        int[] histogram = new int[maxVal + 1];
+
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                histogram[inImg[x][y]]++;
+            } //for y
+        } //for x
+
+        return histogram;
+    }
+
+    /**
+     * Returns the transfer function for a histogram equalization. The histogram is clipped at clipLimit times the
+     * mean bin count first and the clipped counts are redistributed over all bins (contrast limited equalization,
+     * limits the slope of the transfer function and so the amplification of noise in flat regions).
+     *
+     * @param histogram the histogram of the image (or image region), see getHistogram
+     * @param maxVal    the max value of the image space (note: this is 255 for most of the images)
+     * @param clipLimit the max slope of the transfer function (&gt;= 1), Double.POSITIVE_INFINITY for the classic
+     *                  equalization
+     * @return The resulting transfer function.
+     */
+    public static int[] getEqualizationTF(int[] histogram, int maxVal, double clipLimit) {
+        int numBins = maxVal + 1;
+        long total = 0;
+        for (int count : histogram) {
+            total += count;
+        }
+        double[] counts = new double[numBins];
+        for (int i = 0; i < numBins; i++) {
+            counts[i] = histogram[i];
+        }
+
+        if (clipLimit != Double.POSITIVE_INFINITY) {
+            double limit = Math.max(1.0, clipLimit) * total / numBins;
+            double excess = 0.0;
+            for (int i = 0; i < numBins; i++) {
+                if (counts[i] > limit) {
+                    excess += counts[i] - limit;
+                    counts[i] = limit;
+                }
+            }
+            double increment = excess / numBins;
+            for (int i = 0; i < numBins; i++) {
+                counts[i] += increment;
+            }
+        }
+
+        // the first occupied grey value maps to 0, the last one to maxVal
+        int[] transferFunction = new int[numBins];
+        double cdfMin = 0.0;
+        for (int i = 0; i < numBins && cdfMin == 0.0; i++) {
+            cdfMin = counts[i];
+        }
+        if (total == 0 || total - cdfMin <= 0.0) {
+            // empty or constant image, nothing to stretch
+            for (int i = 0; i < numBins; i++) {
+                transferFunction[i] = i;
+            }
+            return transferFunction;
+        }
+        double cdf = 0.0;
+        for (int i = 0; i < numBins; i++) {
+            cdf += counts[i];
+            transferFunction[i] = (int) Math.round(Math.max(0.0, cdf - cdfMin) / (total - cdfMin) * maxVal);
+        }
+
+        return transferFunction;
+    }
+
 }
@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of (node id, key) pairs stored in two parallel primitive arrays. Decrease-key is realised by simply
+ * adding the node again, the stale entry is skipped by the caller.
+ */
+public class IndexMinHeap implements NodeQueue {
+
+    private int[] ids;
+    private double[] keys;
+    private int size;
+
+    public IndexMinHeap(int initialCapacity) {
+        this.ids = new int[Math.max(initialCapacity, 16)];
+        this.keys = new double[this.ids.length];
+    }
+
+    public void add(int id, double key) {
+        if (this.size == this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            this.keys = Arrays.copyOf(this.keys, this.size * 2);
+        }
+        // sift up
+        int pos = this.size++;
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (this.keys[parent] <= key) {
+                break;
+            }
+            this.ids[pos] = this.ids[parent];
+            this.keys[pos] = this.keys[parent];
+            pos = parent;
+        }
+        this.ids[pos] = id;
+        this.keys[pos] = key;
+    }
+
+    /**
+     * @return the smallest key currently in the heap
+     */
+    public double peekKey() {
+        if (this.size == 0) {
+            throw new RuntimeException("heap is empty");
+        }
+        return this.keys[0];
+    }
+
+    /**
+     * @return the id of the entry with the smallest key
+     */
+    public int peekId() {
+        if (this.size == 0) {
+            throw new RuntimeException("heap is empty");
+        }
+        return this.ids[0];
+    }
+
+    public int poll() {
+        if (this.size == 0) {
+            throw new RuntimeException("heap is empty");
+        }
+        int result = this.ids[0];
+        this.size--;
+        if (this.size > 0) {
+            int lastId = this.ids[this.size];
+            double lastKey = this.keys[this.size];
+            // sift down
+            int pos = 0;
+            int half = this.size >>> 1;
+            while (pos < half) {
+                int child = 2 * pos + 1;
+                if (child + 1 < this.size && this.keys[child + 1] < this.keys[child]) {
+                    child++;
+                }
+                if (lastKey <= this.keys[child]) {
+                    break;
+                }
+                this.ids[pos] = this.ids[child];
+                this.keys[pos] = this.keys[child];
+                pos = child;
+            }
+            this.ids[pos] = lastId;
+            this.keys[pos] = lastKey;
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+}
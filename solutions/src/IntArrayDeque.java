@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+/**
+ * Growable ring buffer of primitive ints usable as FIFO queue (open set of a breadth first search), no boxing.
+ */
+public class IntArrayDeque {
+
+    private int[] elements;
+    private int head; // index of the first element
+    private int size;
+
+    public IntArrayDeque() {
+        this(16);
+    }
+
+    public IntArrayDeque(int initialCapacity) {
+        // power of two capacity, so the ring index is a simple mask
+        this.elements = new int[Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1];
+    }
+
+    public void addLast(int value) {
+        if (this.size == this.elements.length) {
+            grow();
+        }
+        this.elements[(this.head + this.size) & (this.elements.length - 1)] = value;
+        this.size++;
+    }
+
+    public void addFirst(int value) {
+        if (this.size == this.elements.length) {
+            grow();
+        }
+        this.head = (this.head - 1) & (this.elements.length - 1);
+        this.elements[this.head] = value;
+        this.size++;
+    }
+
+    public int pollFirst() {
+        if (this.size == 0) {
+            throw new RuntimeException("deque is empty");
+        }
+        int value = this.elements[this.head];
+        this.head = (this.head + 1) & (this.elements.length - 1);
+        this.size--;
+        return value;
+    }
+
+    public int pollLast() {
+        if (this.size == 0) {
+            throw new RuntimeException("deque is empty");
+        }
+        this.size--;
+        return this.elements[(this.head + this.size) & (this.elements.length - 1)];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.head = 0;
+        this.size = 0;
+    }
+
+    private void grow() {
+        int[] newElements = Arrays.copyOf(this.elements, this.elements.length * 2);
+        // move the wrapped part behind the old end
+        System.arraycopy(this.elements, 0, newElements, this.elements.length, this.head);
+        this.elements = newElements;
+    }
+
+}
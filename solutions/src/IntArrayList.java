@@ -0,0 +1,56 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints (e.g. packed cell ids of a path), no boxing.
+ */
+public class IntArrayList {
+
+    private int[] elements;
+    private int size;
+
+    public IntArrayList() {
+        this(16);
+    }
+
+    public IntArrayList(int initialCapacity) {
+        this.elements = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (this.size == this.elements.length) {
+            this.elements = Arrays.copyOf(this.elements, this.size * 2);
+        }
+        this.elements[this.size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+        }
+        return this.elements[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + this.size);
+        }
+        this.elements[index] = value;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(this.elements, this.size);
+    }
+
+}
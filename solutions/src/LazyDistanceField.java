@@ -0,0 +1,399 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Distance field that is only calculated where it is looked at. A resumable multi-source A* from the seeds settles
+ * pixels in the order of g + h, with h = a lower bound of the cost to the requested viewport, so the search grows
+ * toward the visible region instead of flooding the whole image first. Settled distances are exact (h is consistent,
+ * moving the viewport only re-keys the open set), the work done for one viewport is kept for the next one.
+ * The field is split into square tiles: a tile is complete when all its free pixels are settled (or the search is
+ * exhausted), free pixels cut off from the seeds are found with a local flood fill when their tile is viewed, so
+ * enclosed pockets do not force the search to run to the end. A complete tile is rendered with DistanceMapScaler.getMazeScaler and handed to the listener as soon as it is
+ * done, so the viewer can draw it progressively. Rendered tiles are kept in an LRU cache.
+ * The maximum distance is unknown before the field is complete: the display range starts with a guess and is doubled
+ * whenever a settled distance exceeds it, the rendered tiles are then rendered again, so no tile is shown saturated.
+ */
+public class LazyDistanceField {
+
+    public static final int DEFAULT_TILE_SIZE = 128;
+    public static final int DEFAULT_CACHED_TILES = 256;
+
+    static final byte UNKNOWN = 0;
+    static final byte REACHABLE = 1;
+    static final byte UNREACHABLE = 2;
+    static final byte VISITING = 3;
+
+    private final int width;
+    private final int height;
+    private final CostModel model;
+    private final double[] pixelCosts;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final double[] displayRange; // {0, max}, max grows with the settled distances
+    private final double heuristicFactor; // cost per Chebyshev step, lower bound of every move
+
+    // search state, kept between the requests
+    private final double[] distances;
+    private final boolean[] settled;
+    private final int[] unsettledPerTile; // free pixels of the tile neither settled nor known to be unreachable
+    private final byte[] reachability;    // UNKNOWN, REACHABLE or UNREACHABLE, only classified for viewed tiles
+    private IndexMinHeap openSet;
+    private int[] target = null; // {minX, minY, maxX, maxY} the open set is keyed for
+    private long expanded;
+
+    // rendered tiles (tile index -> tile), least recently used first
+    private final Map<Integer, Tile> tileCache;
+    private int[] deliveredFor = null; // viewport of the delivered tiles
+    private final BitSet delivered;
+    private boolean deliveredAll = false; // all tiles of deliveredFor delivered with the current display range
+
+    /**
+     * rendered tile of the field
+     */
+    public static class Tile {
+        public final int x;      // position of the upper left pixel
+        public final int y;
+        public final int width;
+        public final int height;
+        public final byte[] pixels; // row major, width * height
+
+        Tile(int x, int y, int width, int height, byte[] pixels) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * @param width       the width of the image
+     * @param height      the height of the image
+     * @param model       moves and costs
+     * @param pixelCosts  per pixel cost factors, see CostModel.getPixelCosts
+     * @param seeds       packed ids (y * width + x) with distance 0
+     * @param tileSize    edge length of the tiles
+     * @param displayMax  initial guess of the distance rendered with the largest grey value, raised when the search
+     *                    settles larger distances
+     * @param cachedTiles number of rendered tiles kept
+     */
+    public LazyDistanceField(int width, int height, CostModel model, double[] pixelCosts, IntArrayList seeds,
+                             int tileSize, double displayMax, int cachedTiles) {
+        this.width = width;
+        this.height = height;
+        this.model = model;
+        this.pixelCosts = pixelCosts;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.displayRange = new double[]{0.0, displayMax};
+
+        double minPixelCost = Double.POSITIVE_INFINITY;
+        for (double pixelCost : pixelCosts) {
+            minPixelCost = Math.min(minPixelCost, pixelCost);
+        }
+        double minCostPerStep = Double.POSITIVE_INFINITY;
+        for (int dir = 0; dir < model.getNumDirections(); dir++) {
+            int chebyshevLength = Math.max(Math.abs(model.dx[dir]), Math.abs(model.dy[dir]));
+            minCostPerStep = Math.min(minCostPerStep, model.stepLength[dir] / chebyshevLength);
+        }
+        this.heuristicFactor = Double.isInfinite(minPixelCost) ? 0.0 : minCostPerStep * minPixelCost;
+
+        int numPixels = width * height;
+        this.distances = new double[numPixels];
+        Arrays.fill(this.distances, Double.POSITIVE_INFINITY);
+        this.settled = new boolean[numPixels];
+        this.reachability = new byte[numPixels];
+        this.unsettledPerTile = new int[this.tilesX * this.tilesY];
+        for (int id = 0; id < numPixels; id++) {
+            if (pixelCosts[id] != Double.POSITIVE_INFINITY) {
+                this.unsettledPerTile[getTileIndex(id)]++;
+            }
+        }
+        this.openSet = new IndexMinHeap(seeds.size() * 4);
+        for (int i = 0; i < seeds.size(); i++) {
+            this.distances[seeds.get(i)] = 0.0;
+            this.openSet.add(seeds.get(i), 0.0);
+        }
+
+        this.tileCache = new LinkedHashMap<Integer, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+                return size() > cachedTiles;
+            }
+        };
+        this.delivered = new BitSet(this.tilesX * this.tilesY);
+    }
+
+    private int getTileIndex(int id) {
+        return (GridIndex.getY(id, this.width) / this.tileSize) * this.tilesX + GridIndex.getX(id, this.width) / this.tileSize;
+    }
+
+    // Chebyshev steps to the target rectangle times the cheapest cost per step (consistent lower bound)
+    private double getHeuristic(int id, int[] rect) {
+        int x = GridIndex.getX(id, this.width);
+        int y = GridIndex.getY(id, this.width);
+        int outsideX = Math.max(0, Math.max(rect[0] - x, x - rect[2]));
+        int outsideY = Math.max(0, Math.max(rect[1] - y, y - rect[3]));
+        return this.heuristicFactor * Math.max(outsideX, outsideY);
+    }
+
+    // keys the open set for the new target rectangle, stale entries (larger g than the current distance) are dropped
+    private void retarget(int[] rect) {
+        IndexMinHeap retargeted = new IndexMinHeap(this.openSet.size());
+        while (!this.openSet.isEmpty()) {
+            double key = this.openSet.peekKey();
+            int id = this.openSet.poll();
+            double currentKey = this.target == null ? this.distances[id] : this.distances[id] + getHeuristic(id, this.target);
+            if (!this.settled[id] && key == currentKey) {
+                retargeted.add(id, this.distances[id] + getHeuristic(id, rect));
+            }
+        }
+        this.openSet = retargeted;
+        this.target = rect;
+    }
+
+    /**
+     * delivers the tiles covering the viewport to the listener: cached or complete tiles at once, the others as soon as
+     * the search has settled them. Every tile is delivered once per viewport (a new viewport delivers all its tiles
+     * again, as well as all tiles after the display range was widened), so the request can be repeated with a short
+     * deadline to stay responsive to viewport changes. Repeating a completely delivered request returns at once.
+     *
+     * @param viewX      x of the upper left pixel of the viewport
+     * @param viewY      y of the upper left pixel of the viewport
+     * @param viewWidth  width of the viewport
+     * @param viewHeight height of the viewport
+     * @param listener   receives the rendered tiles
+     * @param progress   cancellation / deadline of this request
+     * @return true if all tiles of the viewport have been delivered
+     */
+    public synchronized boolean requestViewport(int viewX, int viewY, int viewWidth, int viewHeight,
+                                                Consumer<Tile> listener, OperatorProgress progress) {
+        int minTileX = Math.max(0, viewX / this.tileSize);
+        int minTileY = Math.max(0, viewY / this.tileSize);
+        int maxTileX = Math.min(this.tilesX - 1, (viewX + viewWidth - 1) / this.tileSize);
+        int maxTileY = Math.min(this.tilesY - 1, (viewY + viewHeight - 1) / this.tileSize);
+        int[] viewport = {minTileX, minTileY, maxTileX, maxTileY};
+        if (Arrays.equals(viewport, this.deliveredFor)) {
+            if (this.deliveredAll) {
+                return true; // nothing changed since the last request
+            }
+        } else {
+            this.delivered.clear();
+            this.deliveredFor = viewport;
+        }
+
+        OperatorMetrics.Run metrics = OperatorMetrics.start("LazyDistanceField.requestViewport");
+        int pending = deliverViewport(listener);
+
+        long expandedBefore = this.expanded;
+        if (pending > 0) {
+            // the open set is keyed for the pixel rectangle of the tiles
+            int[] rect = {minTileX * this.tileSize, minTileY * this.tileSize,
+                    Math.min(this.width, (maxTileX + 1) * this.tileSize) - 1,
+                    Math.min(this.height, (maxTileY + 1) * this.tileSize) - 1};
+            if (!Arrays.equals(rect, this.target)) {
+                retarget(rect);
+                pending -= classifyReachability(minTileX, minTileY, maxTileX, maxTileY, listener);
+            }
+            while (pending > 0 && !this.openSet.isEmpty()
+                    && !progress.checkpoint(this.expanded - expandedBefore, this.width * (long) this.height)) {
+                metrics.recordQueueSize(this.openSet.size());
+                int current = this.openSet.poll();
+                if (this.settled[current]) {
+                    continue; // stale queue entry
+                }
+                settle(current, rect);
+                if (this.distances[current] > this.displayRange[1]) {
+                    // beyond the display range: widen it and deliver the complete tiles again, rendered anew
+                    this.displayRange[1] = Math.max(2.0 * this.displayRange[1], this.distances[current]);
+                    this.tileCache.clear();
+                    this.delivered.clear();
+                    pending = deliverViewport(listener);
+                    continue;
+                }
+                int tile = getTileIndex(current);
+                int tileX = tile % this.tilesX;
+                int tileY = tile / this.tilesX;
+                if (this.unsettledPerTile[tile] == 0 && tileX >= minTileX && tileX <= maxTileX
+                        && tileY >= minTileY && tileY <= maxTileY && !this.delivered.get(tile)) {
+                    deliverIfComplete(tile, listener);
+                    pending--;
+                }
+            }
+            if (this.openSet.isEmpty()) {
+                // search exhausted, the rest of the viewport is unreachable
+                pending = deliverViewport(listener);
+            }
+        }
+        this.deliveredAll = pending == 0;
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, this.expanded - expandedBefore).finish();
+        return pending == 0;
+    }
+
+    /**
+     * @return the distance rendered with the largest grey value so far
+     */
+    public synchronized double getDisplayMax() {
+        return this.displayRange[1];
+    }
+
+    // delivers the complete undelivered tiles of the current viewport, returns the number of tiles still pending
+    private int deliverViewport(Consumer<Tile> listener) {
+        int pending = 0;
+        for (int tileY = this.deliveredFor[1]; tileY <= this.deliveredFor[3]; tileY++) {
+            for (int tileX = this.deliveredFor[0]; tileX <= this.deliveredFor[2]; tileX++) {
+                int tile = tileY * this.tilesX + tileX;
+                if (!this.delivered.get(tile) && !deliverIfComplete(tile, listener)) {
+                    pending++;
+                }
+            }
+        }
+        return pending;
+    }
+
+    // flood fills the unknown unsettled pixels of the undelivered tiles: a fill that meets a pixel with a distance (or
+    // known to be reachable) is reachable, a fill that ends without is cut off from the seeds and no longer awaited;
+    // returns the number of tiles delivered because of that
+    private int classifyReachability(int minTileX, int minTileY, int maxTileX, int maxTileY, Consumer<Tile> listener) {
+        IntArrayDeque openPixels = new IntArrayDeque();
+        IntArrayList visited = new IntArrayList();
+        int completed = 0;
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                int tile = tileY * this.tilesX + tileX;
+                if (this.delivered.get(tile)) {
+                    continue;
+                }
+                for (int y = tileY * this.tileSize; y < Math.min(this.height, (tileY + 1) * this.tileSize); y++) {
+                    for (int x = tileX * this.tileSize; x < Math.min(this.width, (tileX + 1) * this.tileSize); x++) {
+                        int id = GridIndex.pack(x, y, this.width);
+                        if (this.reachability[id] == UNKNOWN && this.pixelCosts[id] != Double.POSITIVE_INFINITY
+                                && this.distances[id] == Double.POSITIVE_INFINITY) {
+                            classifyComponent(id, openPixels, visited);
+                        }
+                    }
+                }
+                if (this.unsettledPerTile[tile] == 0 && deliverIfComplete(tile, listener)) {
+                    completed++;
+                }
+            }
+        }
+        return completed;
+    }
+
+    private void classifyComponent(int startId, IntArrayDeque openPixels, IntArrayList visited) {
+        openPixels.clear();
+        visited.clear();
+        openPixels.addLast(startId);
+        this.reachability[startId] = VISITING;
+        visited.add(startId);
+        boolean reachable = false;
+        while (!openPixels.isEmpty() && !reachable) {
+            int current = openPixels.pollFirst();
+            int currentX = GridIndex.getX(current, this.width);
+            int currentY = GridIndex.getY(current, this.width);
+            for (int dir = 0; dir < this.model.getNumDirections() && !reachable; dir++) {
+                if (this.model.getMoveCost(this.pixelCosts, this.width, this.height, currentX, currentY, dir)
+                        == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int neighbor = GridIndex.pack(currentX + this.model.dx[dir], currentY + this.model.dy[dir], this.width);
+                if (this.distances[neighbor] != Double.POSITIVE_INFINITY || this.reachability[neighbor] == REACHABLE) {
+                    reachable = true;
+                } else if (this.reachability[neighbor] == UNKNOWN) {
+                    this.reachability[neighbor] = VISITING;
+                    visited.add(neighbor);
+                    openPixels.addLast(neighbor);
+                }
+            }
+        }
+        for (int i = 0; i < visited.size(); i++) {
+            int id = visited.get(i);
+            this.reachability[id] = reachable ? REACHABLE : UNREACHABLE;
+            if (!reachable) {
+                this.unsettledPerTile[getTileIndex(id)]--;
+            }
+        }
+    }
+
+    private void settle(int current, int[] rect) {
+        this.settled[current] = true;
+        this.unsettledPerTile[getTileIndex(current)]--;
+        this.expanded++;
+        int currentX = GridIndex.getX(current, this.width);
+        int currentY = GridIndex.getY(current, this.width);
+        for (int dir = 0; dir < this.model.getNumDirections(); dir++) {
+            double moveCost = this.model.getMoveCost(this.pixelCosts, this.width, this.height, currentX, currentY, dir);
+            if (moveCost == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            int neighbor = GridIndex.pack(currentX + this.model.dx[dir], currentY + this.model.dy[dir], this.width);
+            double tentativeScore = this.distances[current] + moveCost;
+            if (!this.settled[neighbor] && tentativeScore < this.distances[neighbor]) {
+                this.distances[neighbor] = tentativeScore;
+                this.openSet.add(neighbor, tentativeScore + getHeuristic(neighbor, rect));
+            }
+        }
+    }
+
+    // renders (or takes from the cache) and delivers the tile if all its pixels are known
+    private boolean deliverIfComplete(int tile, Consumer<Tile> listener) {
+        Tile rendered = this.tileCache.get(tile);
+        if (rendered == null) {
+            if (this.unsettledPerTile[tile] > 0 && !this.openSet.isEmpty()) {
+                return false;
+            }
+            rendered = render(tile);
+            this.tileCache.put(tile, rendered);
+        }
+        this.delivered.set(tile);
+        listener.accept(rendered);
+        return true;
+    }
+
+    private Tile render(int tile) {
+        int fromX = (tile % this.tilesX) * this.tileSize;
+        int fromY = (tile / this.tilesX) * this.tileSize;
+        int tileWidth = Math.min(this.tileSize, this.width - fromX);
+        int tileHeight = Math.min(this.tileSize, this.height - fromY);
+        double[][] tileDistances = new double[tileWidth][tileHeight];
+        for (int x = 0; x < tileWidth; x++) {
+            for (int y = 0; y < tileHeight; y++) {
+                int id = GridIndex.pack(fromX + x, fromY + y, this.width);
+                // unsettled pixels of a complete tile are unreachable
+                tileDistances[x][y] = this.settled[id] ? this.distances[id] : Double.POSITIVE_INFINITY;
+            }
+        }
+        byte[] pixels = DistanceMapScaler.getMazeScaler().scaleTo8Bit(tileDistances, tileWidth, tileHeight, this.displayRange);
+        return new Tile(fromX, fromY, tileWidth, tileHeight, pixels);
+    }
+
+    /**
+     * @return the distance of the pixel, Double.NaN if it has not been settled yet (infinity if unreachable)
+     */
+    public synchronized double getDistance(int x, int y) {
+        int id = GridIndex.pack(x, y, this.width);
+        if (this.settled[id]) {
+            return this.distances[id];
+        }
+        return this.openSet.isEmpty() || this.reachability[id] == UNREACHABLE
+                || this.pixelCosts[id] == Double.POSITIVE_INFINITY ? Double.POSITIVE_INFINITY : Double.NaN;
+    }
+
+    /**
+     * @return number of pixels settled so far (work done for all viewports)
+     */
+    public synchronized long getExpanded() {
+        return this.expanded;
+    }
+
+    public int getTileSize() {
+        return this.tileSize;
+    }
+
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values (linear probing, power of two capacity), no boxing. Used for
+ * sparse space-time keys (time * numPixels + id). Long.MIN_VALUE is reserved as the empty slot marker, there is no
+ * removal.
+ */
+public class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double MAX_LOAD = 0.5;
+
+    private final int missingValue;
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * @param initialCapacity expected number of entries
+     * @param missingValue    returned by get for keys that are not in the map
+     */
+    public LongIntHashMap(int initialCapacity, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = Integer.highestOneBit(Math.max((int) (initialCapacity / MAX_LOAD), 16) - 1) << 1;
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[capacity];
+    }
+
+    private static int getSlot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    public int get(long key) {
+        int mask = this.keys.length - 1;
+        for (int slot = getSlot(key, mask); ; slot = (slot + 1) & mask) {
+            if (this.keys[slot] == key) {
+                return this.values[slot];
+            }
+            if (this.keys[slot] == EMPTY) {
+                return this.missingValue;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        int mask = this.keys.length - 1;
+        for (int slot = getSlot(key, mask); ; slot = (slot + 1) & mask) {
+            if (this.keys[slot] == key) {
+                return true;
+            }
+            if (this.keys[slot] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new RuntimeException("key " + EMPTY + " is reserved");
+        }
+        if (this.size + 1 > this.keys.length * MAX_LOAD) {
+            rehash(this.keys.length * 2);
+        }
+        int mask = this.keys.length - 1;
+        int slot = getSlot(key, mask);
+        while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (this.keys[slot] == EMPTY) {
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] = value;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = getSlot(oldKeys[i], mask);
+                while (this.keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+}
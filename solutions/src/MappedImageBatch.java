@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Batch processing of 8-bit images on their memory mapped pixels (MappedImageIO), without ImagePlus/ImageProcessor
+ * and without converting them to int[][]: the operators read the mapped pixels of the input and write into the
+ * mapped pixels of the output file. Inputs whose pixels are not contiguous (tiled TIFF) are copied into one heap
+ * buffer first.
+ * <pre>
+ *     java MappedImageBatch invert   outDir image...
+ *     java MappedImageBatch equalize outDir image...
+ *     java MappedImageBatch clahe    outDir image...   (DEFAULT_TILES x DEFAULT_TILES tiles, DEFAULT_CLIP_LIMIT)
+ * </pre>
+ * The inputs are PGM or TIFF files, every result is written to outDir under the name of its input (same format).
+ */
+public class MappedImageBatch {
+
+    public enum Operator { INVERT, EQUALIZE, CLAHE }
+
+    /**
+     * @param operator the operator
+     * @param in       the input image
+     * @param outPath  the result file, the format is chosen by the file extension (see MappedImageIO.create)
+     */
+    public static void process(Operator operator, MappedImageIO.MappedImage in, Path outPath) throws IOException {
+        int width = in.getWidth();
+        int height = in.getHeight();
+        ByteBuffer inPixels = in.isContiguous() ? in.getPixels() : copyPixels(in);
+        MappedImageIO.MappedImage out = MappedImageIO.create(outPath, width, height);
+        ByteBuffer outPixels = out.getPixels();
+        switch (operator) {
+            case INVERT:
+                ImageTransformationFilter.transform(inPixels, outPixels, width, height,
+                        ImageTransformationFilter.getInversionTF(ContrastEnhancement.MAX_VALUE));
+                break;
+            case EQUALIZE:
+                ContrastEnhancement.equalize(inPixels, outPixels, width, height);
+                break;
+            default:
+                ContrastEnhancement.applyCLAHE(inPixels, outPixels, width, height,
+                        Math.min(ContrastEnhancement.DEFAULT_TILES, width),
+                        Math.min(ContrastEnhancement.DEFAULT_TILES, height), ContrastEnhancement.DEFAULT_CLIP_LIMIT);
+        }
+        out.flush();
+    }
+
+    // row major copy of an image whose blocks are not contiguous (tiled TIFF)
+    static ByteBuffer copyPixels(MappedImageIO.MappedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer pixels = ByteBuffer.allocate(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels.put(y * width + x, (byte) image.get(x, y));
+            }
+        }
+        return pixels;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: java MappedImageBatch invert|equalize|clahe outDir image...");
+            System.exit(2);
+        }
+        Operator operator = Operator.valueOf(args[0].toUpperCase());
+        Path outDir = Paths.get(args[1]);
+        Files.createDirectories(outDir);
+        for (int i = 2; i < args.length; i++) {
+            Path inPath = Paths.get(args[i]);
+            Path outPath = outDir.resolve(inPath.getFileName());
+            if (Files.exists(outPath) && Files.isSameFile(inPath, outPath)) {
+                throw new IOException("output would overwrite the input " + inPath);
+            }
+            long start = System.nanoTime();
+            process(operator, MappedImageIO.open(inPath), outPath);
+            System.out.printf("%s -> %s (%.0f ms)%n", inPath, outPath, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,428 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lightweight 8-bit grey value image I/O for batch processing without ImagePlus/ImageProcessor: the files are memory
+ * mapped and the pixels are exposed as ByteBuffer views, regions of interest only touch the pages they cover.
+ * Supported formats:
+ * - raw 8-bit (row major, width/height given by the caller, optional header offset)
+ * - binary PGM (P5, maxval &lt;= 255)
+ * - baseline TIFF (little/big endian, 8 bit, 1 sample per pixel, uncompressed, strips or tiles)
+ * Writers create the file in its final size and map it read/write, operators write directly into the mapped pixels
+ * (no intermediate byte[]). Files are limited to 2 GB (one mapping). MappedImageBatch runs the ByteBuffer operators
+ * (ImageTransformationFilter.transform, ContrastEnhancement) from file to file on the mapped pixels.
+ */
+public class MappedImageIO {
+
+    static final int TIFF_TAG_WIDTH = 256;
+    static final int TIFF_TAG_HEIGHT = 257;
+    static final int TIFF_TAG_BITS_PER_SAMPLE = 258;
+    static final int TIFF_TAG_COMPRESSION = 259;
+    static final int TIFF_TAG_PHOTOMETRIC = 262;
+    static final int TIFF_TAG_STRIP_OFFSETS = 273;
+    static final int TIFF_TAG_SAMPLES_PER_PIXEL = 277;
+    static final int TIFF_TAG_ROWS_PER_STRIP = 278;
+    static final int TIFF_TAG_STRIP_BYTE_COUNTS = 279;
+    static final int TIFF_TAG_TILE_WIDTH = 322;
+    static final int TIFF_TAG_TILE_LENGTH = 323;
+    static final int TIFF_TAG_TILE_OFFSETS = 324;
+    static final int TIFF_TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TIFF_TYPE_SHORT = 3;
+    static final int TIFF_TYPE_LONG = 4;
+
+    /**
+     * memory mapped 8-bit image, the pixels are stored in blocks (one block for raw/PGM, strips or tiles for TIFF)
+     */
+    public static class MappedImage {
+        final int width;
+        final int height;
+        final MappedByteBuffer buffer;
+        // block layout: blockWidth x blockHeight pixels per block, blocks in row major order
+        final int blockWidth;
+        final int blockHeight;
+        final long[] blockOffsets;
+
+        MappedImage(int width, int height, MappedByteBuffer buffer, int blockWidth, int blockHeight, long[] blockOffsets) {
+            this.width = width;
+            this.height = height;
+            this.buffer = buffer;
+            this.blockWidth = blockWidth;
+            this.blockHeight = blockHeight;
+            this.blockOffsets = blockOffsets;
+        }
+
+        public int getWidth() {
+            return this.width;
+        }
+
+        public int getHeight() {
+            return this.height;
+        }
+
+        // file offset of pixel (x, y)
+        long getOffset(int x, int y) {
+            int blocksPerRow = (this.width + this.blockWidth - 1) / this.blockWidth;
+            int block = (y / this.blockHeight) * blocksPerRow + x / this.blockWidth;
+            return this.blockOffsets[block] + (long) (y % this.blockHeight) * this.blockWidth + x % this.blockWidth;
+        }
+
+        /**
+         * @return the grey value of pixel (x, y) in [0;255]
+         */
+        public int get(int x, int y) {
+            return this.buffer.get((int) getOffset(x, y)) & 0xFF;
+        }
+
+        public void set(int x, int y, int value) {
+            this.buffer.put((int) getOffset(x, y), (byte) value);
+        }
+
+        /**
+         * @return true if all pixels are stored row major without gaps, see getPixels
+         */
+        public boolean isContiguous() {
+            if (this.blockWidth != this.width) {
+                return false;
+            }
+            for (int block = 1; block < this.blockOffsets.length; block++) {
+                if (this.blockOffsets[block] != this.blockOffsets[0] + (long) block * this.blockWidth * this.blockHeight) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return zero-copy view of all pixels (row major, index y * width + x), requires isContiguous()
+         */
+        public ByteBuffer getPixels() {
+            if (!isContiguous()) {
+                throw new RuntimeException("pixels are not contiguous (tiled or scattered strips), use getRow/readRegion");
+            }
+            return slice(this.blockOffsets[0], this.width * this.height);
+        }
+
+        /**
+         * @return zero-copy view of the pixels of row y, requires whole-row blocks (raw, PGM, stripped TIFF)
+         */
+        public ByteBuffer getRow(int y) {
+            if (this.blockWidth != this.width) {
+                throw new RuntimeException("rows of tiled images are not contiguous, use readRegion");
+            }
+            return slice(getOffset(0, y), this.width);
+        }
+
+        private ByteBuffer slice(long offset, int length) {
+            ByteBuffer view = this.buffer.duplicate();
+            view.position((int) offset).limit((int) offset + length);
+            return view.slice();
+        }
+
+        /**
+         * reads a region of interest, only the pages of the region are loaded
+         *
+         * @return the region as image array [regionWidth][regionHeight]
+         */
+        public int[][] readRegion(int xStart, int yStart, int regionWidth, int regionHeight) {
+            if (xStart < 0 || yStart < 0 || xStart + regionWidth > this.width || yStart + regionHeight > this.height) {
+                throw new RuntimeException("region outside of the image");
+            }
+            int[][] region = new int[regionWidth][regionHeight];
+            byte[] row = new byte[regionWidth];
+            for (int y = 0; y < regionHeight; y++) {
+                if (this.blockWidth == this.width) {
+                    // whole-row blocks: one bulk copy per row
+                    this.buffer.get((int) getOffset(xStart, yStart + y), row);
+                    for (int x = 0; x < regionWidth; x++) {
+                        region[x][y] = row[x] & 0xFF;
+                    }
+                } else {
+                    for (int x = 0; x < regionWidth; x++) {
+                        region[x][y] = get(xStart + x, yStart + y);
+                    }
+                }
+            } //for y
+            return region;
+        }
+
+        /**
+         * @return the whole image as image array [width][height]
+         */
+        public int[][] toIntArray() {
+            return readRegion(0, 0, this.width, this.height);
+        }
+
+        /**
+         * writes an image array into the mapped pixels at (xStart, yStart), values are clamped to [0;255]
+         */
+        public void writeRegion(int[][] region, int xStart, int yStart) {
+            int regionHeight = region.length > 0 ? region[0].length : 0;
+            for (int y = 0; y < regionHeight; y++) {
+                for (int x = 0; x < region.length; x++) { // file order
+                    set(xStart + x, yStart + y, Math.max(0, Math.min(255, region[x][y])));
+                }
+            }
+        }
+
+        /**
+         * writes the changes of a writable image back to the file
+         */
+        public void flush() {
+            this.buffer.force();
+        }
+    }
+
+    /**
+     * @param path   the file
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param offset size of a header to skip
+     * @return read-only mapped raw 8-bit image
+     */
+    public static MappedImage openRaw(Path path, int width, int height, long offset) throws IOException {
+        MappedByteBuffer buffer = map(path, FileChannel.MapMode.READ_ONLY, 0);
+        if (offset + (long) width * height > buffer.capacity()) {
+            throw new IOException("file too small for " + width + "x" + height + " pixels: " + path);
+        }
+        return new MappedImage(width, height, buffer, width, height, new long[]{offset});
+    }
+
+    /**
+     * @param path the .pgm, .tif/.tiff file (format detected from the file content)
+     * @return read-only mapped image
+     */
+    public static MappedImage open(Path path) throws IOException {
+        MappedByteBuffer buffer = map(path, FileChannel.MapMode.READ_ONLY, 0);
+        if (buffer.capacity() >= 2 && buffer.get(0) == 'P' && buffer.get(1) == '5') {
+            return openPGM(buffer, path);
+        }
+        if (buffer.capacity() >= 4 && ((buffer.get(0) == 'I' && buffer.get(1) == 'I') || (buffer.get(0) == 'M' && buffer.get(1) == 'M'))) {
+            return openTIFF(buffer, path);
+        }
+        throw new IOException("unsupported image format (raw files need openRaw): " + path);
+    }
+
+    private static MappedByteBuffer map(Path path, FileChannel.MapMode mode, long size) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            long mappedSize = mode == FileChannel.MapMode.READ_ONLY ? channel.size() : size;
+            if (mappedSize > Integer.MAX_VALUE) {
+                throw new IOException("file larger than 2 GB: " + path);
+            }
+            return channel.map(mode, 0, mappedSize); // the mapping stays valid after closing the channel
+        }
+    }
+
+    private static MappedImage openPGM(MappedByteBuffer buffer, Path path) throws IOException {
+        // header: P5 <whitespace/comments> width height maxval, then a single whitespace
+        int[] pos = {2};
+        int width = readPGMNumber(buffer, pos);
+        int height = readPGMNumber(buffer, pos);
+        int maxVal = readPGMNumber(buffer, pos);
+        if (maxVal > 255) {
+            throw new IOException("only 8-bit PGM files are supported: " + path);
+        }
+        long offset = pos[0] + 1L;
+        if (offset + (long) width * height > buffer.capacity()) {
+            throw new IOException("truncated PGM file: " + path);
+        }
+        return new MappedImage(width, height, buffer, width, height, new long[]{offset});
+    }
+
+    private static int readPGMNumber(ByteBuffer buffer, int[] pos) throws IOException {
+        while (pos[0] < buffer.capacity()) {
+            byte b = buffer.get(pos[0]);
+            if (b == '#') {
+                while (pos[0] < buffer.capacity() && buffer.get(pos[0]) != '\n') {
+                    pos[0]++;
+                }
+            } else if (Character.isWhitespace(b)) {
+                pos[0]++;
+            } else {
+                break;
+            }
+        }
+        int value = 0;
+        int digits = 0;
+        while (pos[0] < buffer.capacity() && Character.isDigit(buffer.get(pos[0]))) {
+            value = value * 10 + (buffer.get(pos[0]) - '0');
+            pos[0]++;
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IOException("invalid PGM header");
+        }
+        return value;
+    }
+
+    private static MappedImage openTIFF(MappedByteBuffer buffer, Path path) throws IOException {
+        ByteBuffer header = buffer.duplicate().order(buffer.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (header.getShort(2) != 42) {
+            throw new IOException("invalid TIFF header (BigTIFF is not supported): " + path);
+        }
+        int ifdOffset = header.getInt(4);
+        int numEntries = header.getShort(ifdOffset) & 0xFFFF;
+
+        int width = 0;
+        int height = 0;
+        int rowsPerStrip = Integer.MAX_VALUE;
+        int tileWidth = 0;
+        int tileLength = 0;
+        long[] offsets = null;
+        for (int i = 0; i < numEntries; i++) {
+            int entry = ifdOffset + 2 + 12 * i;
+            int tag = header.getShort(entry) & 0xFFFF;
+            switch (tag) {
+                case TIFF_TAG_WIDTH:
+                    width = (int) getTIFFValues(header, entry)[0];
+                    break;
+                case TIFF_TAG_HEIGHT:
+                    height = (int) getTIFFValues(header, entry)[0];
+                    break;
+                case TIFF_TAG_BITS_PER_SAMPLE:
+                    requireTIFFValue(header, entry, 8, "8 bits per sample", path);
+                    break;
+                case TIFF_TAG_SAMPLES_PER_PIXEL:
+                    requireTIFFValue(header, entry, 1, "grey value images", path);
+                    break;
+                case TIFF_TAG_COMPRESSION:
+                    requireTIFFValue(header, entry, 1, "uncompressed images", path);
+                    break;
+                case TIFF_TAG_PHOTOMETRIC:
+                    requireTIFFValue(header, entry, 1, "BlackIsZero images", path);
+                    break;
+                case TIFF_TAG_ROWS_PER_STRIP:
+                    rowsPerStrip = (int) getTIFFValues(header, entry)[0];
+                    break;
+                case TIFF_TAG_TILE_WIDTH:
+                    tileWidth = (int) getTIFFValues(header, entry)[0];
+                    break;
+                case TIFF_TAG_TILE_LENGTH:
+                    tileLength = (int) getTIFFValues(header, entry)[0];
+                    break;
+                case TIFF_TAG_STRIP_OFFSETS:
+                case TIFF_TAG_TILE_OFFSETS:
+                    offsets = getTIFFValues(header, entry);
+                    break;
+                default:
+                    // byte counts and other tags are implied by the layout
+            }
+        }
+        if (width <= 0 || height <= 0 || offsets == null) {
+            throw new IOException("incomplete TIFF directory: " + path);
+        }
+        if (tileWidth > 0) {
+            return new MappedImage(width, height, buffer, tileWidth, tileLength, offsets);
+        }
+        return new MappedImage(width, height, buffer, width, Math.min(rowsPerStrip, height), offsets);
+    }
+
+    // values of an IFD entry (SHORT or LONG), stored inline if they fit into 4 bytes
+    private static long[] getTIFFValues(ByteBuffer header, int entry) throws IOException {
+        int type = header.getShort(entry + 2) & 0xFFFF;
+        int count = header.getInt(entry + 4);
+        int size = type == TIFF_TYPE_SHORT ? 2 : type == TIFF_TYPE_LONG ? 4 : -1;
+        if (size < 0) {
+            throw new IOException("unsupported TIFF field type " + type);
+        }
+        int valueOffset = count * size <= 4 ? entry + 8 : header.getInt(entry + 8);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = size == 2 ? header.getShort(valueOffset + 2 * i) & 0xFFFF
+                    : header.getInt(valueOffset + 4 * i) & 0xFFFFFFFFL;
+        }
+        return values;
+    }
+
+    private static void requireTIFFValue(ByteBuffer header, int entry, long expected, String supported, Path path)
+            throws IOException {
+        if (getTIFFValues(header, entry)[0] != expected) {
+            throw new IOException("only " + supported + " are supported: " + path);
+        }
+    }
+
+    /**
+     * @return writable mapped raw 8-bit image (the file is created/truncated to width * height bytes)
+     */
+    public static MappedImage createRaw(Path path, int width, int height) throws IOException {
+        MappedByteBuffer buffer = map(path, FileChannel.MapMode.READ_WRITE, (long) width * height);
+        return new MappedImage(width, height, buffer, width, height, new long[]{0});
+    }
+
+    /**
+     * @return writable mapped binary PGM image, the header is written, the pixels are 0
+     */
+    public static MappedImage createPGM(Path path, int width, int height) throws IOException {
+        byte[] header = ("P5\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        MappedByteBuffer buffer = map(path, FileChannel.MapMode.READ_WRITE, header.length + (long) width * height);
+        buffer.put(0, header);
+        return new MappedImage(width, height, buffer, width, height, new long[]{header.length});
+    }
+
+    /**
+     * @return writable mapped uncompressed little endian TIFF (one strip), the pixels are 0
+     */
+    public static MappedImage createTIFF(Path path, int width, int height) throws IOException {
+        int numEntries = 8;
+        int ifdSize = 2 + 12 * numEntries + 4;
+        int pixelOffset = 8 + ifdSize;
+        MappedByteBuffer buffer = map(path, FileChannel.MapMode.READ_WRITE, pixelOffset + (long) width * height);
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        header.putShort((short) numEntries);
+        putTIFFEntry(header, TIFF_TAG_WIDTH, TIFF_TYPE_LONG, width);
+        putTIFFEntry(header, TIFF_TAG_HEIGHT, TIFF_TYPE_LONG, height);
+        putTIFFEntry(header, TIFF_TAG_BITS_PER_SAMPLE, TIFF_TYPE_SHORT, 8);
+        putTIFFEntry(header, TIFF_TAG_COMPRESSION, TIFF_TYPE_SHORT, 1);
+        putTIFFEntry(header, TIFF_TAG_PHOTOMETRIC, TIFF_TYPE_SHORT, 1);
+        putTIFFEntry(header, TIFF_TAG_STRIP_OFFSETS, TIFF_TYPE_LONG, pixelOffset);
+        putTIFFEntry(header, TIFF_TAG_ROWS_PER_STRIP, TIFF_TYPE_LONG, height);
+        putTIFFEntry(header, TIFF_TAG_STRIP_BYTE_COUNTS, TIFF_TYPE_LONG, width * height);
+        header.putInt(0); // no further IFD
+        return new MappedImage(width, height, buffer, width, height, new long[]{pixelOffset});
+    }
+
+    // entries must be written in ascending tag order
+    private static void putTIFFEntry(ByteBuffer header, int tag, int type, int value) {
+        header.putShort((short) tag).putShort((short) type).putInt(1);
+        if (type == TIFF_TYPE_SHORT) {
+            header.putShort((short) value).putShort((short) 0);
+        } else {
+            header.putInt(value);
+        }
+    }
+
+    /**
+     * writes an image array as PGM (convenience for results of the int[][] operators)
+     */
+    public static void writePGM(Path path, int[][] img, int width, int height) throws IOException {
+        MappedImage out = createPGM(path, width, height);
+        out.writeRegion(img, 0, 0);
+        out.flush();
+    }
+
+    /**
+     * @return writable mapped image, the format is chosen by the file extension: .pgm, .tif/.tiff or raw otherwise
+     */
+    public static MappedImage create(Path path, int width, int height) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+        if (name.endsWith(".pgm")) {
+            return createPGM(path, width, height);
+        }
+        if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            return createTIFF(path, width, height);
+        }
+        return createRaw(path, width, height);
+    }
+
+}
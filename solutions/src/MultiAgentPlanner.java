@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Collision free paths for many agents on one grid (prioritised planning with a space-time reservation table).
+ * Every time step an agent moves along one move of the CostModel or waits (wait cost: cheapest move). An agent is
+ * planned with space-time A* whose heuristic is the distance field of its goal (exact without other agents, e.g.
+ * DistanceMap_.getDistances, a lossy cached field may overestimate), and it must not
+ * - be on a cell another agent reserved for the same time step (vertex conflict)
+ * - swap cells with another agent within one time step (edge conflict)
+ * - enter the goal of an agent that has already arrived there, agents stay on their goal
+ * The reservations are kept in primitive hash maps keyed by time * numPixels + id.
+ *
+ * Agents are planned in rounds: all pending agents search in parallel against the reservations of the agents committed
+ * so far (read only), then their paths are committed in priority order (index order). A path that collides with a path
+ * committed earlier in the same round is planned again in the next round. The first pending agent always commits, so
+ * every round makes progress, and a search that fails against fewer reservations fails against more as well.
+ * Agents are processed in batches, only the goal fields of one batch are held in memory. By default a batch holds as
+ * many fields as fit into a fraction of the free heap (at least one).
+ */
+public class MultiAgentPlanner {
+
+    static final double FIELD_MEMORY_FRACTION = 0.5; // of the free heap for the goal fields of one batch
+    static final int DEFAULT_TIME_SLACK = 256;
+
+    // equal f = g + h (common with an exact heuristic) prefer the larger g, far below the differences of real path costs
+    static final double TIE_BREAK = 1e-9;
+
+    private static final int NONE = -1;
+
+    private final int width;
+    private final int height;
+    private final int numPixels;
+    private final CostModel model;
+    private final double[] pixelCosts;
+    private final double waitCost;
+    private final IntFunction<double[]> goalFields;
+    private int batchSize;
+    private int timeSlack = DEFAULT_TIME_SLACK;
+
+    /**
+     * result of a planning run
+     */
+    public static class Result {
+        public final IntArrayList[] paths; // packed id per time step (index = time), null if no path was found
+        public final double[] costs;       // moves and waits until the arrival, Double.POSITIVE_INFINITY if unplanned
+        public final int numPlanned;
+        public final int makespan;         // time step of the last arrival
+        public final long expanded;        // space-time states expanded by all searches
+        public final int rounds;
+
+        Result(IntArrayList[] paths, double[] costs, long expanded, int rounds) {
+            this.paths = paths;
+            this.costs = costs;
+            this.expanded = expanded;
+            this.rounds = rounds;
+            int planned = 0;
+            int lastArrival = 0;
+            for (IntArrayList path : paths) {
+                if (path != null) {
+                    planned++;
+                    lastArrival = Math.max(lastArrival, path.size() - 1);
+                }
+            }
+            this.numPlanned = planned;
+            this.makespan = lastArrival;
+        }
+
+        /**
+         * @param agent the agent index
+         * @param time  the time step
+         * @return position (packed id) of the agent at that time, the goal after the arrival, NONE if unplanned
+         */
+        public int getPosition(int agent, int time) {
+            IntArrayList path = this.paths[agent];
+            if (path == null) {
+                return NONE;
+            }
+            return path.get(Math.min(time, path.size() - 1));
+        }
+    }
+
+    /**
+     * @param width      the width of the image
+     * @param height     the height of the image
+     * @param model      moves and costs
+     * @param pixelCosts per pixel cost factors, see CostModel.getPixelCosts
+     * @param goalFields distance field (packed ids) to a goal (packed id) with the same model, called concurrently
+     */
+    public MultiAgentPlanner(int width, int height, CostModel model, double[] pixelCosts,
+                             IntFunction<double[]> goalFields) {
+        this.width = width;
+        this.height = height;
+        this.numPixels = width * height;
+        this.model = model;
+        this.pixelCosts = pixelCosts;
+        this.goalFields = goalFields;
+        this.batchSize = getMemoryBatchSize(this.numPixels);
+        double[] moveCostRange = model.getMoveCostRange(pixelCosts);
+        this.waitCost = moveCostRange[0] == Double.POSITIVE_INFINITY ? 1.0 : moveCostRange[0];
+    }
+
+    /**
+     * @param numPixels pixels of one goal field
+     * @return number of goal fields (8 bytes per pixel) that fit into FIELD_MEMORY_FRACTION of the free heap, min 1
+     */
+    static int getMemoryBatchSize(int numPixels) {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long fields = (long) (free * FIELD_MEMORY_FRACTION) / (8L * Math.max(1, numPixels));
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, fields));
+    }
+
+    /**
+     * @param batchSize agents planned together (goal fields in memory), overrides the memory based default
+     * @return this
+     */
+    public MultiAgentPlanner setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * @param timeSlack time steps an agent may spend waiting or detouring beyond the longest possible free path
+     * @return this
+     */
+    public MultiAgentPlanner setTimeSlack(int timeSlack) {
+        this.timeSlack = Math.max(0, timeSlack);
+        return this;
+    }
+
+    // reservations of the committed paths, only written between the parallel search phases
+    private class ReservationTable {
+        final LongIntHashMap vertices = new LongIntHashMap(1024, NONE); // time * numPixels + id -> agent
+        final LongIntHashMap edges = new LongIntHashMap(1024, NONE);    // time * numPixels + from -> to (time -> time + 1)
+        final int[] arrivals = new int[numPixels];                      // an agent stays on the cell from then on
+        final int[] lastReserved = new int[numPixels];                  // last time step with a vertex reservation
+
+        ReservationTable() {
+            Arrays.fill(this.arrivals, Integer.MAX_VALUE);
+            Arrays.fill(this.lastReserved, NONE);
+        }
+
+        long getKey(int id, int time) {
+            return (long) time * numPixels + id;
+        }
+
+        boolean isOccupied(int id, int time) {
+            return time >= this.arrivals[id] || this.vertices.containsKey(getKey(id, time));
+        }
+
+        // another agent moves from 'to' to 'from' between time and time + 1
+        boolean isSwap(int from, int to, int time) {
+            return from != to && this.edges.get(getKey(to, time)) == from;
+        }
+
+        // the agent can stay on its goal from time on
+        boolean canStay(int id, int time) {
+            return time > this.lastReserved[id] && this.arrivals[id] == Integer.MAX_VALUE;
+        }
+
+        boolean isFree(IntArrayList path) {
+            for (int time = 0; time < path.size(); time++) {
+                int id = path.get(time);
+                if (isOccupied(id, time) || (time > 0 && isSwap(path.get(time - 1), id, time - 1))) {
+                    return false;
+                }
+            }
+            return canStay(path.get(path.size() - 1), path.size() - 1);
+        }
+
+        void reserve(int agent, IntArrayList path) {
+            for (int time = 0; time < path.size(); time++) {
+                int id = path.get(time);
+                this.vertices.put(getKey(id, time), agent);
+                this.lastReserved[id] = Math.max(this.lastReserved[id], time);
+                if (time > 0) {
+                    this.edges.put(getKey(path.get(time - 1), time - 1), id);
+                }
+            }
+            this.arrivals[path.get(path.size() - 1)] = path.size() - 1;
+        }
+    }
+
+    // space-time states of one search in parallel primitive arrays, index = node
+    private static class Nodes {
+        int[] ids = new int[1024];
+        int[] times = new int[1024];
+        int[] parents = new int[1024];
+        double[] costs = new double[1024];
+        int size;
+
+        int add(int id, int time, int parent, double cost) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.times = Arrays.copyOf(this.times, this.size * 2);
+                this.parents = Arrays.copyOf(this.parents, this.size * 2);
+                this.costs = Arrays.copyOf(this.costs, this.size * 2);
+            }
+            this.ids[this.size] = id;
+            this.times[this.size] = time;
+            this.parents[this.size] = parent;
+            this.costs[this.size] = cost;
+            return this.size++;
+        }
+    }
+
+    // path of one agent and the number of expanded states
+    private static class Plan {
+        final IntArrayList path; // null if there is none
+        final double cost;
+        final long expanded;
+
+        Plan(IntArrayList path, double cost, long expanded) {
+            this.path = path;
+            this.cost = cost;
+            this.expanded = expanded;
+        }
+    }
+
+    /**
+     * @param starts start positions (packed ids), one per agent, the index is the priority (0 = highest)
+     * @param goals  goal positions (packed ids), one per agent
+     * @return the paths of the agents
+     */
+    public Result plan(int[] starts, int[] goals) {
+        if (starts.length != goals.length) {
+            throw new RuntimeException("one goal per agent required");
+        }
+        OperatorMetrics.Run metrics = OperatorMetrics.start("MultiAgentPlanner.plan");
+        ReservationTable table = new ReservationTable();
+        IntArrayList[] paths = new IntArrayList[starts.length];
+        double[] costs = new double[starts.length];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        long expanded = 0;
+        int rounds = 0;
+
+        for (int batchStart = 0; batchStart < starts.length; batchStart += this.batchSize) {
+            int batchEnd = Math.min(starts.length, batchStart + this.batchSize);
+            // one field per distinct goal of the batch
+            Map<Integer, double[]> fields = Arrays.stream(goals, batchStart, batchEnd).distinct().boxed()
+                    .parallel().collect(Collectors.toMap(goal -> goal, this.goalFields::apply));
+
+            List<Integer> pending = new ArrayList<>();
+            for (int agent = batchStart; agent < batchEnd; agent++) {
+                pending.add(agent);
+            }
+            while (!pending.isEmpty()) {
+                rounds++;
+                List<Plan> plans = pending.parallelStream()
+                        .map(agent -> search(table, starts[agent], goals[agent], fields.get(goals[agent])))
+                        .collect(Collectors.toList());
+                List<Integer> retry = new ArrayList<>();
+                for (int i = 0; i < pending.size(); i++) {
+                    int agent = pending.get(i);
+                    Plan plan = plans.get(i);
+                    expanded += plan.expanded;
+                    if (plan.path == null) {
+                        continue; // no path with fewer reservations, none with more
+                    }
+                    if (table.isFree(plan.path)) {
+                        table.reserve(agent, plan.path);
+                        paths[agent] = plan.path;
+                        costs[agent] = plan.cost;
+                    } else {
+                        retry.add(agent);
+                    }
+                }
+                pending = retry;
+            }
+        }
+
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded).finish();
+        return new Result(paths, costs, expanded, rounds);
+    }
+
+    // space-time A* of one agent against the reservations
+    private Plan search(ReservationTable table, int startId, int goalId, double[] goalField) {
+        double startHeuristic = goalField[startId];
+        if (startHeuristic == Double.POSITIVE_INFINITY || table.isOccupied(startId, 0)
+                || table.arrivals[goalId] != Integer.MAX_VALUE) {
+            return new Plan(null, Double.POSITIVE_INFINITY, 0);
+        }
+        int earliestArrival = table.lastReserved[goalId] + 1;
+        // no free path has more steps than cost / cheapest move
+        int maxTime = (int) Math.min(Integer.MAX_VALUE / 2,
+                Math.max(earliestArrival, Math.ceil(startHeuristic / this.waitCost)) + this.timeSlack);
+
+        Nodes nodes = new Nodes();
+        LongIntHashMap bestNodes = new LongIntHashMap(1024, NONE); // time * numPixels + id -> node
+        IndexMinHeap openSet = new IndexMinHeap(1024);
+        int startNode = nodes.add(startId, 0, NONE, 0.0);
+        bestNodes.put(table.getKey(startId, 0), startNode);
+        openSet.add(startNode, Math.max(startHeuristic, earliestArrival * this.waitCost));
+        long expanded = 0;
+
+        while (!openSet.isEmpty()) {
+            int node = openSet.poll();
+            int id = nodes.ids[node];
+            int time = nodes.times[node];
+            if (bestNodes.get(table.getKey(id, time)) != node) {
+                continue; // stale queue entry
+            }
+            expanded++;
+            if (id == goalId && table.canStay(id, time)) {
+                int[] ids = new int[time + 1];
+                for (int step = node; step != NONE; step = nodes.parents[step]) {
+                    ids[nodes.times[step]] = nodes.ids[step];
+                }
+                IntArrayList path = new IntArrayList(ids.length);
+                for (int pathId : ids) {
+                    path.add(pathId);
+                }
+                return new Plan(path, nodes.costs[node], expanded);
+            }
+            if (time >= maxTime) {
+                continue;
+            }
+            int x = GridIndex.getX(id, this.width);
+            int y = GridIndex.getY(id, this.width);
+            // dir == getNumDirections(): wait
+            for (int dir = 0; dir <= this.model.getNumDirections(); dir++) {
+                boolean isWait = dir == this.model.getNumDirections();
+                double moveCost = isWait ? this.waitCost
+                        : this.model.getMoveCost(this.pixelCosts, this.width, this.height, x, y, dir);
+                if (moveCost == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                int neighborX = isWait ? x : x + this.model.dx[dir];
+                int neighborY = isWait ? y : y + this.model.dy[dir];
+                int neighbor = GridIndex.pack(neighborX, neighborY, this.width);
+                double heuristic = goalField[neighbor];
+                if (heuristic == Double.POSITIVE_INFINITY || table.isOccupied(neighbor, time + 1)
+                        || table.isSwap(id, neighbor, time)) {
+                    continue;
+                }
+                // the goal is free from earliestArrival on, every remaining time step costs at least waitCost
+                heuristic = Math.max(heuristic, (earliestArrival - time - 1) * this.waitCost);
+                double tentativeCost = nodes.costs[node] + moveCost;
+                long key = table.getKey(neighbor, time + 1);
+                int known = bestNodes.get(key);
+                if (known != NONE && nodes.costs[known] <= tentativeCost) {
+                    continue;
+                }
+                int next = nodes.add(neighbor, time + 1, node, tentativeCost);
+                bestNodes.put(key, next);
+                openSet.add(next, tentativeCost + heuristic - TIE_BREAK * tentativeCost);
+            }
+        }
+        return new Plan(null, Double.POSITIVE_INFINITY, expanded);
+    }
+
+}
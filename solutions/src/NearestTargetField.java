@@ -0,0 +1,73 @@
+/**
+ * Distance to the nearest of several targets together with the index of that target per pixel (geodesic Voronoi
+ * partition), calculated in one multi-source pass (DistanceMap_.getNearestTargetField). Nearest-target queries are
+ * then a lookup, the path follows by descending the distance map.
+ */
+public class NearestTargetField {
+
+    public static final int UNREACHABLE = -1;
+    static final double GOLDEN_RATIO_CONJUGATE = 0.618033988749895;
+
+    private final IntArrayList targets;
+    private final double[][] distanceMap;
+    private final int[][] labels;
+
+    /**
+     * @param targets     packed ids (y * width + x) of the targets
+     * @param distanceMap distance to the nearest target [width][height]
+     * @param labels      index (in targets) of the nearest target [width][height], UNREACHABLE if there is none
+     */
+    NearestTargetField(IntArrayList targets, double[][] distanceMap, int[][] labels) {
+        this.targets = targets;
+        this.distanceMap = distanceMap;
+        this.labels = labels;
+    }
+
+    public double[][] getDistanceMap() {
+        return this.distanceMap;
+    }
+
+    public int[][] getLabels() {
+        return this.labels;
+    }
+
+    public int getNumTargets() {
+        return this.targets.size();
+    }
+
+    /**
+     * @return index (in the targets) of the nearest target or UNREACHABLE
+     */
+    public int getNearestTargetIndex(int x, int y) {
+        return this.labels[x][y];
+    }
+
+    /**
+     * @return packed id of the nearest target or UNREACHABLE
+     */
+    public int getNearestTargetId(int x, int y) {
+        int label = this.labels[x][y];
+        return label == UNREACHABLE ? UNREACHABLE : this.targets.get(label);
+    }
+
+    public double getDistance(int x, int y) {
+        return this.distanceMap[x][y];
+    }
+
+    /**
+     * @return the Voronoi cells as grey values in [1;255] (targets spread over the range), 0 for unreachable pixels
+     */
+    public int[][] getPartitionImage() {
+        int[][] partitionImg = new int[this.labels.length][];
+        for (int x = 0; x < this.labels.length; x++) {
+            partitionImg[x] = new int[this.labels[x].length];
+            for (int y = 0; y < this.labels[x].length; y++) {
+                int label = this.labels[x][y];
+                // golden ratio steps: targets with consecutive indices get well separated grey values
+                partitionImg[x][y] = label == UNREACHABLE ? 0 : 1 + (int) (label * GOLDEN_RATIO_CONJUGATE % 1.0 * 254.0);
+            }
+        }
+        return partitionImg;
+    }
+
+}
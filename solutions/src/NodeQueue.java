@@ -0,0 +1,28 @@
+/**
+ * Priority queue over primitive node ids (e.g. packed pixel or voxel indices) used by the grid distance map engines.
+ * Implementations may hold stale entries for a node, callers skip nodes that were already settled when polled.
+ */
+public interface NodeQueue {
+
+    /**
+     * @param id  the node id
+     * @param key the priority of the node (smaller keys are polled first)
+     */
+    void add(int id, double key);
+
+    /**
+     * @return the id of a node with the smallest key
+     */
+    int poll();
+
+    /**
+     * @return true if no more entries are queued
+     */
+    boolean isEmpty();
+
+    /**
+     * @return the number of queued entries (including stale ones)
+     */
+    int size();
+
+}
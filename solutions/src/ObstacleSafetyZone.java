@@ -0,0 +1,155 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Safety zone around obstacles as a bounded-radius dilation: all pixels closer than the safety distance to an obstacle
+ * pixel (geodesic, 8-neighbourhood with the corner rule, step lengths of the metric). Only the obstacle pixels at the
+ * boundary of an obstacle are seeds (inner pixels are part of the zone anyway), and the propagation stops at the
+ * safety distance instead of calculating a distance map over the whole image per obstacle pixel.
+ * The image is split into tiles which are processed in parallel. Every tile runs its own search in the tile plus a halo
+ * of ceil(safetyDistance) pixels (a path shorter than the safety distance cannot leave that window, every step is at
+ * least one Chebyshev step long), so the tiles are independent and the result does not depend on the scheduling.
+ */
+public class ObstacleSafetyZone {
+
+    static final int DEFAULT_TILE_SIZE = 128;
+
+    final int width;
+    final int height;
+    final int tileSize;
+    final CostModel moves;
+
+    /**
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param mode     Euclidean, Chebyshev or Manhattan
+     * @param tileSize edge length of the tiles processed in parallel
+     */
+    public ObstacleSafetyZone(int width, int height, String mode, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.moves = new CostModel(mode, CostModel.CONNECTIVITY_8);
+    }
+
+    public ObstacleSafetyZone(int width, int height, String mode) {
+        this(width, height, mode, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param flatImage      the image (y * width + x)
+     * @param blocked        blocked grey values (blocked[greyValue]), the obstacle value itself must not be blocked
+     * @param obstacleValue  grey value of the obstacle pixels
+     * @param safetyDistance pixels with a distance &lt; safetyDistance to an obstacle belong to the zone
+     * @return the zone (obstacle pixels included) as bitmap of packed ids
+     */
+    public BitSet getSafetyZone(int[] flatImage, boolean[] blocked, int obstacleValue, double safetyDistance) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("ObstacleSafetyZone.getSafetyZone");
+        double[] pixelCosts = new double[this.width * this.height];
+        for (int id = 0; id < pixelCosts.length; id++) {
+            pixelCosts[id] = blocked[flatImage[id]] ? Double.POSITIVE_INFINITY : 1.0;
+        }
+        int halo = (int) Math.ceil(safetyDistance);
+        int tilesX = (this.width + this.tileSize - 1) / this.tileSize;
+        int tilesY = (this.height + this.tileSize - 1) / this.tileSize;
+
+        List<IntArrayList> tileZones = IntStream.range(0, tilesX * tilesY).parallel()
+                .mapToObj(tile -> getTileZone(flatImage, pixelCosts, obstacleValue, safetyDistance, halo,
+                        (tile % tilesX) * this.tileSize, (tile / tilesX) * this.tileSize))
+                .collect(Collectors.toList());
+
+        BitSet zone = new BitSet(this.width * this.height);
+        for (IntArrayList tileZone : tileZones) {
+            for (int i = 0; i < tileZone.size(); i++) {
+                zone.set(tileZone.get(i));
+            }
+        }
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) this.width * this.height).finish();
+        return zone;
+    }
+
+    private boolean isBoundaryObstacle(int[] flatImage, int obstacleValue, int x, int y) {
+        for (int dir = 0; dir < this.moves.getNumDirections(); dir++) {
+            int neighborX = x + this.moves.dx[dir];
+            int neighborY = y + this.moves.dy[dir];
+            if (neighborX >= 0 && neighborY >= 0 && neighborX < this.width && neighborY < this.height
+                    && flatImage[GridIndex.pack(neighborX, neighborY, this.width)] != obstacleValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // multi-source Dijkstra from the boundary obstacle pixels of the window, cut off at the safety distance, returns
+    // the zone pixels inside the tile
+    private IntArrayList getTileZone(int[] flatImage, double[] pixelCosts, int obstacleValue, double safetyDistance,
+                                     int halo, int tileX, int tileY) {
+        int tileWidth = Math.min(this.tileSize, this.width - tileX);
+        int tileHeight = Math.min(this.tileSize, this.height - tileY);
+        int windowX = Math.max(0, tileX - halo);
+        int windowY = Math.max(0, tileY - halo);
+        int windowWidth = Math.min(this.width, tileX + tileWidth + halo) - windowX;
+        int windowHeight = Math.min(this.height, tileY + tileHeight + halo) - windowY;
+
+        // window local ids (y * windowWidth + x)
+        double[] distances = new double[windowWidth * windowHeight];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[distances.length];
+        IndexMinHeap openSet = new IndexMinHeap(256);
+        IntArrayList tileZone = new IntArrayList();
+        for (int y = 0; y < windowHeight; y++) {
+            for (int x = 0; x < windowWidth; x++) {
+                int id = GridIndex.pack(windowX + x, windowY + y, this.width);
+                if (flatImage[id] != obstacleValue) {
+                    continue;
+                }
+                int localId = GridIndex.pack(x, y, windowWidth);
+                distances[localId] = 0.0;
+                if (isBoundaryObstacle(flatImage, obstacleValue, windowX + x, windowY + y)) {
+                    openSet.add(localId, 0.0);
+                } else {
+                    settled[localId] = true; // inner obstacle pixel, every path out passes a boundary pixel
+                }
+            }
+        }
+
+        while (!openSet.isEmpty()) {
+            int current = openSet.poll();
+            if (settled[current]) {
+                continue; // stale queue entry
+            }
+            settled[current] = true;
+            int localX = GridIndex.getX(current, windowWidth);
+            int localY = GridIndex.getY(current, windowWidth);
+            for (int dir = 0; dir < this.moves.getNumDirections(); dir++) {
+                int neighborX = localX + this.moves.dx[dir];
+                int neighborY = localY + this.moves.dy[dir];
+                if (neighborX < 0 || neighborY < 0 || neighborX >= windowWidth || neighborY >= windowHeight) {
+                    continue;
+                }
+                double moveCost = this.moves.getMoveCost(pixelCosts, this.width, this.height, windowX + localX,
+                        windowY + localY, dir);
+                int neighbor = GridIndex.pack(neighborX, neighborY, windowWidth);
+                double tentativeScore = distances[current] + moveCost;
+                // cut-off: distances >= safetyDistance are not needed
+                if (tentativeScore < safetyDistance && !settled[neighbor] && tentativeScore < distances[neighbor]) {
+                    distances[neighbor] = tentativeScore;
+                    openSet.add(neighbor, tentativeScore);
+                }
+            }
+        }
+
+        for (int y = tileY - windowY; y < tileY - windowY + tileHeight; y++) {
+            for (int x = tileX - windowX; x < tileX - windowX + tileWidth; x++) {
+                if (distances[GridIndex.pack(x, y, windowWidth)] < safetyDistance) {
+                    tileZone.add(GridIndex.pack(windowX + x, windowY + y, this.width));
+                }
+            }
+        }
+        return tileZone;
+    }
+
+}
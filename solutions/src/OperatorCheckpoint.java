@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Periodic snapshots of the state of a long-running operator, so a restarted job resumes from the last snapshot
+ * instead of starting over (partial distance fields, best registration parameters, region labels, ...). The operator
+ * restores the snapshot at its start, saves one whenever isDue() (and when it is stopped early) and deletes it when
+ * it has finished.
+ * Snapshots are files in the checkpoint directory (system property compgraphics.checkpoint.dir, default
+ * ./checkpoints) named after a key over the operator, its parameters and its input, so a snapshot is only resumed for
+ * the same job. They are encoded into a heap buffer, written into a temporary file with FileChannel.write and moved
+ * into place, a crash while saving leaves the previous snapshot intact. No file stays mapped, so the snapshot can be
+ * replaced and deleted on every platform (Windows refuses that for mapped files), and a failed save removes its
+ * temporary file.
+ *
+ * File format (little endian, version 1):
+ * <pre>
+ *     int    magic "CKP1"
+ *     short  version
+ *     short  number of sections
+ *     byte[32] key (SHA-256)
+ *     per section: short name length, byte[] name (UTF-8), byte type (0 = long, 1 = int[], 2 = double[]),
+ *                  int number of values, values
+ * </pre>
+ */
+public class OperatorCheckpoint {
+
+    static final String DIR_PROPERTY = "compgraphics.checkpoint.dir";
+    static final String DEFAULT_DIR = "./checkpoints";
+    public static final long DEFAULT_INTERVAL_MILLIS = 30000;
+
+    static final int MAGIC = 0x31504B43; // "CKP1"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 2 + 32;
+    static final byte TYPE_LONG = 0;
+    static final byte TYPE_INTS = 1;
+    static final byte TYPE_DOUBLES = 2;
+
+    private final String key;
+    private final long intervalNanos;
+    private long lastSaveNanos = System.nanoTime();
+
+    /**
+     * named values of one snapshot (long, int[] or double[])
+     */
+    public static class Snapshot {
+        final Map<String, Object> sections = new LinkedHashMap<>();
+
+        public Snapshot putLong(String name, long value) {
+            this.sections.put(name, value);
+            return this;
+        }
+
+        public Snapshot putInts(String name, int[] values) {
+            this.sections.put(name, values);
+            return this;
+        }
+
+        public Snapshot putDoubles(String name, double[] values) {
+            this.sections.put(name, values);
+            return this;
+        }
+
+        public long getLong(String name) {
+            return (Long) get(name, Long.class);
+        }
+
+        public int[] getInts(String name) {
+            return (int[]) get(name, int[].class);
+        }
+
+        public double[] getDoubles(String name) {
+            return (double[]) get(name, double[].class);
+        }
+
+        private Object get(String name, Class<?> type) {
+            Object value = this.sections.get(name);
+            if (!type.isInstance(value)) {
+                throw new RuntimeException("snapshot has no " + type.getSimpleName() + " section " + name);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @param key            identifies the job, see getKey
+     * @param intervalMillis minimum time between two snapshots
+     */
+    public OperatorCheckpoint(String key, long intervalMillis) {
+        this.key = key;
+        this.intervalNanos = intervalMillis * 1000000L;
+    }
+
+    /**
+     * @param description operator and all parameters that influence the result (e.g. "obstacleMap/Euclidean/180")
+     * @param width       the width of the images
+     * @param height      the height of the images
+     * @param images      the input images [width][height]
+     * @return hex encoded SHA-256 key
+     */
+    public static String getKey(String description, int width, int height, int[][]... images) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(description.getBytes(StandardCharsets.UTF_8));
+        digest.update(ByteBuffer.allocate(8).putInt(width).putInt(height).array());
+        byte[] row = new byte[width];
+        for (int[][] image : images) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) image[x][y];
+                }
+                digest.update(row);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    File getFile() {
+        return new File(System.getProperty(DIR_PROPERTY, DEFAULT_DIR), this.key + ".ckp");
+    }
+
+    /**
+     * @return true if the last snapshot (or the start) is at least the interval ago
+     */
+    public boolean isDue() {
+        return System.nanoTime() - this.lastSaveNanos >= this.intervalNanos;
+    }
+
+    /**
+     * @return the last snapshot of this job, null if there is none (or it is corrupt)
+     */
+    public Snapshot restore() {
+        File file = getFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer in = ByteBuffer.allocate((int) size);
+            while (in.hasRemaining() && channel.read(in) >= 0) {
+                // read until the buffer is full or the file ends
+            }
+            in.flip();
+            return decode(in.order(ByteOrder.LITTLE_ENDIAN), this.key);
+        } catch (IOException | RuntimeException e) {
+            return null; // corrupt or outdated snapshot, start over
+        }
+    }
+
+    /**
+     * writes the snapshot, failures are reported but do not stop the operator
+     *
+     * @param snapshot the state to resume from
+     */
+    public void save(Snapshot snapshot) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("OperatorCheckpoint.save");
+        File file = getFile();
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        Path tmp = null;
+        try {
+            long size = getEncodedSize(snapshot);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("snapshot too large (" + size + " bytes)");
+            }
+            ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            encode(out, snapshot, this.key);
+            out.flip();
+
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, this.key, ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(false);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("OperatorCheckpoint: cannot write " + file + " (" + e.getMessage() + ")");
+        } finally {
+            // a failed encode, write or move must not leave the temporary file behind
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    System.err.println("OperatorCheckpoint: cannot delete " + tmp + " (" + e.getMessage() + ")");
+                }
+            }
+        }
+        this.lastSaveNanos = System.nanoTime();
+        metrics.finish();
+    }
+
+    /**
+     * removes the snapshot of the finished job
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(getFile().toPath());
+        } catch (IOException e) {
+            System.err.println("OperatorCheckpoint: cannot delete " + getFile() + " (" + e.getMessage() + ")");
+        }
+    }
+
+    static long getEncodedSize(Snapshot snapshot) {
+        long size = HEADER_SIZE;
+        for (Map.Entry<String, Object> section : snapshot.sections.entrySet()) {
+            size += 2 + section.getKey().getBytes(StandardCharsets.UTF_8).length + 1 + 4;
+            Object value = section.getValue();
+            size += value instanceof int[] ? 4L * ((int[]) value).length
+                    : value instanceof double[] ? 8L * ((double[]) value).length : 8;
+        }
+        return size;
+    }
+
+    static void encode(ByteBuffer out, Snapshot snapshot, String key) {
+        out.putInt(MAGIC).putShort(VERSION).putShort((short) snapshot.sections.size());
+        out.put(DistanceFieldCache.hexToBytes(key));
+        for (Map.Entry<String, Object> section : snapshot.sections.entrySet()) {
+            byte[] name = section.getKey().getBytes(StandardCharsets.UTF_8);
+            out.putShort((short) name.length).put(name);
+            Object value = section.getValue();
+            if (value instanceof int[]) {
+                int[] values = (int[]) value;
+                out.put(TYPE_INTS).putInt(values.length);
+                out.asIntBuffer().put(values);
+                out.position(out.position() + 4 * values.length);
+            } else if (value instanceof double[]) {
+                double[] values = (double[]) value;
+                out.put(TYPE_DOUBLES).putInt(values.length);
+                out.asDoubleBuffer().put(values);
+                out.position(out.position() + 8 * values.length);
+            } else {
+                out.put(TYPE_LONG).putInt(1).putLong((Long) value);
+            }
+        }
+    }
+
+    static Snapshot decode(ByteBuffer in, String key) {
+        if (in.getInt() != MAGIC || in.getShort() != VERSION) {
+            return null;
+        }
+        int numSections = in.getShort();
+        byte[] storedKey = new byte[32];
+        in.get(storedKey);
+        if (!java.util.Arrays.equals(storedKey, DistanceFieldCache.hexToBytes(key))) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < numSections; i++) {
+            byte[] name = new byte[in.getShort()];
+            in.get(name);
+            byte type = in.get();
+            int length = in.getInt();
+            String sectionName = new String(name, StandardCharsets.UTF_8);
+            if (type == TYPE_INTS) {
+                int[] values = new int[length];
+                in.asIntBuffer().get(values);
+                in.position(in.position() + 4 * length);
+                snapshot.putInts(sectionName, values);
+            } else if (type == TYPE_DOUBLES) {
+                double[] values = new double[length];
+                in.asDoubleBuffer().get(values);
+                in.position(in.position() + 8 * length);
+                snapshot.putDoubles(sectionName, values);
+            } else if (type == TYPE_LONG) {
+                snapshot.putLong(sectionName, in.getLong());
+            } else {
+                return null;
+            }
+        }
+        return snapshot;
+    }
+
+}
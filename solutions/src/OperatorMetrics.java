@@ -0,0 +1,357 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics for the image operators: run time, hot-path counters, allocated bytes and queue high-water marks.
+ * Every run is
+ * - accumulated per operator and exposed through JMX (compgraphics:type=Operator,name=&lt;operator&gt;),
+ * - committed as JFR event (compgraphics.OperatorRun),
+ * - optionally appended as one JSON line to a run summary file: only if the system property
+ *   compgraphics.metrics.file names the file (e.g. ./metrics/operator-runs.jsonl). The lines are queued and written by
+ *   a daemon thread (flushed at shutdown), so an operator call never waits for the file system.
+ *
+ * Usage: the operator counts in local variables and reports once at the end, so the inner loops stay untouched.
+ * <pre>
+ *     OperatorMetrics.Run metrics = OperatorMetrics.start("ConvolutionFilter.convolveDouble");
+ *     ...
+ *     metrics.add(OperatorMetrics.Counter.KERNEL_TAPS, taps);
+ *     metrics.finish();
+ * </pre>
+ */
+public class OperatorMetrics {
+
+    public enum Counter {
+        CELLS_EXPANDED("cellsExpanded"),
+        RELAXATIONS("relaxations"),
+        KERNEL_TAPS("kernelTaps"),
+        PIXELS_PROCESSED("pixelsProcessed");
+
+        final String jsonName;
+
+        Counter(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    static final String SUMMARY_FILE_PROPERTY = "compgraphics.metrics.file";
+    static final String SUMMARY_FILE_NONE = "none";
+
+    private static final Map<String, OperatorStats> STATS = new ConcurrentHashMap<>();
+    private static final Object SUMMARY_LOCK = new Object();
+    // summary lines waiting for the writer thread
+    private static final BlockingQueue<String[]> SUMMARY_QUEUE = new LinkedBlockingQueue<>();
+    private static Thread summaryWriter;
+
+    /**
+     * starts a run of the given operator on the calling thread
+     *
+     * @param operator the operator name, e.g. "DistanceMap_.getDistanceMap"
+     * @return the run to report counters to
+     */
+    public static Run start(String operator) {
+        return new Run(operator);
+    }
+
+    /**
+     * @param operator the operator name
+     * @return the accumulated metrics of the operator (registered with JMX on first use)
+     */
+    public static OperatorStats getStats(String operator) {
+        return STATS.computeIfAbsent(operator, OperatorMetrics::registerStats);
+    }
+
+    private static OperatorStats registerStats(String operator) {
+        OperatorStats stats = new OperatorStats();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(stats, new ObjectName("compgraphics:type=Operator,name=" + ObjectName.quote(operator)));
+        } catch (InstanceAlreadyExistsException e) {
+            // another class loader (e.g. a reloaded plugin) registered the operator first
+        } catch (Exception e) {
+            throw new RuntimeException("could not register metrics of " + operator, e);
+        }
+        return stats;
+    }
+
+    // bytes allocated by the calling thread so far, -1 if the JVM does not support it
+    static long getAllocatedBytesOfCurrentThread() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (sunThreadBean.isThreadAllocatedMemorySupported() && sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    static void writeSummary(Run run, long durationNanos, long allocatedBytes) {
+        String fileName = System.getProperty(SUMMARY_FILE_PROPERTY);
+        if (fileName == null || fileName.isEmpty() || fileName.equals(SUMMARY_FILE_NONE)) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append("{\"operator\":\"").append(run.operator.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        line.append(",\"start\":\"").append(run.startTime).append('"');
+        line.append(",\"durationNanos\":").append(durationNanos);
+        for (Counter counter : Counter.values()) {
+            line.append(",\"").append(counter.jsonName).append("\":").append(run.counts[counter.ordinal()]);
+        }
+        line.append(",\"allocatedBytes\":").append(allocatedBytes);
+        line.append(",\"queueHighWaterMark\":").append(run.queueHighWaterMark);
+        line.append(",\"threads\":").append(Runtime.getRuntime().availableProcessors());
+        line.append("}\n");
+
+        SUMMARY_QUEUE.add(new String[]{fileName, line.toString()});
+        startSummaryWriter();
+    }
+
+    private static void startSummaryWriter() {
+        synchronized (SUMMARY_LOCK) {
+            if (summaryWriter != null) {
+                return;
+            }
+            summaryWriter = new Thread(() -> {
+                try {
+                    while (true) {
+                        String[] first = SUMMARY_QUEUE.take();
+                        List<String[]> lines = new ArrayList<>();
+                        lines.add(first);
+                        SUMMARY_QUEUE.drainTo(lines);
+                        appendSummaries(lines);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "OperatorMetrics summary writer");
+            summaryWriter.setDaemon(true);
+            summaryWriter.start();
+            Thread writer = summaryWriter;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                // let the writer finish its batch first, so the lines stay in order
+                writer.interrupt();
+                try {
+                    writer.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                flushSummaries();
+            }));
+        }
+    }
+
+    /**
+     * writes the queued summary lines on the calling thread
+     */
+    public static void flushSummaries() {
+        List<String[]> lines = new ArrayList<>();
+        SUMMARY_QUEUE.drainTo(lines);
+        appendSummaries(lines);
+    }
+
+    // appends the lines (file name, line) in order, one open per consecutive run of the same file
+    private static void appendSummaries(List<String[]> lines) {
+        synchronized (SUMMARY_LOCK) {
+            int i = 0;
+            while (i < lines.size()) {
+                String fileName = lines.get(i)[0];
+                int end = i;
+                while (end < lines.size() && lines.get(end)[0].equals(fileName)) {
+                    end++;
+                }
+                File file = new File(fileName);
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent == null || parent.isDirectory() || parent.mkdirs()) {
+                    try (Writer writer = new FileWriter(file, true)) {
+                        for (int j = i; j < end; j++) {
+                            writer.write(lines.get(j)[1]);
+                        }
+                    } catch (IOException e) {
+                        // metrics must never break an operator
+                    }
+                }
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * one invocation of an operator, not thread safe (report from the thread that started the run)
+     */
+    public static class Run {
+
+        final String operator;
+        final Instant startTime;
+        final long startNanos;
+        final long startAllocatedBytes;
+        final long[] counts = new long[Counter.values().length];
+        final OperatorRunEvent event = new OperatorRunEvent();
+        long queueHighWaterMark;
+        private boolean finished;
+
+        Run(String operator) {
+            this.operator = operator;
+            this.startTime = Instant.now();
+            this.startAllocatedBytes = getAllocatedBytesOfCurrentThread();
+            this.event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        public Run add(Counter counter, long amount) {
+            this.counts[counter.ordinal()] += amount;
+            return this;
+        }
+
+        public Run recordQueueSize(long queueSize) {
+            if (queueSize > this.queueHighWaterMark) {
+                this.queueHighWaterMark = queueSize;
+            }
+            return this;
+        }
+
+        /**
+         * ends the run and publishes it (JMX, JFR, run summary file if enabled)
+         *
+         * @return the run time in nanoseconds
+         */
+        public long finish() {
+            long durationNanos = System.nanoTime() - this.startNanos;
+            if (this.finished) {
+                throw new RuntimeException("run of " + this.operator + " already finished");
+            }
+            this.finished = true;
+
+            long allocatedBytes = this.startAllocatedBytes < 0 ? -1 :
+                    getAllocatedBytesOfCurrentThread() - this.startAllocatedBytes;
+            getStats(this.operator).record(this, durationNanos, allocatedBytes);
+
+            this.event.end();
+            if (this.event.shouldCommit()) {
+                this.event.operator = this.operator;
+                this.event.cellsExpanded = this.counts[Counter.CELLS_EXPANDED.ordinal()];
+                this.event.relaxations = this.counts[Counter.RELAXATIONS.ordinal()];
+                this.event.kernelTaps = this.counts[Counter.KERNEL_TAPS.ordinal()];
+                this.event.pixelsProcessed = this.counts[Counter.PIXELS_PROCESSED.ordinal()];
+                this.event.allocatedBytes = allocatedBytes;
+                this.event.queueHighWaterMark = this.queueHighWaterMark;
+                this.event.commit();
+            }
+
+            writeSummary(this, durationNanos, allocatedBytes);
+            return durationNanos;
+        }
+
+        public long getCount(Counter counter) {
+            return this.counts[counter.ordinal()];
+        }
+    }
+
+    /**
+     * accumulated metrics of one operator over all runs
+     */
+    public static class OperatorStats implements OperatorStatsMXBean {
+
+        private final LongAdder runCount = new LongAdder();
+        private final LongAdder totalTimeNanos = new LongAdder();
+        private final AtomicLong lastTimeNanos = new AtomicLong();
+        private final AtomicLong maxTimeNanos = new AtomicLong();
+        private final LongAdder[] counts = new LongAdder[Counter.values().length];
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final AtomicLong queueHighWaterMark = new AtomicLong();
+
+        OperatorStats() {
+            for (int i = 0; i < this.counts.length; i++) {
+                this.counts[i] = new LongAdder();
+            }
+        }
+
+        void record(Run run, long durationNanos, long runAllocatedBytes) {
+            this.runCount.increment();
+            this.totalTimeNanos.add(durationNanos);
+            this.lastTimeNanos.set(durationNanos);
+            this.maxTimeNanos.accumulateAndGet(durationNanos, Math::max);
+            for (int i = 0; i < this.counts.length; i++) {
+                this.counts[i].add(run.counts[i]);
+            }
+            if (runAllocatedBytes > 0) {
+                this.allocatedBytes.add(runAllocatedBytes);
+            }
+            this.queueHighWaterMark.accumulateAndGet(run.queueHighWaterMark, Math::max);
+        }
+
+        public long getRunCount() {
+            return this.runCount.sum();
+        }
+
+        public long getTotalTimeNanos() {
+            return this.totalTimeNanos.sum();
+        }
+
+        public long getLastTimeNanos() {
+            return this.lastTimeNanos.get();
+        }
+
+        public long getMaxTimeNanos() {
+            return this.maxTimeNanos.get();
+        }
+
+        public long getCellsExpanded() {
+            return this.counts[Counter.CELLS_EXPANDED.ordinal()].sum();
+        }
+
+        public long getRelaxations() {
+            return this.counts[Counter.RELAXATIONS.ordinal()].sum();
+        }
+
+        public long getKernelTaps() {
+            return this.counts[Counter.KERNEL_TAPS.ordinal()].sum();
+        }
+
+        public long getPixelsProcessed() {
+            return this.counts[Counter.PIXELS_PROCESSED.ordinal()].sum();
+        }
+
+        public long getAllocatedBytes() {
+            return this.allocatedBytes.sum();
+        }
+
+        public long getQueueHighWaterMark() {
+            return this.queueHighWaterMark.get();
+        }
+
+        public void reset() {
+            this.runCount.reset();
+            this.totalTimeNanos.reset();
+            this.lastTimeNanos.set(0);
+            this.maxTimeNanos.set(0);
+            for (LongAdder count : this.counts) {
+                count.reset();
+            }
+            this.allocatedBytes.reset();
+            this.queueHighWaterMark.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "runs=%d totalMs=%.3f", getRunCount(), getTotalTimeNanos() / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Cooperative cancellation, deadline and throttled progress reporting for long-running operators.
+ * The operator calls checkpoint() in its inner loop and stops (returning its best partial result) as soon as it
+ * returns true. Only every CHECK_INTERVAL-th call reads the clock, so the check is cheap enough for hot loops.
+ * One instance may be shared by the workers of a parallel operator (and AsyncOperators): all state is volatile or
+ * atomic, the listener is called by at most one thread per report interval (not necessarily the same thread).
+ */
+public class OperatorProgress {
+
+    static final int CHECK_INTERVAL = 1024; // must be a power of two
+    static final long DEFAULT_MIN_REPORT_INTERVAL_MILLIS = 100;
+
+    private volatile boolean cancelled;
+    private volatile boolean stopped;
+    private volatile boolean hasDeadline;
+    private volatile long deadlineNanos;
+    private volatile DoubleConsumer listener;
+    private volatile long minReportIntervalNanos = DEFAULT_MIN_REPORT_INTERVAL_MILLIS * 1000000L;
+    private final AtomicLong lastReportNanos = new AtomicLong(System.nanoTime());
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * @param listener          receives the completed fraction in [0;1]
+     * @param minIntervalMillis the minimum time between two reports
+     * @return this
+     */
+    public OperatorProgress setListener(DoubleConsumer listener, long minIntervalMillis) {
+        this.listener = listener;
+        this.minReportIntervalNanos = minIntervalMillis * 1000000L;
+        this.lastReportNanos.set(System.nanoTime() - this.minReportIntervalNanos); // the first check reports
+        return this;
+    }
+
+    /**
+     * @param timeoutMillis time from now after which the operator returns its best result so far
+     * @return this
+     */
+    public OperatorProgress setDeadline(long timeoutMillis) {
+        this.deadlineNanos = System.nanoTime() + timeoutMillis * 1000000L;
+        this.hasDeadline = true;
+        return this;
+    }
+
+    /**
+     * requests the operator to stop at its next checkpoint
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return true if the operator stopped early (cancellation or deadline), i.e. its result is partial
+     */
+    public boolean wasStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * called by the operator in its inner loop
+     *
+     * @param done  the work done so far
+     * @param total the total work
+     * @return true if the operator has to stop now
+     */
+    public boolean checkpoint(long done, long total) {
+        if (this.stopped) {
+            return true;
+        }
+        if ((this.calls.incrementAndGet() & (CHECK_INTERVAL - 1)) != 0 && !this.cancelled) {
+            return false;
+        }
+        return check(done, total);
+    }
+
+    /**
+     * like checkpoint, but always checks the clock (for coarse-grained loops, e.g. one call per distance map)
+     */
+    public boolean checkpointNow(long done, long total) {
+        return this.stopped || check(done, total);
+    }
+
+    private boolean check(long done, long total) {
+        long now = System.nanoTime();
+        // nanoTime may be negative, so a deadline is only compared if one was set (no Long.MAX_VALUE sentinel)
+        if (this.cancelled || (this.hasDeadline && now - this.deadlineNanos >= 0)) {
+            this.stopped = true;
+            return true;
+        }
+        DoubleConsumer currentListener = this.listener;
+        long lastReport = this.lastReportNanos.get();
+        if (currentListener != null && now - lastReport >= this.minReportIntervalNanos
+                && this.lastReportNanos.compareAndSet(lastReport, now)) {
+            currentListener.accept(total > 0 ? Math.min(1.0, (double) done / total) : 0.0);
+        }
+        return false;
+    }
+
+}
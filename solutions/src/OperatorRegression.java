@@ -0,0 +1,447 @@
+import java.awt.Point;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Regression and performance harness for the operators.
+ * The corpus (smooth and blob images, mazes) is generated from fixed seeds, so only the reference outputs have to be
+ * stored. Every regression case compares the output of an operator with the golden output of its reference
+ * implementation (e.g. FFT and separable convolution against the direct convolution, delta-stepping against Dijkstra)
+ * within an absolute / relative tolerance. Performance cases measure the throughput (pixels per second, median of
+ * several runs) on fixed-size inputs and fail if it drops more than the allowed slowdown below the stored baseline.
+ * The golden outputs are part of the repository (solutions/regression, the default dir when run from solutions), so
+ * check passes on a clean checkout. The performance baseline depends on the machine and is not committed, without it
+ * the performance cases are skipped.
+ * <pre>
+ *     java OperatorRegression record   [dir]   writes the golden outputs and the performance baseline
+ *     java OperatorRegression baseline [dir]   only writes the performance baseline of this machine
+ *     java OperatorRegression check    [dir]   compares against them, exit code 1 on failures
+ *     java OperatorRegression scaling          prints the speed-up of the parallel operators for 1, 2, 4 and N threads
+ * </pre>
+ * Golden file format (big endian): int magic "GLD1", int length, double[length] values.
+ */
+public class OperatorRegression {
+
+    static final String DIR_PROPERTY = "compgraphics.regression.dir";
+    static final String DEFAULT_DIR = "./regression";
+    static final String MAX_SLOWDOWN_PROPERTY = "compgraphics.regression.maxSlowdown";
+    static final double DEFAULT_MAX_SLOWDOWN = 0.25; // fail below 75% of the baseline throughput
+    static final String BASELINE_FILE = "performance-baseline.properties";
+
+    static final int MAGIC = 0x474c4431; // "GLD1"
+    static final int WARMUP_RUNS = 2;
+    static final int MEASURED_RUNS = 5;
+
+    static final int CORPUS_SIZE = 96;
+    static final int PERF_SIZE = 512;
+
+    static class Case {
+        final String name;
+        final String goldenName; // output of the reference implementation compared against
+        final double absTolerance;
+        final double relTolerance;
+        final Supplier<double[]> operator;
+
+        Case(String name, String goldenName, double absTolerance, double relTolerance, Supplier<double[]> operator) {
+            this.name = name;
+            this.goldenName = goldenName;
+            this.absTolerance = absTolerance;
+            this.relTolerance = relTolerance;
+            this.operator = operator;
+        }
+
+        boolean isReference() {
+            return this.name.equals(this.goldenName);
+        }
+    }
+
+    static class PerformanceCase {
+        final String name;
+        final long pixels;
+        final Runnable operator;
+
+        PerformanceCase(String name, long pixels, Runnable operator) {
+            this.name = name;
+            this.pixels = pixels;
+            this.operator = operator;
+        }
+    }
+
+    static double[] flatten(int[][] img) {
+        double[] values = new double[img.length * img[0].length];
+        int pos = 0;
+        for (int[] column : img) {
+            for (int value : column) {
+                values[pos++] = value;
+            }
+        }
+        return values;
+    }
+
+    static double[] flatten(double[][] img) {
+        double[] values = new double[img.length * img[0].length];
+        int pos = 0;
+        for (double[] column : img) {
+            System.arraycopy(column, 0, values, pos, column.length);
+            pos += column.length;
+        }
+        return values;
+    }
+
+    static double[] flatten(BitSet bits, int numPixels) {
+        double[] values = new double[numPixels];
+        for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+            values[id] = 1.0;
+        }
+        return values;
+    }
+
+    static double[][] toDouble(int[][] img) {
+        double[][] values = new double[img.length][];
+        for (int x = 0; x < img.length; x++) {
+            values[x] = Arrays.stream(img[x]).asDoubleStream().toArray();
+        }
+        return values;
+    }
+
+    // references first, every other case compares against a reference of this list
+    static List<Case> getCases() {
+        int size = CORPUS_SIZE;
+        int[][] smooth = SyntheticCorpus.getSmoothImage(size, size, 1);
+        int[][] blobs = SyntheticCorpus.getBlobImage(size, size, 2);
+        int[][] maze = SyntheticCorpus.getMaze(size, size, 0.2, 3);
+        double[][] smoothDouble = toDouble(smooth);
+        List<Case> cases = new ArrayList<>();
+
+        for (int radius : new int[]{1, 4, 13}) {
+            double[][] kernel = ConvolutionFilter.getMeanMask(radius);
+            String reference = "convolution.mean.r" + radius + ".DIRECT";
+            for (ConvolutionFilter.Strategy strategy : ConvolutionFilter.Strategy.values()) {
+                cases.add(new Case("convolution.mean.r" + radius + "." + strategy, reference, 1e-9, 1e-9,
+                        () -> flatten(ConvolutionFilter.convolveDoubleNorm(smoothDouble, size, size, kernel, radius, strategy))));
+            }
+        }
+        cases.add(new Case("transform.inversion", "transform.inversion", 0, 0, () -> flatten(
+                ImageTransformationFilter.getTransformedImage(smooth, size, size, ImageTransformationFilter.getInversionTF(255)))));
+        // no threshold case yet: getBinaryThresholdTF is still a stub, record it once it is implemented
+        byte[] smoothPixels = ImageJUtility.convertFrom2DIntArr(smooth, size, size);
+        cases.add(new Case("transform.equalization", "transform.equalization", 0, 0, () -> flatten(
+                ImageTransformationFilter.getTransformedImage(smooth, size, size, ImageTransformationFilter.getEqualizationTF(
+                        ImageTransformationFilter.getHistogram(smooth, size, size, 255), 255, Double.POSITIVE_INFINITY)))));
+        cases.add(new Case("contrast.equalize", "transform.equalization", 0, 0, () -> flatten(ImageJUtility
+                .convertFrom1DByteArr(ContrastEnhancement.getEqualizedImage(smoothPixels, size, size), size, size))));
+        cases.add(new Case("contrast.clahe.1x1", "transform.equalization", 0, 0, () -> flatten(ImageJUtility
+                .convertFrom1DByteArr(ContrastEnhancement.getCLAHEImage(smoothPixels, size, size, 1, 1,
+                        Double.POSITIVE_INFINITY), size, size))));
+        cases.add(new Case("contrast.clahe.8x8", "contrast.clahe.8x8", 0, 0, () -> flatten(ImageJUtility
+                .convertFrom1DByteArr(ContrastEnhancement.getCLAHEImage(smoothPixels, size, size, 8, 8,
+                        ContrastEnhancement.DEFAULT_CLIP_LIMIT), size, size))));
+        for (int radius : new int[]{1, 3, 10}) {
+            cases.add(new Case("rank.median.r" + radius, "rank.median.r" + radius, 0, 0,
+                    () -> flatten(RankFilter.getMedianImage(smooth, size, size, radius))));
+        }
+        cases.add(new Case("rank.min.r2", "rank.min.r2", 0, 0, () -> flatten(RankFilter.getMinImage(smooth, size, size, 2))));
+        cases.add(new Case("rank.max.r2", "rank.max.r2", 0, 0, () -> flatten(RankFilter.getMaxImage(smooth, size, size, 2))));
+
+        for (String mode : new String[]{"Euclidean", "Chebyshev", "Manhattan"}) {
+            cases.add(new Case("distance.queue." + mode, "distance.queue." + mode, 1e-9, 1e-12, () -> {
+                DistanceMap_ operator = SyntheticCorpus.getDistanceMapOperator(maze, size, size);
+                int targetId = operator.getInitialPositionIdsFromValue(DistanceMap_.TARGET_COLOR).get(0);
+                return flatten(operator.getDistanceMap(targetId, DistanceMap_.TARGET_COLOR, mode, false, new OperatorProgress()));
+            }));
+            String reference = "distance.dijkstra8." + mode;
+            cases.add(new Case(reference, reference, 1e-9, 1e-12, () -> flatten(
+                    SyntheticCorpus.getDistanceMapOperator(maze, size, size).getDistanceMap(DistanceMap_.TARGET_COLOR,
+                            new CostModel(mode, 8), false, new OperatorProgress()))));
+            cases.add(new Case("distance.deltaStepping8." + mode, reference, 1e-9, 1e-12, () -> flatten(
+                    SyntheticCorpus.getDistanceMapOperator(maze, size, size)
+                            .getDistanceMapParallel(DistanceMap_.TARGET_COLOR, new CostModel(mode, 8), false,
+                                    new OperatorProgress()))));
+            cases.add(new Case("distance.obstacleZone." + mode, "distance.obstacleZone." + mode, 0, 0, () -> {
+                DistanceMap_ operator = SyntheticCorpus.getDistanceMapOperator(maze, size, size);
+                return flatten(operator.filterOutObstacleIds(
+                        operator.getObstacleMap(DistanceMap_.OBSTACLE_COLOR, mode), DistanceMap_.DEFAULT_SAFETY_DISTANCE), size * size);
+            }));
+            cases.add(new Case("distance.boundedObstacleZone." + mode, "distance.obstacleZone." + mode, 0, 0,
+                    () -> flatten(SyntheticCorpus.getDistanceMapOperator(maze, size, size).getObstacleSafetyZone(
+                            DistanceMap_.OBSTACLE_COLOR, mode, DistanceMap_.DEFAULT_SAFETY_DISTANCE), size * size)));
+        }
+        cases.add(new Case("distance.dijkstra16.terrain", "distance.dijkstra16.terrain", 1e-9, 1e-12, () -> flatten(
+                SyntheticCorpus.getDistanceMapOperator(smooth, size, size).getDistanceMap(smooth[0][0],
+                        new CostModel("Euclidean", 16).setTerrainCosts(CostModel.getLinearTerrainCosts(1.0, 5.0)),
+                        false, new OperatorProgress()))));
+        cases.add(new Case("distance.chamfer.5-7-11", "distance.chamfer.5-7-11", 1e-9, 1e-12, () -> flatten(
+                SyntheticCorpus.getDistanceMapOperator(maze, size, size).getDistanceMapChamfer(DistanceMap_.TARGET_COLOR,
+                        "Euclidean", ChamferDistanceTransform.MASK_5_7_11, false))));
+
+        RegistrationTemplate_ registration = new RegistrationTemplate_();
+        int[][] moved = registration.transformImg(blobs, size, size, 4.0, -2.0, 2.0);
+        cases.add(new Case("registration.transform", "registration.transform", 0, 0, () -> flatten(moved)));
+        cases.add(new Case("registration.parameters", "registration.parameters", 1e-9, 1e-9,
+                () -> registration.getBestRegistrationParameters(blobs, moved, size, size, new OperatorProgress())));
+
+        List<Point> seeds = SyntheticCorpus.getSeeds(size, size, 12, 4);
+        cases.add(new Case("regionGrowing.labels", "regionGrowing.labels", 0, 0, () -> Arrays.stream(
+                new RegionGrowing(size, size, 2.0, 10.0, 32).getLabels(blobs, seeds)).asDoubleStream().toArray()));
+        // the tile size only distributes the work
+        for (int tileSize : new int[]{7, RegionGrowing.DEFAULT_TILE_SIZE}) {
+            cases.add(new Case("regionGrowing.labels.tile" + tileSize, "regionGrowing.labels", 0, 0, () -> Arrays.stream(
+                    new RegionGrowing(size, size, 2.0, 10.0, tileSize).getLabels(blobs, seeds)).asDoubleStream().toArray()));
+        }
+        List<Point> centre = new ArrayList<>();
+        centre.add(new Point(size / 2, size / 2));
+        cases.add(new Case("regionGrowing.segmented", "regionGrowing.segmented", 0, 0, () -> flatten(
+                new RegionGrowing(size, size, 2.0, 10.0).getSegmentedImage(blobs, centre, 255, 0))));
+        return cases;
+    }
+
+    static List<PerformanceCase> getPerformanceCases() {
+        int size = PERF_SIZE;
+        long pixels = (long) size * size;
+        int[][] smooth = SyntheticCorpus.getSmoothImage(size, size, 11);
+        double[][] smoothDouble = toDouble(smooth);
+        int[][] blobs = SyntheticCorpus.getBlobImage(size, size, 12);
+        int[][] maze = SyntheticCorpus.getMaze(size, size, 0.2, 13);
+        List<PerformanceCase> cases = new ArrayList<>();
+        double[][] mean4 = ConvolutionFilter.getMeanMask(4);
+        cases.add(new PerformanceCase("convolution.mean.r4", pixels,
+                () -> ConvolutionFilter.convolveDoubleNorm(smoothDouble, size, size, mean4, 4)));
+        cases.add(new PerformanceCase("rank.median.r3", pixels, () -> RankFilter.getMedianImage(smooth, size, size, 3)));
+        byte[] smoothPixels = ImageJUtility.convertFrom2DIntArr(smooth, size, size);
+        cases.add(new PerformanceCase("contrast.clahe.8x8", pixels, () -> ContrastEnhancement.getCLAHEImage(smoothPixels,
+                size, size, 8, 8, ContrastEnhancement.DEFAULT_CLIP_LIMIT)));
+        cases.add(new PerformanceCase("distance.queue.Euclidean", pixels, () -> {
+            DistanceMap_ operator = SyntheticCorpus.getDistanceMapOperator(maze, size, size);
+            int targetId = operator.getInitialPositionIdsFromValue(DistanceMap_.TARGET_COLOR).get(0);
+            operator.getDistanceMap(targetId, DistanceMap_.TARGET_COLOR, "Euclidean", false, new OperatorProgress());
+        }));
+        cases.add(new PerformanceCase("distance.dijkstra8.Euclidean", pixels,
+                () -> SyntheticCorpus.getDistanceMapOperator(maze, size, size).getDistanceMap(
+                        DistanceMap_.TARGET_COLOR, new CostModel("Euclidean", 8), false, new OperatorProgress())));
+        cases.add(new PerformanceCase("distance.chamfer.3-4", pixels,
+                () -> SyntheticCorpus.getDistanceMapOperator(maze, size, size).getDistanceMapChamfer(
+                        DistanceMap_.TARGET_COLOR, "Euclidean", ChamferDistanceTransform.MASK_3_4, false)));
+        List<Point> seeds = SyntheticCorpus.getSeeds(size, size, 14, 16);
+        cases.add(new PerformanceCase("regionGrowing.labels", pixels,
+                () -> new RegionGrowing(size, size, 2.0, 10.0).getLabels(blobs, seeds)));
+        return cases;
+    }
+
+    static void writeGolden(File file, double[] values) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(values.length);
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    static double[] readGolden(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a golden file: " + file);
+            }
+            double[] values = new double[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+            return values;
+        }
+    }
+
+    /**
+     * @return null if actual matches expected, otherwise a description of the differences (infinities and NaN
+     * have to match exactly, finite values within absTolerance + relTolerance * |expected|)
+     */
+    static String compare(double[] expected, double[] actual, double absTolerance, double relTolerance) {
+        if (expected.length != actual.length) {
+            return "length " + actual.length + " instead of " + expected.length;
+        }
+        int mismatches = 0;
+        int firstMismatch = -1;
+        double maxError = 0.0;
+        for (int i = 0; i < expected.length; i++) {
+            double a = expected[i];
+            double b = actual[i];
+            boolean matches;
+            if (Double.isNaN(a) || Double.isInfinite(a) || Double.isNaN(b) || Double.isInfinite(b)) {
+                matches = Double.compare(a, b) == 0;
+            } else {
+                double error = Math.abs(a - b);
+                maxError = Math.max(maxError, error);
+                matches = error <= absTolerance + relTolerance * Math.abs(a);
+            }
+            if (!matches) {
+                mismatches++;
+                if (firstMismatch < 0) {
+                    firstMismatch = i;
+                }
+            }
+        }
+        if (mismatches == 0) {
+            return null;
+        }
+        return String.format(Locale.ROOT, "%d of %d values differ (first at %d: %s instead of %s), max error %.3g",
+                mismatches, expected.length, firstMismatch, actual[firstMismatch], expected[firstMismatch], maxError);
+    }
+
+    // median run time in nanoseconds
+    static long measure(Runnable operator) {
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            operator.run();
+        }
+        long[] times = new long[MEASURED_RUNS];
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            long start = System.nanoTime();
+            operator.run();
+            times[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[MEASURED_RUNS / 2];
+    }
+
+    /**
+     * throughput of the region growing for 1, 2, 4 and all processors (dedicated ForkJoinPool, see
+     * Autotuner.runWithThreads), relative to one thread
+     */
+    static void printScaling() {
+        int size = PERF_SIZE * 2;
+        long pixels = (long) size * size;
+        int[][] blobs = SyntheticCorpus.getBlobImage(size, size, 12);
+        List<Point> seeds = SyntheticCorpus.getSeeds(size, size, 14, 16);
+        TreeSet<Integer> threadCounts = new TreeSet<>(Arrays.asList(1, 2, 4,
+                Runtime.getRuntime().availableProcessors()));
+        double singleThread = 0;
+        for (int threads : threadCounts) {
+            long nanos = Autotuner.runWithThreads(threads, () -> measure(
+                    () -> new RegionGrowing(size, size, 2.0, 10.0).getLabels(blobs, seeds)));
+            double throughput = pixels * 1e9 / nanos;
+            singleThread = threads == 1 ? throughput : singleThread;
+            System.out.printf(Locale.ROOT, "regionGrowing.labels %2d thread(s): %12.0f pixels/s, speed-up %.2f%n",
+                    threads, throughput, throughput / singleThread);
+        }
+    }
+
+    static void record(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        for (Case testCase : getCases()) {
+            if (testCase.isReference()) {
+                writeGolden(new File(dir, testCase.name + ".golden"), testCase.operator.get());
+                System.out.println("recorded " + testCase.name);
+            }
+        }
+        recordBaseline(dir);
+    }
+
+    static void recordBaseline(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        Properties baseline = new Properties();
+        for (PerformanceCase perfCase : getPerformanceCases()) {
+            double throughput = perfCase.pixels * 1e9 / measure(perfCase.operator);
+            baseline.setProperty(perfCase.name, Double.toString(throughput));
+            System.out.printf(Locale.ROOT, "baseline %-32s %12.0f pixels/s%n", perfCase.name, throughput);
+        }
+        try (OutputStream out = new FileOutputStream(new File(dir, BASELINE_FILE))) {
+            baseline.store(out, "operator throughput in pixels per second, " + Runtime.getRuntime().availableProcessors()
+                    + " processors");
+        }
+    }
+
+    /**
+     * @return number of failed cases
+     */
+    static int check(File dir, double maxSlowdown) throws IOException {
+        int failures = 0;
+        for (Case testCase : getCases()) {
+            File goldenFile = new File(dir, testCase.goldenName + ".golden");
+            if (!goldenFile.isFile()) {
+                System.out.println("FAIL " + testCase.name + ": no golden output " + goldenFile);
+                failures++;
+                continue;
+            }
+            String difference = compare(readGolden(goldenFile), testCase.operator.get(), testCase.absTolerance,
+                    testCase.relTolerance);
+            if (difference == null) {
+                System.out.println("PASS " + testCase.name);
+            } else {
+                System.out.println("FAIL " + testCase.name + " (against " + testCase.goldenName + "): " + difference);
+                failures++;
+            }
+        }
+
+        File baselineFile = new File(dir, BASELINE_FILE);
+        Properties baseline = new Properties();
+        if (baselineFile.isFile()) {
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+        } else {
+            // machine specific, not committed: run "baseline" once to enable the performance cases
+            System.out.println("no performance baseline " + baselineFile + ", performance cases are skipped");
+        }
+        for (PerformanceCase perfCase : getPerformanceCases()) {
+            String baselineValue = baseline.getProperty(perfCase.name);
+            double throughput = perfCase.pixels * 1e9 / measure(perfCase.operator);
+            if (baselineValue == null) {
+                System.out.printf(Locale.ROOT, "SKIP %s: no baseline (%.0f pixels/s)%n", perfCase.name, throughput);
+                continue;
+            }
+            double ratio = throughput / Double.parseDouble(baselineValue);
+            boolean passed = ratio >= 1.0 - maxSlowdown;
+            System.out.printf(Locale.ROOT, "%s %s: %.0f pixels/s, %.0f%% of the baseline%n", passed ? "PASS" : "FAIL",
+                    perfCase.name, throughput, 100.0 * ratio);
+            if (!passed) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals("record") || args[0].equals("baseline") || args[0].equals("check")
+                || args[0].equals("scaling"))) {
+            System.out.println("usage: java OperatorRegression record|baseline|check [dir] | scaling");
+            System.exit(2);
+        }
+        if (args[0].equals("scaling")) {
+            printScaling();
+            return;
+        }
+        File dir = new File(args.length > 1 ? args[1] : System.getProperty(DIR_PROPERTY, DEFAULT_DIR));
+        if (args[0].equals("record")) {
+            record(dir);
+            return;
+        }
+        if (args[0].equals("baseline")) {
+            recordBaseline(dir);
+            return;
+        }
+        double maxSlowdown = Double.parseDouble(System.getProperty(MAX_SLOWDOWN_PROPERTY,
+                Double.toString(DEFAULT_MAX_SLOWDOWN)));
+        int failures = check(dir, maxSlowdown);
+        System.out.println(failures == 0 ? "all cases passed" : failures + " case(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+}
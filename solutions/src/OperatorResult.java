@@ -0,0 +1,27 @@
+/**
+ * Result of an asynchronous operator run, partial if the run hit its deadline.
+ *
+ * @param <T> the result type (e.g. double[][] for distance maps)
+ */
+public class OperatorResult<T> {
+
+    private final T value;
+    private final boolean complete;
+
+    public OperatorResult(T value, boolean complete) {
+        this.value = value;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the result, or the best partial result if isComplete() is false
+     */
+    public T getValue() {
+        return this.value;
+    }
+
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+}
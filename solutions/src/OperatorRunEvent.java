@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event committed for every operator run, the event duration is the run time of the operator.
+ */
+@Name("compgraphics.OperatorRun")
+@Label("Operator Run")
+@Category({"compGraphics", "Operators"})
+@Description("One invocation of an image operator with its hot-path counters")
+@StackTrace(false)
+public class OperatorRunEvent extends jdk.jfr.Event {
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Cells Expanded")
+    long cellsExpanded;
+
+    @Label("Relaxations")
+    long relaxations;
+
+    @Label("Kernel Taps")
+    long kernelTaps;
+
+    @Label("Pixels Processed")
+    long pixelsProcessed;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Queue High-Water Mark")
+    long queueHighWaterMark;
+
+}
@@ -0,0 +1,29 @@
+/**
+ * JMX view of the accumulated metrics of one operator (e.g. "ConvolutionFilter.convolveDouble").
+ * Registered as compgraphics:type=Operator,name=&lt;operator&gt;.
+ */
+public interface OperatorStatsMXBean {
+
+    long getRunCount();
+
+    long getTotalTimeNanos();
+
+    long getLastTimeNanos();
+
+    long getMaxTimeNanos();
+
+    long getCellsExpanded();
+
+    long getRelaxations();
+
+    long getKernelTaps();
+
+    long getPixelsProcessed();
+
+    long getAllocatedBytes();
+
+    long getQueueHighWaterMark();
+
+    void reset();
+
+}
@@ -0,0 +1,288 @@
+import java.util.stream.IntStream;
+
+/**
+ * Utility class that supports rank filters (median, percentile, min/max) on 8-bit images with a square
+ * (2 * radius + 1) x (2 * radius + 1) window. Only pixels inside the image are part of the window (same border
+ * handling as ConvolutionFilter.convolveDoubleNorm). The run time does not grow with the radius:
+ * - median / percentile: sliding histograms, Huang for small radii and Perreault (column histograms) for large ones
+ * - min / max: van Herk / Gil-Werman, separable
+ */
+public class RankFilter {
+
+    static final int NUM_BINS = 256;
+    static final int COARSE_SHIFT = 4; // 16 coarse bins with 16 values each
+    static final int NUM_COARSE_BINS = NUM_BINS >> COARSE_SHIFT;
+
+    // above this radius the constant time Perreault variant is faster than Huang's O(radius) update
+    static final int HUANG_MAX_RADIUS = 8;
+
+    /**
+     * median filter
+     *
+     * @param inImg  The input image (values in [0;255]).
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param radius The radius of the window.
+     * @return The median filtered image (lower median for even window sizes at the borders).
+     */
+    public static int[][] getMedianImage(int[][] inImg, int width, int height, int radius) {
+        return getPercentileImage(inImg, width, height, radius, 50.0);
+    }
+
+    /**
+     * percentile filter
+     *
+     * @param inImg      The input image (values in [0;255]).
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     * @param radius     The radius of the window.
+     * @param percentile in [0;100], 0 = minimum, 50 = median, 100 = maximum
+     * @return The filtered image.
+     */
+    public static int[][] getPercentileImage(int[][] inImg, int width, int height, int radius, double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new RuntimeException("percentile must be in [0;100]");
+        }
+        OperatorMetrics.Run metrics = OperatorMetrics.start("RankFilter.getPercentileImage");
+        int[][] returnImg = new int[width][height];
+        if (radius <= HUANG_MAX_RADIUS) {
+            // rows are independent, every row starts with its own histogram
+            IntStream.range(0, height).parallel().forEach(y ->
+                    percentileRowHuang(inImg, returnImg, width, height, radius, percentile, y));
+        } else {
+            // column histograms are shared over the rows, so bands of rows are processed in parallel
+            int numBands = Math.max(1, Math.min(height / (4 * radius + 1), Runtime.getRuntime().availableProcessors()));
+            IntStream.range(0, numBands).parallel().forEach(band -> percentileBandPerreault(inImg, returnImg,
+                    width, height, radius, percentile, band * height / numBands, (band + 1) * height / numBands));
+        }
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return returnImg;
+    }
+
+    // rank of the requested percentile within a window of numPixels values
+    static int getRank(int numPixels, double percentile) {
+        return (int) Math.floor(percentile / 100.0 * (numPixels - 1));
+    }
+
+    // returns the value with the given rank (0 = smallest) of the histogram
+    static int selectFromHistogram(int[] hist, int[] coarseHist, int rank) {
+        int coarse = 0;
+        int count = 0;
+        while (count + coarseHist[coarse] <= rank) {
+            count += coarseHist[coarse];
+            coarse++;
+        }
+        int value = coarse << COARSE_SHIFT;
+        while (count + hist[value] <= rank) {
+            count += hist[value];
+            value++;
+        }
+        return value;
+    }
+
+    // Huang: the window histogram of a row slides by removing the left and adding the right column
+    private static void percentileRowHuang(int[][] inImg, int[][] returnImg, int width, int height, int radius,
+                                           double percentile, int y) {
+        int[] hist = new int[NUM_BINS];
+        int[] coarseHist = new int[NUM_COARSE_BINS];
+        int yMin = Math.max(0, y - radius);
+        int yMax = Math.min(height - 1, y + radius);
+        int numPixels = 0;
+
+        for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+            for (int nbY = yMin; nbY <= yMax; nbY++) {
+                int val = inImg[x][nbY];
+                hist[val]++;
+                coarseHist[val >> COARSE_SHIFT]++;
+                numPixels++;
+            }
+        }
+
+        for (int x = 0; x < width; x++) {
+            if (x > 0) {
+                int leaving = x - radius - 1;
+                if (leaving >= 0) {
+                    for (int nbY = yMin; nbY <= yMax; nbY++) {
+                        int val = inImg[leaving][nbY];
+                        hist[val]--;
+                        coarseHist[val >> COARSE_SHIFT]--;
+                        numPixels--;
+                    }
+                }
+                int entering = x + radius;
+                if (entering < width) {
+                    for (int nbY = yMin; nbY <= yMax; nbY++) {
+                        int val = inImg[entering][nbY];
+                        hist[val]++;
+                        coarseHist[val >> COARSE_SHIFT]++;
+                        numPixels++;
+                    }
+                }
+            }
+            returnImg[x][y] = selectFromHistogram(hist, coarseHist, getRank(numPixels, percentile));
+        } //for x
+    }
+
+    // Perreault: one histogram per column over the 2 * radius + 1 rows of the window, the window histogram slides
+    // by adding/subtracting whole column histograms (constant time per pixel)
+    private static void percentileBandPerreault(int[][] inImg, int[][] returnImg, int width, int height, int radius,
+                                                double percentile, int yStart, int yEnd) {
+        int[][] columnHist = new int[width][NUM_BINS];
+        int[][] columnCoarseHist = new int[width][NUM_COARSE_BINS];
+        int[] hist = new int[NUM_BINS];
+        int[] coarseHist = new int[NUM_COARSE_BINS];
+
+        // column histograms as if the band started one row earlier, the row loop then slides them to yStart
+        for (int x = 0; x < width; x++) {
+            for (int nbY = Math.max(0, yStart - radius - 1); nbY < Math.min(height, yStart + radius); nbY++) {
+                int val = inImg[x][nbY];
+                columnHist[x][val]++;
+                columnCoarseHist[x][val >> COARSE_SHIFT]++;
+            }
+        }
+
+        for (int y = yStart; y < yEnd; y++) {
+            int leavingY = y - radius - 1;
+            int enteringY = y + radius;
+            for (int x = 0; x < width; x++) {
+                if (leavingY >= 0) {
+                    int val = inImg[x][leavingY];
+                    columnHist[x][val]--;
+                    columnCoarseHist[x][val >> COARSE_SHIFT]--;
+                }
+                if (enteringY < height) {
+                    int val = inImg[x][enteringY];
+                    columnHist[x][val]++;
+                    columnCoarseHist[x][val >> COARSE_SHIFT]++;
+                }
+            }
+            int numRows = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+
+            java.util.Arrays.fill(hist, 0);
+            java.util.Arrays.fill(coarseHist, 0);
+            int numColumns = 0;
+            for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+                addHistogram(hist, coarseHist, columnHist[x], columnCoarseHist[x], 1);
+                numColumns++;
+            }
+
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    int leavingX = x - radius - 1;
+                    if (leavingX >= 0) {
+                        addHistogram(hist, coarseHist, columnHist[leavingX], columnCoarseHist[leavingX], -1);
+                        numColumns--;
+                    }
+                    int enteringX = x + radius;
+                    if (enteringX < width) {
+                        addHistogram(hist, coarseHist, columnHist[enteringX], columnCoarseHist[enteringX], 1);
+                        numColumns++;
+                    }
+                }
+                returnImg[x][y] = selectFromHistogram(hist, coarseHist, getRank(numColumns * numRows, percentile));
+            } //for x
+        } //for y
+    }
+
+    private static void addHistogram(int[] hist, int[] coarseHist, int[] otherHist, int[] otherCoarseHist, int sign) {
+        for (int i = 0; i < NUM_BINS; i++) {
+            hist[i] += sign * otherHist[i];
+        }
+        for (int i = 0; i < NUM_COARSE_BINS; i++) {
+            coarseHist[i] += sign * otherCoarseHist[i];
+        }
+    }
+
+    /**
+     * minimum filter (grey value erosion)
+     *
+     * @param inImg  The input image.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param radius The radius of the window.
+     * @return The filtered image.
+     */
+    public static int[][] getMinImage(int[][] inImg, int width, int height, int radius) {
+        return getMinMaxImage(inImg, width, height, radius, true);
+    }
+
+    /**
+     * maximum filter (grey value dilation)
+     *
+     * @param inImg  The input image.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param radius The radius of the window.
+     * @return The filtered image.
+     */
+    public static int[][] getMaxImage(int[][] inImg, int width, int height, int radius) {
+        return getMinMaxImage(inImg, width, height, radius, false);
+    }
+
+    private static int[][] getMinMaxImage(int[][] inImg, int width, int height, int radius, boolean isMin) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start(isMin ? "RankFilter.getMinImage" : "RankFilter.getMaxImage");
+        int[][] rowResult = new int[width][height];
+        int[][] returnImg = new int[width][height];
+
+        // pass 1: along x, one line per row
+        IntStream.range(0, height).parallel().forEach(y -> {
+            int[] line = new int[width];
+            for (int x = 0; x < width; x++) {
+                line[x] = inImg[x][y];
+            }
+            int[] filtered = vanHerkGilWerman(line, radius, isMin);
+            for (int x = 0; x < width; x++) {
+                rowResult[x][y] = filtered[x];
+            }
+        });
+        // pass 2: along y, the columns are contiguous in the [x][y] layout
+        IntStream.range(0, width).parallel().forEach(x ->
+                returnImg[x] = vanHerkGilWerman(rowResult[x], radius, isMin));
+
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, 2L * width * height).finish();
+        return returnImg;
+    }
+
+    /**
+     * 1D min/max filter with 3 comparisons per value independent of the window size
+     *
+     * @param line   the input values
+     * @param radius the radius of the window
+     * @param isMin  true for minimum, false for maximum
+     * @return the filtered line, only values inside the line are part of the window
+     */
+    static int[] vanHerkGilWerman(int[] line, int radius, boolean isMin) {
+        int n = line.length;
+        int windowSize = 2 * radius + 1;
+        int padding = isMin ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+
+        // padded line: radius neutral elements on both sides, length rounded up to whole blocks
+        int paddedLength = ((n + 2 * radius + windowSize - 1) / windowSize) * windowSize;
+        int[] padded = new int[paddedLength];
+        java.util.Arrays.fill(padded, padding);
+        System.arraycopy(line, 0, padded, radius, n);
+
+        // g: running extremum from the block start, h: running extremum to the block end
+        int[] g = new int[paddedLength];
+        int[] h = new int[paddedLength];
+        for (int blockStart = 0; blockStart < paddedLength; blockStart += windowSize) {
+            int blockEnd = blockStart + windowSize - 1;
+            g[blockStart] = padded[blockStart];
+            for (int i = blockStart + 1; i <= blockEnd; i++) {
+                g[i] = isMin ? Math.min(g[i - 1], padded[i]) : Math.max(g[i - 1], padded[i]);
+            }
+            h[blockEnd] = padded[blockEnd];
+            for (int i = blockEnd - 1; i >= blockStart; i--) {
+                h[i] = isMin ? Math.min(h[i + 1], padded[i]) : Math.max(h[i + 1], padded[i]);
+            }
+        }
+
+        // window of output i covers padded[i .. i + 2 * radius]
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = isMin ? Math.min(h[i], g[i + 2 * radius]) : Math.max(h[i], g[i + 2 * radius]);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,63 @@
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+/**
+ * Applies a rank filter (median, percentile, minimum, maximum) with a user defined radius on a given image.
+ */
+public class RankFilterUserRadius_ implements PlugInFilter {
+
+	public int setup(String arg, ImagePlus imp) {
+		if (arg.equals("about"))
+			{showAbout(); return DONE;}
+		return DOES_8G;
+	} //setup
+
+
+	public void run(ImageProcessor ip) {
+		byte[] pixels = (byte[])ip.getPixels();
+		int width = ip.getWidth();
+		int height = ip.getHeight();
+		int tgtRadius = 4; //r=4 ==> 9x9 mask
+
+		//let the user enter the radius and the filter
+		GenericDialog gd = new GenericDialog("user input");
+		String[] filters = new String[] {"Median", "Percentile", "Minimum (erosion)", "Maximum (dilation)"};
+		gd.addChoice("filter", filters, filters[0]);
+		gd.addNumericField("radius", tgtRadius, 0);
+		gd.addNumericField("percentile", 50, 1);
+		gd.showDialog();
+		if(gd.wasCanceled()) {
+		  return;
+		} //if -was canceled
+		String filter = gd.getNextChoice();
+		tgtRadius = (int)Math.round(gd.getNextNumber());
+		double percentile = gd.getNextNumber();
+
+		int[][] inImgInt = ImageJUtility.convertFrom1DByteArr(pixels, width, height);
+		int[][] resultImg;
+		switch (filter) {
+			case "Percentile":
+				resultImg = RankFilter.getPercentileImage(inImgInt, width, height, tgtRadius, percentile);
+				break;
+			case "Minimum (erosion)":
+				resultImg = RankFilter.getMinImage(inImgInt, width, height, tgtRadius);
+				break;
+			case "Maximum (dilation)":
+				resultImg = RankFilter.getMaxImage(inImgInt, width, height, tgtRadius);
+				break;
+			default:
+				resultImg = RankFilter.getMedianImage(inImgInt, width, height, tgtRadius);
+		}
+
+		ImageJUtility.showNewImage(resultImg, width, height, filter + " filtered, r= " + tgtRadius);
+	} //run
+
+	void showAbout() {
+		IJ.showMessage("About RankFilterUserRadius_...",
+			"this is a PluginFilter for rank filtering (median, percentile, min, max)\n");
+	} //showAbout
+
+} //class RankFilterUserRadius_
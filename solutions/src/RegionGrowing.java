@@ -0,0 +1,514 @@
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Seeded region growing with an adaptive homogeneity criterion: a 4-neighbour joins a region if its value lies within
+ * max(minTolerance, stdFactor * stddev) of the mean of the region, so the acceptance interval follows slow intensity
+ * drifts. Every seed starts a region, the regions grow in steps (one ring of 4-neighbours around the current
+ * regions per step) and the statistics are updated after every step.
+ * The growth is level-synchronous on purpose: tiles that grew independently would see different partial statistics
+ * of a region depending on the tile size and the scheduling, so the adaptive criterion would accept different
+ * pixels. Instead every step is data-parallel over the tiles of the frontier, with two phases:
+ * - every tile tests the neighbours of its frontier pixels against the statistics of the previous step. A pixel
+ *   accepted by several regions is claimed by the one with the smallest label (atomic min) and handed to the tile it
+ *   lies in (the tile itself or one of its 4 neighbours). Regions that touch are merged with a lock-free union-find if
+ *   the mean of each lies within the acceptance interval of the other.
+ * - every tile collects the pixels handed to it: they join the claiming region and form the next frontier of the tile,
+ *   chunks of tiles sum up the statistics of the joined pixels per region.
+ * The frontier, hand-over and statistics buffers are kept across the steps, a step only allocates when a tile
+ * receives more pixels than ever before. Every decision only depends on the statistics of the previous step, so the
+ * result neither depends on the thread scheduling nor on the tile size. Speed-up per thread count: java
+ * OperatorRegression scaling.
+ * Region labels are pixel ids (GridIndex.pack) of the seed of the region, after a merge the smallest seed id.
+ */
+public class RegionGrowing {
+
+    public static final int DEFAULT_TILE_SIZE = 128;
+    public static final int UNLABELLED = -1;
+    static final int PARALLEL_MIN_FRONTIER = 4096; // smaller frontiers are grown on the calling thread
+    static final int MAX_CHUNKS = 64; // work units of the second phase of a step
+    private static final int NO_CLAIM = Integer.MAX_VALUE;
+    // tile an accepted neighbour lies in, seen from the tile of the frontier pixel (LEFT + dir for the 4 directions)
+    private static final int DESTINATION_SELF = 0;
+    private static final int DESTINATION_LEFT = 1;
+    private static final int DESTINATION_RIGHT = 2;
+    private static final int DESTINATION_UP = 3;
+    private static final int DESTINATION_DOWN = 4;
+    private static final int NUM_DESTINATIONS = 5;
+
+    private final int width;
+    private final int height;
+    private final double stdFactor;
+    private final double minTolerance;
+    private final int tileSize;
+
+    /**
+     * @param width        the width of the image
+     * @param height       the height of the image
+     * @param stdFactor    acceptance interval in standard deviations of the region
+     * @param minTolerance minimal half width of the acceptance interval (grey values), used for small/flat regions
+     *                     (tile size of the Autotuner table or DEFAULT_TILE_SIZE)
+     */
+    public RegionGrowing(int width, int height, double stdFactor, double minTolerance) {
+        this(width, height, stdFactor, minTolerance, Autotuner.getTileSize(Autotuner.OPERATOR_REGION_GROWING, width, height,
+                DEFAULT_TILE_SIZE));
+    }
+
+    public RegionGrowing(int width, int height, double stdFactor, double minTolerance, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.stdFactor = stdFactor;
+        this.minTolerance = minTolerance;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param inImg      the input image [width][height]
+     * @param seedPoints the seeds, e.g. from a PointRoi (seeds outside the image are ignored)
+     * @return label per pixel id (y * width + x), UNLABELLED for pixels outside all regions
+     */
+    public int[] getLabels(int[][] inImg, List<Point> seedPoints) {
+        return getLabels(inImg, seedPoints, null);
+    }
+
+    /**
+     * same as above, if checkpoint is not null the state after a growth step is saved periodically, a later call with
+     * the same image, seeds and parameters resumes from it
+     *
+     * @param inImg      the input image [width][height]
+     * @param seedPoints the seeds, e.g. from a PointRoi (seeds outside the image are ignored)
+     * @param checkpoint snapshots of the labels, null for none
+     * @return label per pixel id (y * width + x), UNLABELLED for pixels outside all regions
+     */
+    public int[] getLabels(int[][] inImg, List<Point> seedPoints, OperatorCheckpoint checkpoint) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("RegionGrowing.getLabels");
+        int numPixels = this.width * this.height;
+        int[] seedIds = getSeedIds(seedPoints);
+        int numRegions = seedIds.length;
+
+        // region index per pixel, only written between the parallel phases of a step
+        int[] regions = new int[numPixels];
+        Arrays.fill(regions, UNLABELLED);
+        // statistics per region index, the statistics of a merged region are the sums over its members
+        long[] count = new long[numRegions];
+        long[] sum = new long[numRegions];
+        long[] sumSq = new long[numRegions];
+        AtomicIntegerArray parent = new AtomicIntegerArray(numRegions);
+        IntArrayList frontier = new IntArrayList();
+
+        OperatorCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.restore() : null;
+        if (snapshot != null) {
+            // the statistics follow from the labels
+            System.arraycopy(snapshot.getInts("regions"), 0, regions, 0, numPixels);
+            int[] parents = snapshot.getInts("parent");
+            for (int region = 0; region < numRegions; region++) {
+                parent.set(region, parents[region]);
+            }
+            for (int id : snapshot.getInts("frontier")) {
+                frontier.add(id);
+            }
+            for (int id = 0; id < numPixels; id++) {
+                if (regions[id] != UNLABELLED) {
+                    addToRegion(inImg[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)], regions[id],
+                            count, sum, sumSq);
+                }
+            }
+        } else {
+            for (int region = 0; region < numRegions; region++) {
+                int id = seedIds[region];
+                parent.set(region, region);
+                regions[id] = region;
+                addToRegion(inImg[GridIndex.getX(id, this.width)][GridIndex.getY(id, this.width)], region,
+                        count, sum, sumSq);
+                frontier.add(id);
+            }
+        }
+
+        int tilesX = (this.width + this.tileSize - 1) / this.tileSize;
+        int tilesY = (this.height + this.tileSize - 1) / this.tileSize;
+        int numTiles = tilesX * tilesY;
+        // frontier of the current and of the next step per tile, swapped after every step
+        IntArrayList[] buckets = new IntArrayList[numTiles];
+        IntArrayList[] nextBuckets = new IntArrayList[numTiles];
+        // accepted neighbours per source tile and destination (the tile itself or one of its 4 neighbours)
+        IntArrayList[][] outgoing = new IntArrayList[numTiles][NUM_DESTINATIONS];
+        IntArrayList activeTiles = new IntArrayList();
+        addToBuckets(frontier, buckets, activeTiles, tilesX);
+        AtomicIntegerArray claims = new AtomicIntegerArray(numPixels);
+        for (int id = 0; id < numPixels; id++) {
+            claims.set(id, NO_CLAIM);
+        }
+        // per step buffers, allocated once
+        int[] roots = new int[numRegions];
+        long[] rootCount = new long[numRegions];
+        long[] rootSum = new long[numRegions];
+        long[] rootSumSq = new long[numRegions];
+        int[] destinationStep = new int[numTiles];
+        IntArrayList destinationTiles = new IntArrayList();
+        StepStatistics[] chunkStatistics = new StepStatistics[MAX_CHUNKS];
+        LongAdder unions = new LongAdder();
+        long expanded = 0;
+        int frontierSize = frontier.size();
+        int step = 0;
+
+        while (frontierSize > 0) {
+            step++;
+            boolean parallel = frontierSize >= PARALLEL_MIN_FRONTIER;
+            IntArrayList[] currentBuckets = buckets;
+            IntArrayList[] followingBuckets = nextBuckets;
+            // statistics of the previous step per root
+            Arrays.fill(rootCount, 0);
+            Arrays.fill(rootSum, 0);
+            Arrays.fill(rootSumSq, 0);
+            for (int region = 0; region < numRegions; region++) {
+                int root = find(parent, region);
+                roots[region] = root;
+                rootCount[root] += count[region];
+                rootSum[root] += sum[region];
+                rootSumSq[root] += sumSq[region];
+            }
+
+            // phase 1: every tile tests the neighbours of its frontier pixels, accepted ones are claimed (atomic min)
+            // and handed to the tile they lie in
+            int[] tiles = activeTiles.toArray();
+            IntStream phase1 = IntStream.range(0, tiles.length);
+            (parallel ? phase1.parallel() : phase1).forEach(t -> {
+                int tile = tiles[t];
+                IntArrayList bucket = currentBuckets[tile];
+                IntArrayList[] tileOutgoing = outgoing[tile];
+                for (int i = 0; i < bucket.size(); i++) {
+                    int id = bucket.get(i);
+                    int root = roots[regions[id]];
+                    int px = GridIndex.getX(id, this.width);
+                    int py = GridIndex.getY(id, this.width);
+                    for (int dir = 0; dir < 4; dir++) {
+                        int nbX = px + (dir == 0 ? -1 : dir == 1 ? 1 : 0);
+                        int nbY = py + (dir == 2 ? -1 : dir == 3 ? 1 : 0);
+                        if (nbX < 0 || nbY < 0 || nbX >= this.width || nbY >= this.height) {
+                            continue;
+                        }
+                        int nbId = GridIndex.pack(nbX, nbY, this.width);
+                        if (regions[nbId] == UNLABELLED) {
+                            if (isAccepted(inImg[nbX][nbY], rootCount[root], rootSum[root], rootSumSq[root])) {
+                                claims.accumulateAndGet(nbId, root, Math::min);
+                                boolean crossesTile = nbX / this.tileSize != px / this.tileSize
+                                        || nbY / this.tileSize != py / this.tileSize;
+                                int destination = crossesTile ? DESTINATION_LEFT + dir : DESTINATION_SELF;
+                                if (tileOutgoing[destination] == null) {
+                                    tileOutgoing[destination] = new IntArrayList();
+                                }
+                                tileOutgoing[destination].add(nbId);
+                            }
+                        } else {
+                            int nbRoot = roots[regions[nbId]];
+                            if (nbRoot != root && isCompatible(rootCount, rootSum, rootSumSq, root, nbRoot)
+                                    && union(parent, root, nbRoot)) {
+                                unions.increment();
+                            }
+                        }
+                    }
+                }
+            });
+
+            // tiles that can receive pixels: the active tiles and their neighbours
+            destinationTiles.clear();
+            for (int tile : tiles) {
+                IntArrayList[] tileOutgoing = outgoing[tile];
+                for (int destination = 0; destination < NUM_DESTINATIONS; destination++) {
+                    if (tileOutgoing[destination] != null && !tileOutgoing[destination].isEmpty()) {
+                        int destinationTile = getNeighbourTile(tile, destination, tilesX, numTiles);
+                        if (destinationStep[destinationTile] != step) {
+                            destinationStep[destinationTile] = step;
+                            destinationTiles.add(destinationTile);
+                        }
+                    }
+                }
+            }
+
+            // phase 2: every tile collects the pixels handed to it, a claimed pixel joins the region of its smallest
+            // claim (the first list to reset the claim). The chunks of tiles sum up the statistics of the joined
+            // pixels per region
+            int[] receivers = destinationTiles.toArray();
+            int numChunks = Math.max(1, Math.min(receivers.length, parallel ? MAX_CHUNKS : 1));
+            IntStream phase2 = IntStream.range(0, numChunks);
+            (parallel ? phase2.parallel() : phase2).forEach(chunk -> {
+                if (chunkStatistics[chunk] == null) {
+                    chunkStatistics[chunk] = new StepStatistics(numRegions);
+                }
+                StepStatistics statistics = chunkStatistics[chunk];
+                int end = (int) ((long) receivers.length * (chunk + 1) / numChunks);
+                for (int r = (int) ((long) receivers.length * chunk / numChunks); r < end; r++) {
+                    int tile = receivers[r];
+                    for (int destination = 0; destination < NUM_DESTINATIONS; destination++) {
+                        // the list of the neighbour in direction d that points back to this tile
+                        int sourceTile = getNeighbourTile(tile, destination, tilesX, numTiles);
+                        IntArrayList incoming = sourceTile < 0 ? null : outgoing[sourceTile][getOpposite(destination)];
+                        if (incoming == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < incoming.size(); i++) {
+                            int nbId = incoming.get(i);
+                            int region = claims.getAndSet(nbId, NO_CLAIM);
+                            if (region != NO_CLAIM) {
+                                regions[nbId] = region;
+                                if (followingBuckets[tile] == null) {
+                                    followingBuckets[tile] = new IntArrayList();
+                                }
+                                followingBuckets[tile].add(nbId);
+                                statistics.add(inImg[GridIndex.getX(nbId, this.width)][GridIndex.getY(nbId, this.width)],
+                                        region);
+                            }
+                        }
+                    }
+                }
+            });
+
+            // the joined pixels are the next frontier
+            expanded += frontierSize;
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                chunkStatistics[chunk].addTo(count, sum, sumSq);
+            }
+            for (int tile : tiles) {
+                buckets[tile].clear();
+                for (IntArrayList list : outgoing[tile]) {
+                    if (list != null) {
+                        list.clear();
+                    }
+                }
+            }
+            IntArrayList[] swap = buckets;
+            buckets = nextBuckets;
+            nextBuckets = swap;
+            activeTiles.clear();
+            frontierSize = 0;
+            for (int tile : receivers) {
+                if (buckets[tile] != null && !buckets[tile].isEmpty()) {
+                    activeTiles.add(tile);
+                    frontierSize += buckets[tile].size();
+                }
+            }
+
+            if (checkpoint != null && checkpoint.isDue() && frontierSize > 0) {
+                saveSnapshot(checkpoint, regions, parent, buckets, activeTiles);
+            }
+        }
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+
+        int[] rootSeedIds = new int[numRegions];
+        for (int region = 0; region < numRegions; region++) {
+            rootSeedIds[region] = seedIds[find(parent, region)];
+        }
+        int[] labels = new int[numPixels];
+        IntStream.range(0, numPixels).parallel().forEach(id ->
+                labels[id] = regions[id] == UNLABELLED ? UNLABELLED : rootSeedIds[regions[id]]);
+
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded)
+                .add(OperatorMetrics.Counter.RELAXATIONS, unions.sum())
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, numPixels).finish();
+        return labels;
+    }
+
+    /**
+     * @param inImg      the input image [width][height]
+     * @param seedPoints the seeds, e.g. from a PointRoi
+     * @param fgVal      value of the regions containing a seed
+     * @param bgVal      value of all other pixels
+     * @return segmentation image [width][height]
+     */
+    public int[][] getSegmentedImage(int[][] inImg, List<Point> seedPoints, int fgVal, int bgVal) {
+        return getSegmentedImage(inImg, seedPoints, fgVal, bgVal, null);
+    }
+
+    /**
+     * same as above with snapshots of the labels, see getLabels(int[][], List, OperatorCheckpoint)
+     */
+    public int[][] getSegmentedImage(int[][] inImg, List<Point> seedPoints, int fgVal, int bgVal,
+                                     OperatorCheckpoint checkpoint) {
+        int[] labels = getLabels(inImg, seedPoints, checkpoint);
+        int[][] returnImg = new int[this.width][this.height];
+        IntStream.range(0, this.width).parallel().forEach(x -> {
+            for (int y = 0; y < this.height; y++) {
+                returnImg[x][y] = labels[GridIndex.pack(x, y, this.width)] != UNLABELLED ? fgVal : bgVal;
+            }
+        });
+        return returnImg;
+    }
+
+    /**
+     * @param inImg      the input image [width][height]
+     * @param seedPoints the seeds
+     * @return checkpoint of getLabels for this image, seeds and parameters (the tile size does not change the result)
+     */
+    public OperatorCheckpoint getCheckpoint(int[][] inImg, List<Point> seedPoints) {
+        StringBuilder description = new StringBuilder("RegionGrowing.getLabels/" + this.stdFactor + "/" + this.minTolerance);
+        for (int seedId : getSeedIds(seedPoints)) {
+            description.append('/').append(seedId);
+        }
+        return new OperatorCheckpoint(OperatorCheckpoint.getKey(description.toString(), this.width, this.height, inImg),
+                OperatorCheckpoint.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    // sorted distinct pixel ids of the seeds inside the image, region index = position
+    private int[] getSeedIds(List<Point> seedPoints) {
+        return seedPoints.stream()
+                .filter(seed -> seed.x >= 0 && seed.y >= 0 && seed.x < this.width && seed.y < this.height)
+                .mapToInt(seed -> GridIndex.pack(seed.x, seed.y, this.width)).sorted().distinct().toArray();
+    }
+
+    // statistics of the pixels that joined in one step, per region index (only the touched regions are reset)
+    private static class StepStatistics {
+        final long[] count;
+        final long[] sum;
+        final long[] sumSq;
+        final IntArrayList touched = new IntArrayList();
+
+        StepStatistics(int numRegions) {
+            this.count = new long[numRegions];
+            this.sum = new long[numRegions];
+            this.sumSq = new long[numRegions];
+        }
+
+        void add(int value, int region) {
+            if (this.count[region] == 0) {
+                this.touched.add(region);
+            }
+            addToRegion(value, region, this.count, this.sum, this.sumSq);
+        }
+
+        void addTo(long[] count, long[] sum, long[] sumSq) {
+            for (int i = 0; i < this.touched.size(); i++) {
+                int region = this.touched.get(i);
+                count[region] += this.count[region];
+                sum[region] += this.sum[region];
+                sumSq[region] += this.sumSq[region];
+                this.count[region] = 0;
+                this.sum[region] = 0;
+                this.sumSq[region] = 0;
+            }
+            this.touched.clear();
+        }
+    }
+
+    // the tile next to tile in the direction of destination, -1 outside the image
+    private static int getNeighbourTile(int tile, int destination, int tilesX, int numTiles) {
+        switch (destination) {
+            case DESTINATION_LEFT:
+                return tile % tilesX > 0 ? tile - 1 : -1;
+            case DESTINATION_RIGHT:
+                return tile % tilesX < tilesX - 1 ? tile + 1 : -1;
+            case DESTINATION_UP:
+                return tile >= tilesX ? tile - tilesX : -1;
+            case DESTINATION_DOWN:
+                return tile + tilesX < numTiles ? tile + tilesX : -1;
+            default:
+                return tile;
+        }
+    }
+
+    private static int getOpposite(int destination) {
+        switch (destination) {
+            case DESTINATION_LEFT:
+                return DESTINATION_RIGHT;
+            case DESTINATION_RIGHT:
+                return DESTINATION_LEFT;
+            case DESTINATION_UP:
+                return DESTINATION_DOWN;
+            case DESTINATION_DOWN:
+                return DESTINATION_UP;
+            default:
+                return DESTINATION_SELF;
+        }
+    }
+
+    private void addToBuckets(IntArrayList ids, IntArrayList[] buckets, IntArrayList activeTiles, int tilesX) {
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            int tile = (GridIndex.getY(id, this.width) / this.tileSize) * tilesX + GridIndex.getX(id, this.width) / this.tileSize;
+            if (buckets[tile] == null) {
+                buckets[tile] = new IntArrayList();
+            }
+            if (buckets[tile].isEmpty()) {
+                activeTiles.add(tile);
+            }
+            buckets[tile].add(id);
+        }
+    }
+
+    private static void saveSnapshot(OperatorCheckpoint checkpoint, int[] regions, AtomicIntegerArray parent,
+                                     IntArrayList[] buckets, IntArrayList activeTiles) {
+        int[] parents = new int[parent.length()];
+        for (int region = 0; region < parents.length; region++) {
+            parents[region] = parent.get(region);
+        }
+        IntArrayList frontier = new IntArrayList();
+        for (int i = 0; i < activeTiles.size(); i++) {
+            IntArrayList bucket = buckets[activeTiles.get(i)];
+            for (int j = 0; j < bucket.size(); j++) {
+                frontier.add(bucket.get(j));
+            }
+        }
+        checkpoint.save(new OperatorCheckpoint.Snapshot().putInts("regions", regions).putInts("parent", parents)
+                .putInts("frontier", frontier.toArray()));
+    }
+
+    private static void addToRegion(int value, int label, long[] count, long[] sum, long[] sumSq) {
+        count[label]++;
+        sum[label] += value;
+        sumSq[label] += (long) value * value;
+    }
+
+    private double getTolerance(double variance) {
+        return Math.max(this.minTolerance, this.stdFactor * Math.sqrt(Math.max(0.0, variance)));
+    }
+
+    private boolean isAccepted(int value, long count, long sum, long sumSq) {
+        double mean = (double) sum / count;
+        double variance = (double) sumSq / count - mean * mean;
+        return Math.abs(value - mean) <= getTolerance(variance);
+    }
+
+    // two regions are merged if the mean of each lies within the acceptance interval of the other
+    private boolean isCompatible(long[] count, long[] sum, long[] sumSq, int regionA, int regionB) {
+        double meanA = (double) sum[regionA] / count[regionA];
+        double meanB = (double) sum[regionB] / count[regionB];
+        double tolerance = Math.min(getTolerance((double) sumSq[regionA] / count[regionA] - meanA * meanA),
+                getTolerance((double) sumSq[regionB] / count[regionB] - meanB * meanB));
+        return Math.abs(meanA - meanB) <= tolerance;
+    }
+
+    // find with path halving, concurrent finds only shorten paths
+    static int find(AtomicIntegerArray parent, int id) {
+        int current = id;
+        int next = parent.get(current);
+        while (next != current) {
+            int grandParent = parent.get(next);
+            parent.compareAndSet(current, next, grandParent);
+            current = next;
+            next = grandParent;
+        }
+        return current;
+    }
+
+    // links the larger root below the smaller one, retries if another thread changed one of the roots
+    static boolean union(AtomicIntegerArray parent, int idA, int idB) {
+        while (true) {
+            int rootA = find(parent, idA);
+            int rootB = find(parent, idB);
+            if (rootA == rootB) {
+                return false;
+            }
+            int small = Math.min(rootA, rootB);
+            int large = Math.max(rootA, rootB);
+            if (parent.compareAndSet(large, large, small)) {
+                return true;
+            }
+        }
+    }
+
+}
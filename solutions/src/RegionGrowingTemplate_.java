@@ -1,5 +1,6 @@
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.GenericDialog;
 import ij.gui.PointRoi;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
@@ -10,6 +11,8 @@ import java.util.List;
 
 /**
  * Applies a region growing onto a given image. This requires a ROI in form of points. (Lab 7)
+ * The regions grow from the seed points, the homogeneity criterion adapts to the mean/variance of the region, see
+ * RegionGrowing.
  */
 public class RegionGrowingTemplate_ implements PlugInFilter {
 
@@ -51,7 +54,23 @@ public class RegionGrowingTemplate_ implements PlugInFilter {
         int height = ip.getHeight();
         int[][] inDataArrInt = ImageJUtility.convertFrom1DByteArr(pixels, width, height);
 
-        // TODO
+        GenericDialog gd = new GenericDialog("Region growing");
+        gd.addNumericField("Tolerance (std. deviations)", 2.0, 1);
+        gd.addNumericField("Min. tolerance (grey values)", 10, 0);
+        gd.addCheckbox("Checkpoint the labels (resume after a restart)", false);
+        gd.showDialog();
+        if (gd.wasCanceled()) {
+            return;
+        }
+        double stdFactor = gd.getNextNumber();
+        double minTolerance = gd.getNextNumber();
+        boolean useCheckpoints = gd.getNextBoolean();
+
+        List<Point> seedPoints = getSeedPoints();
+        RegionGrowing regionGrowing = new RegionGrowing(width, height, stdFactor, minTolerance);
+        int[][] segmentedImg = regionGrowing.getSegmentedImage(inDataArrInt, seedPoints, FG_VAL, BG_VAL,
+                useCheckpoints ? regionGrowing.getCheckpoint(inDataArrInt, seedPoints) : null);
+        ImageJUtility.showNewImage(segmentedImg, width, height, "region growing");
 
     } //run
 
@@ -1,14 +1,28 @@
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.GenericDialog;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 
 /**
- * Simple implementation of a registration using nearest neighbor interpolation and sum of squared error distance
- * metric. (Lab 8)
+ * Simple implementation of a registration using nearest neighbor (or bilinear / bicubic) interpolation and sum of
+ * squared error (or SAD / NCC / MI, see SimilarityMetrics) distance metric. (Lab 8)
  */
 public class RegistrationTemplate_ implements PlugInFilter {
 
+    public static final int BG_VAL = 0;
+
+    // search space of getRegisteredImage: 11 steps per parameter centered at 0
+    public static final int SEARCH_STEPS = 11;
+    public static final double TRANS_STEP_SIZE = 2.0;
+    public static final double ROT_STEP_SIZE = 1.0;
+
+    WarpEngine.Interpolation interpolation = WarpEngine.Interpolation.NEAREST_NEIGHBOR;
+    SimilarityMetrics.Metric metric = SimilarityMetrics.Metric.SSE;
+    int sampleStep = 1; // > 1: the search evaluates one pixel per sampleStep x sampleStep cell
+    boolean useCheckpoints = false; // the search saves snapshots and resumes from them (OperatorCheckpoint)
+    static final long SAMPLE_SEED = 42;
+
     public int setup(String arg, ImagePlus imp) {
         if (arg.equals("about")) {
             showAbout();
@@ -27,11 +41,18 @@ public class RegistrationTemplate_ implements PlugInFilter {
      */
     public int getNNinterpolatedValue(double xIdx, double yIdx, int width, int height, int[][] img) {
         //just round the coordinates
-        // TODO
-        return -1;
+        int x = (int) Math.round(xIdx);
+        int y = (int) Math.round(yIdx);
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return BG_VAL;
+        }
+        return img[x][y];
     }
 
     /**
+     * warps with the cached sampling grid of the parameters (WarpEngine.getSamplingGrid): the task transformation and
+     * the best parameters are the same for every slice of a stack, only the first slice computes the grid
+     *
      * @param inImg    input image
      * @param width    the width of the input image
      * @param height   the height of the input image
@@ -41,11 +62,26 @@ public class RegistrationTemplate_ implements PlugInFilter {
      * @return transformed image
      */
     public int[][] transformImg(int[][] inImg, int width, int height, double transX, double transY, double rotAngle) {
-        int[][] resultImg = new int[width][height];
-
-        // TODO
+        return WarpEngine.warp(inImg, WarpEngine.getSamplingGrid(width, height, transX, transY, rotAngle),
+                this.interpolation, new int[width][height]);
+    }
 
-        return resultImg;
+    /**
+     * backward mapping: rotate around the image center by -rotAngle, then undo the translation (see WarpEngine)
+     *
+     * @param inImg         input image
+     * @param width         the width of the input image
+     * @param height        the height of the input image
+     * @param transX        translation in x-direction
+     * @param transY        translation in y-direction
+     * @param rotAngle      rotation angle in degrees
+     * @param interpolation nearest neighbor, bilinear or bicubic
+     * @param resultImg     buffer for the transformed image [width][height]
+     * @return resultImg
+     */
+    public int[][] transformImg(int[][] inImg, int width, int height, double transX, double transY, double rotAngle,
+                                WarpEngine.Interpolation interpolation, int[][] resultImg) {
+        return WarpEngine.warp(inImg, width, height, transX, transY, rotAngle, interpolation, resultImg);
     }
 
     /**
@@ -56,11 +92,7 @@ public class RegistrationTemplate_ implements PlugInFilter {
      * @return error metric
      */
     public double getImgDiffSSE(int[][] refImg, int[][] testImg, int width, int height) {
-        double totalError = 0.0;
-
-        // TODO
-
-        return totalError;
+        return SimilarityMetrics.getSSE(refImg, testImg, width, height, null);
     }
 
     /**
@@ -73,7 +105,11 @@ public class RegistrationTemplate_ implements PlugInFilter {
     public double[][] getDiffImg(double[][] refImg, double[][] testImg, int width, int height) {
         double[][] res = new double[width][height];
 
-        // TODO
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                res[x][y] = Math.abs(refImg[x][y] - testImg[x][y]);
+            }
+        }
 
         return res;
     }
@@ -88,8 +124,95 @@ public class RegistrationTemplate_ implements PlugInFilter {
      * @return returns the registered image
      */
     public int[][] getRegisteredImage(int[][] refImg, int[][] testImg, int width, int height) {
-        // TODO
-        return null;
+        double[] bestParams = getBestRegistrationParameters(refImg, testImg, width, height, new OperatorProgress());
+        return transformImg(testImg, width, height, bestParams[0], bestParams[1], bestParams[2]);
+    }
+
+    /**
+     * exhaustive search over the 11x11x11 transformation parameters, stops early with the best parameters so far if
+     * the progress requests it (cancel, deadline)
+     *
+     * @param refImg   The reference image
+     * @param testImg  the image to test with.
+     * @param width    the width of the input image
+     * @param height   the height of the input image
+     * @param progress cancellation, deadline and progress reporting
+     * @return {transX, transY, rotAngle, error} of the best transformation found, error of the selected metric
+     */
+    public double[] getBestRegistrationParameters(int[][] refImg, int[][] testImg, int width, int height,
+                                                  OperatorProgress progress) {
+        return getBestRegistrationParameters(refImg, testImg, width, height, progress,
+                this.useCheckpoints ? getCheckpoint(refImg, testImg, width, height) : null);
+    }
+
+    /**
+     * same as above, if checkpoint is not null the best parameters and the next candidate are saved periodically (and
+     * when stopped early), a later search with the same images and settings resumes from there
+     *
+     * @param refImg     The reference image
+     * @param testImg    the image to test with.
+     * @param width      the width of the input image
+     * @param height     the height of the input image
+     * @param progress   cancellation, deadline and progress reporting
+     * @param checkpoint snapshots of the search, null for none
+     * @return {transX, transY, rotAngle, error} of the best transformation found, error of the selected metric
+     */
+    public double[] getBestRegistrationParameters(int[][] refImg, int[][] testImg, int width, int height,
+                                                  OperatorProgress progress, OperatorCheckpoint checkpoint) {
+        // the same sample for all candidates, otherwise the errors are not comparable
+        SimilarityMetrics.Sample sample = this.sampleStep > 1
+                ? SimilarityMetrics.getStratifiedSample(width, height, this.sampleStep, SAMPLE_SEED) : null;
+        double[] bestParams = new double[]{0.0, 0.0, 0.0,
+                SimilarityMetrics.getError(this.metric, refImg, testImg, width, height, sample)};
+        int halfSteps = SEARCH_STEPS / 2;
+        long total = (long) SEARCH_STEPS * SEARCH_STEPS * SEARCH_STEPS;
+        long done = 0;
+        OperatorCheckpoint.Snapshot snapshot = checkpoint != null ? checkpoint.restore() : null;
+        if (snapshot != null) {
+            done = snapshot.getLong("nextCandidate");
+            bestParams = snapshot.getDoubles("bestParams");
+        }
+        int[][] transformed = new int[width][height]; // reused for all candidates
+
+        // candidates in the order x, y, rotation (rotation fastest), numbered so the search can resume
+        for (; done < total; done++) {
+            if (progress.checkpointNow(done, total)) {
+                if (checkpoint != null) {
+                    checkpoint.save(getSnapshot(done, bestParams));
+                }
+                return bestParams;
+            }
+            if (checkpoint != null && checkpoint.isDue()) {
+                checkpoint.save(getSnapshot(done, bestParams));
+            }
+            int xStep = (int) (done / (SEARCH_STEPS * SEARCH_STEPS)) - halfSteps;
+            int yStep = (int) (done / SEARCH_STEPS % SEARCH_STEPS) - halfSteps;
+            int rotStep = (int) (done % SEARCH_STEPS) - halfSteps;
+            double transX = xStep * TRANS_STEP_SIZE;
+            double transY = yStep * TRANS_STEP_SIZE;
+            double rotAngle = rotStep * ROT_STEP_SIZE;
+            transformImg(testImg, width, height, transX, transY, rotAngle, this.interpolation, transformed);
+            double error = SimilarityMetrics.getError(this.metric, refImg, transformed, width, height, sample);
+            if (error < bestParams[3]) {
+                bestParams = new double[]{transX, transY, rotAngle, error};
+            }
+        }
+
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+        return bestParams;
+    }
+
+    OperatorCheckpoint getCheckpoint(int[][] refImg, int[][] testImg, int width, int height) {
+        return new OperatorCheckpoint(OperatorCheckpoint.getKey("RegistrationTemplate_.getBestRegistrationParameters/"
+                + this.interpolation + "/" + this.metric + "/" + this.sampleStep, width, height, refImg, testImg),
+                OperatorCheckpoint.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    static OperatorCheckpoint.Snapshot getSnapshot(long nextCandidate, double[] bestParams) {
+        return new OperatorCheckpoint.Snapshot().putLong("nextCandidate", nextCandidate)
+                .putDoubles("bestParams", bestParams);
     }
 
 
@@ -99,6 +222,22 @@ public class RegistrationTemplate_ implements PlugInFilter {
         int height = ip.getHeight();
         int[][] inDataArrInt = ImageJUtility.convertFrom1DByteArr(pixels, width, height);
 
+        GenericDialog gd = new GenericDialog("Registration");
+        String[] interpolations = new String[] {"NEAREST_NEIGHBOR", "BILINEAR", "BICUBIC"};
+        gd.addChoice("Interpolation", interpolations, interpolations[0]);
+        String[] metrics = new String[] {"SSE", "SAD", "NCC", "MI"};
+        gd.addChoice("Metric", metrics, metrics[0]);
+        gd.addNumericField("Sample step (1 = all pixels)", 1, 0);
+        gd.addCheckbox("Checkpoint the search (resume after a restart)", false);
+        gd.showDialog();
+        if (gd.wasCanceled()) {
+            return;
+        }
+        this.interpolation = WarpEngine.Interpolation.valueOf(gd.getNextChoice());
+        this.metric = SimilarityMetrics.Metric.valueOf(gd.getNextChoice());
+        this.sampleStep = Math.max(1, (int) gd.getNextNumber());
+        this.useCheckpoints = gd.getNextBoolean();
+
         //initially transform input image to get a registration task
         double transX = 9.78;
         double transY = -1.99;
@@ -0,0 +1,276 @@
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Similarity metrics for registration: SSE, SAD, normalised cross-correlation and mutual information.
+ * The images are reduced in fixed chunks of columns which are summed in chunk order, so the results do not depend on
+ * the number of threads. The column loops are plain primitive loops the JIT can auto-vectorise.
+ * Optionally only a subset of the pixels (random or stratified sample) is evaluated, e.g. for cheap early evaluations
+ * in the registration search.
+ */
+public class SimilarityMetrics {
+
+    public enum Metric { SSE, SAD, NCC, MI }
+
+    static final int CHUNK_COLUMNS = 16;
+    static final int MI_BINS = 32; // joint histogram of 8-bit values in 32 x 32 bins
+    static final int MI_BIN_SHIFT = 3;
+
+    /**
+     * pixel subset used for the evaluation, the coordinates are stored per column, so a chunk of columns is a
+     * contiguous range
+     */
+    public static class Sample {
+        final int[] columnStart; // samples of column x: [columnStart[x]; columnStart[x + 1])
+        final int[] yCoords;
+
+        Sample(int[] columnStart, int[] yCoords) {
+            this.columnStart = columnStart;
+            this.yCoords = yCoords;
+        }
+
+        public int size() {
+            return this.yCoords.length;
+        }
+    }
+
+    /**
+     * @param width    the width of the images
+     * @param height   the height of the images
+     * @param fraction fraction of the pixels in (0;1]
+     * @param seed     random seed (the same seed gives the same sample)
+     * @return uniformly random pixels
+     */
+    public static Sample getRandomSample(int width, int height, double fraction, long seed) {
+        Random random = new Random(seed);
+        int[] columnStart = new int[width + 1];
+        int[] yCoords = new int[(int) Math.ceil(width * (long) height * fraction) + width];
+        int count = 0;
+        for (int x = 0; x < width; x++) {
+            columnStart[x] = count;
+            for (int y = 0; y < height; y++) {
+                if (random.nextDouble() < fraction && count < yCoords.length) {
+                    yCoords[count++] = y;
+                }
+            }
+        }
+        columnStart[width] = count;
+        return new Sample(columnStart, java.util.Arrays.copyOf(yCoords, count));
+    }
+
+    /**
+     * @param width  the width of the images
+     * @param height the height of the images
+     * @param step   cell size, one pixel per step x step cell
+     * @param seed   random seed for the position inside the cells
+     * @return one random pixel per cell (evenly spread over the image)
+     */
+    public static Sample getStratifiedSample(int width, int height, int step, long seed) {
+        Random random = new Random(seed);
+        int[] columnStart = new int[width + 1];
+        int cellsX = (width + step - 1) / step;
+        int cellsY = (height + step - 1) / step;
+        // pick the positions per cell first, then sort them into the columns
+        int[] cellX = new int[cellsX * cellsY];
+        int[] cellY = new int[cellsX * cellsY];
+        int[] perColumn = new int[width];
+        for (int cy = 0; cy < cellsY; cy++) {
+            for (int cx = 0; cx < cellsX; cx++) {
+                int idx = cy * cellsX + cx;
+                cellX[idx] = Math.min(width - 1, cx * step + random.nextInt(step));
+                cellY[idx] = Math.min(height - 1, cy * step + random.nextInt(step));
+                perColumn[cellX[idx]]++;
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            columnStart[x + 1] = columnStart[x] + perColumn[x];
+        }
+        int[] fill = java.util.Arrays.copyOf(columnStart, width);
+        int[] yCoords = new int[cellX.length];
+        for (int idx = 0; idx < cellX.length; idx++) {
+            yCoords[fill[cellX[idx]]++] = cellY[idx];
+        }
+        return new Sample(columnStart, yCoords);
+    }
+
+    /**
+     * @param metric  the metric
+     * @param refImg  static reference image
+     * @param testImg moving image
+     * @param width   the width of the images
+     * @param height  the height of the images
+     * @param sample  the pixels to evaluate or null for all
+     * @return the error of the metric, smaller is better (NCC and MI are negated)
+     */
+    public static double getError(Metric metric, int[][] refImg, int[][] testImg, int width, int height, Sample sample) {
+        switch (metric) {
+            case SSE:
+                return getSSE(refImg, testImg, width, height, sample);
+            case SAD:
+                return getSAD(refImg, testImg, width, height, sample);
+            case NCC:
+                return -getNCC(refImg, testImg, width, height, sample);
+            case MI:
+                return -getMutualInformation(refImg, testImg, width, height, sample);
+            default:
+                throw new RuntimeException("unknown metric " + metric);
+        }
+    }
+
+    /**
+     * sum of squared errors
+     */
+    public static double getSSE(int[][] refImg, int[][] testImg, int width, int height, Sample sample) {
+        double[][] partial = reduceChunks(refImg, testImg, width, height, sample, 1, (ref, test, ys, from, to, sums) -> {
+            double sum = 0.0;
+            if (ys == null) {
+                for (int y = from; y < to; y++) {
+                    double diff = ref[y] - test[y];
+                    sum += diff * diff;
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    double diff = ref[ys[i]] - test[ys[i]];
+                    sum += diff * diff;
+                }
+            }
+            sums[0] += sum;
+        });
+        return sumChunks(partial)[0];
+    }
+
+    /**
+     * sum of absolute differences
+     */
+    public static double getSAD(int[][] refImg, int[][] testImg, int width, int height, Sample sample) {
+        double[][] partial = reduceChunks(refImg, testImg, width, height, sample, 1, (ref, test, ys, from, to, sums) -> {
+            long sum = 0;
+            if (ys == null) {
+                for (int y = from; y < to; y++) {
+                    sum += Math.abs(ref[y] - test[y]);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    sum += Math.abs(ref[ys[i]] - test[ys[i]]);
+                }
+            }
+            sums[0] += sum;
+        });
+        return sumChunks(partial)[0];
+    }
+
+    /**
+     * normalised cross-correlation, invariant to brightness and contrast changes
+     *
+     * @return NCC in [-1;1], 1 for a perfect (linear) match, 0 if one of the images is constant
+     */
+    public static double getNCC(int[][] refImg, int[][] testImg, int width, int height, Sample sample) {
+        // n, sum(r), sum(t), sum(r*r), sum(t*t), sum(r*t)
+        // integer sums per column are exact for 8-bit values (no rounding until the chunk sum)
+        double[][] partial = reduceChunks(refImg, testImg, width, height, sample, 6, (ref, test, ys, from, to, sums) -> {
+            long sumRef = 0, sumTest = 0, sumRefRef = 0, sumTestTest = 0, sumRefTest = 0;
+            for (int i = from; i < to; i++) {
+                int y = ys == null ? i : ys[i];
+                int r = ref[y];
+                int t = test[y];
+                sumRef += r;
+                sumTest += t;
+                sumRefRef += r * r;
+                sumTestTest += t * t;
+                sumRefTest += r * t;
+            }
+            sums[0] += to - from;
+            sums[1] += sumRef;
+            sums[2] += sumTest;
+            sums[3] += sumRefRef;
+            sums[4] += sumTestTest;
+            sums[5] += sumRefTest;
+        });
+        double[] sums = sumChunks(partial);
+        double n = sums[0];
+        double covariance = sums[5] - sums[1] * sums[2] / n;
+        double varianceRef = sums[3] - sums[1] * sums[1] / n;
+        double varianceTest = sums[4] - sums[2] * sums[2] / n;
+        if (varianceRef <= 0.0 || varianceTest <= 0.0) {
+            return 0.0;
+        }
+        return covariance / Math.sqrt(varianceRef * varianceTest);
+    }
+
+    /**
+     * mutual information of the joint grey value histogram (MI_BINS x MI_BINS bins), robust for different
+     * modalities / non-linear intensity relations
+     *
+     * @return mutual information in bits, larger is better
+     */
+    public static double getMutualInformation(int[][] refImg, int[][] testImg, int width, int height, Sample sample) {
+        double[][] partial = reduceChunks(refImg, testImg, width, height, sample, MI_BINS * MI_BINS,
+                (ref, test, ys, from, to, sums) -> {
+                    for (int i = from; i < to; i++) {
+                        int y = ys == null ? i : ys[i];
+                        sums[(ref[y] >> MI_BIN_SHIFT) * MI_BINS + (test[y] >> MI_BIN_SHIFT)] += 1.0;
+                    }
+                });
+        double[] joint = sumChunks(partial);
+
+        double n = 0.0;
+        double[] marginalRef = new double[MI_BINS];
+        double[] marginalTest = new double[MI_BINS];
+        for (int i = 0; i < MI_BINS; i++) {
+            for (int j = 0; j < MI_BINS; j++) {
+                double count = joint[i * MI_BINS + j];
+                marginalRef[i] += count;
+                marginalTest[j] += count;
+                n += count;
+            }
+        }
+
+        double mutualInformation = 0.0;
+        for (int i = 0; i < MI_BINS; i++) {
+            for (int j = 0; j < MI_BINS; j++) {
+                double count = joint[i * MI_BINS + j];
+                if (count > 0.0) {
+                    mutualInformation += count / n * Math.log(count * n / (marginalRef[i] * marginalTest[j]));
+                }
+            }
+        }
+        return mutualInformation / Math.log(2.0);
+    }
+
+    // accumulates the pixels of one column: y in [from; to) if ys is null, otherwise y = ys[from .. to - 1]
+    interface ColumnAccumulator {
+        void accumulate(int[] refColumn, int[] testColumn, int[] ys, int from, int to, double[] sums);
+    }
+
+    // one sums array per chunk of CHUNK_COLUMNS columns, chunks run in parallel
+    private static double[][] reduceChunks(int[][] refImg, int[][] testImg, int width, int height, Sample sample,
+                                           int numSums, ColumnAccumulator accumulator) {
+        int numChunks = (width + CHUNK_COLUMNS - 1) / CHUNK_COLUMNS;
+        double[][] partial = new double[numChunks][numSums];
+        IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+            double[] sums = partial[chunk];
+            int xEnd = Math.min(width, (chunk + 1) * CHUNK_COLUMNS);
+            for (int x = chunk * CHUNK_COLUMNS; x < xEnd; x++) {
+                if (sample == null) {
+                    accumulator.accumulate(refImg[x], testImg[x], null, 0, height, sums);
+                } else {
+                    accumulator.accumulate(refImg[x], testImg[x], sample.yCoords,
+                            sample.columnStart[x], sample.columnStart[x + 1], sums);
+                }
+            }
+        });
+        return partial;
+    }
+
+    // sums the chunk results in chunk order (deterministic floating point result)
+    private static double[] sumChunks(double[][] partial) {
+        double[] total = new double[partial[0].length];
+        for (double[] sums : partial) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += sums[i];
+            }
+        }
+        return total;
+    }
+
+}
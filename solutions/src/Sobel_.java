@@ -20,6 +20,7 @@ public class Sobel_ implements PlugInFilter {
 		byte[] pixels = (byte[])ip.getPixels();
 		int width = ip.getWidth();
 		int height = ip.getHeight();
+		OperatorMetrics.Run metrics = OperatorMetrics.start("Sobel_.run");
 		int[][] inDataArrInt = ImageJUtility.convertFrom1DByteArr(pixels, width, height);
         double[][] inDataArrDbl = ImageJUtility.convertToDoubleArr2D(inDataArrInt, width, height);
 
@@ -41,7 +42,6 @@ public class Sobel_ implements PlugInFilter {
 			   edgeResultImg[x][y] = oldVal;
 			   if(oldVal > maxVal) {
 				  maxVal = oldVal;
-				  System.out.println("new max value found = " + maxVal);
 			   }
 			}
 		}
@@ -57,6 +57,7 @@ public class Sobel_ implements PlugInFilter {
 			}
 		}
 		ImageJUtility.showNewImage(edgeResultImg, width, height, "vertical sobel #3");
+		metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
 	} //run
 
 	void showAbout() {
@@ -0,0 +1,102 @@
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic inputs generated from fixed seeds (smooth and blob images, mazes, seed points), shared by the regression
+ * harness (OperatorRegression) and the runtime tuner (Autotuner), so the tuner does not depend on the test harness.
+ * The same seed always gives the same image.
+ */
+public class SyntheticCorpus {
+
+    /**
+     * @return sum of sinusoids with noise, grey values in [0;255]
+     */
+    static int[][] getSmoothImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[][] img = new int[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                double value = 128 + 60 * Math.sin(x * 0.11) + 40 * Math.cos(y * 0.07 + x * 0.03) + random.nextGaussian() * 8;
+                img[x][y] = Math.max(0, Math.min(255, (int) Math.round(value)));
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return dark noisy background with bright noisy discs
+     */
+    static int[][] getBlobImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[][] img = new int[width][height];
+        int numBlobs = 6;
+        int[][] blobs = new int[numBlobs][];
+        for (int b = 0; b < numBlobs; b++) {
+            blobs[b] = new int[]{random.nextInt(width), random.nextInt(height), 5 + random.nextInt(Math.max(1, width / 6))};
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                boolean inBlob = false;
+                for (int[] blob : blobs) {
+                    inBlob |= (x - blob[0]) * (x - blob[0]) + (y - blob[1]) * (y - blob[1]) <= blob[2] * blob[2];
+                }
+                img[x][y] = Math.max(0, Math.min(255, (inBlob ? 200 : 50) + (int) Math.round(random.nextGaussian() * 6)));
+            }
+        }
+        return img;
+    }
+
+    /**
+     * @return random walls (WALL_COLOR) with the given density, a few obstacle blocks, start in the upper left and
+     * target in the lower right corner
+     */
+    static int[][] getMaze(int width, int height, double wallDensity, long seed) {
+        Random random = new Random(seed);
+        int[][] img = new int[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                img[x][y] = random.nextDouble() < wallDensity ? DistanceMap_.WALL_COLOR : DistanceMap_.BACKGROUND_COLOR;
+            }
+        }
+        for (int block = 0; block < 4; block++) {
+            int blockX = random.nextInt(width - 4);
+            int blockY = random.nextInt(height - 4);
+            for (int x = blockX; x < blockX + 3; x++) {
+                for (int y = blockY; y < blockY + 3; y++) {
+                    img[x][y] = DistanceMap_.OBSTACLE_COLOR;
+                }
+            }
+        }
+        img[1][1] = DistanceMap_.START_COLOR;
+        img[width - 2][height - 2] = DistanceMap_.TARGET_COLOR;
+        return img;
+    }
+
+    /**
+     * @return random seed points inside the image
+     */
+    static List<Point> getSeeds(int width, int height, long seed, int numSeeds) {
+        Random random = new Random(seed);
+        List<Point> seeds = new ArrayList<>();
+        for (int i = 0; i < numSeeds; i++) {
+            seeds.add(new Point(random.nextInt(width), random.nextInt(height)));
+        }
+        return seeds;
+    }
+
+    /**
+     * @return DistanceMap_ operator on the maze, WALL_COLOR pixels are blocked
+     */
+    static DistanceMap_ getDistanceMapOperator(int[][] maze, int width, int height) {
+        DistanceMap_ operator = new DistanceMap_();
+        operator.inDataArrInt = maze;
+        operator.width = width;
+        operator.height = height;
+        operator.blockedPixelValues = new ArrayList<>();
+        operator.blockedPixelValues.add(DistanceMap_.WALL_COLOR);
+        return operator;
+    }
+
+}
@@ -0,0 +1,324 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Distance map and shortest path calculation for 3D volumes (image stacks), e.g. multi-floor buildings.
+ * Voxels are addressed with one flat index = z * width * height + y * width + x, the pixels stay in the slice arrays
+ * of the stack (no copy of the volume).
+ */
+public class VolumeDistanceMap {
+
+    public static final int CONNECTIVITY_6 = 6;   // faces
+    public static final int CONNECTIVITY_18 = 18; // faces + edges
+    public static final int CONNECTIVITY_26 = 26; // faces + edges + corners
+
+    static final double EPSILON = 0.000001;
+
+    final byte[][] slices;
+    final int width;
+    final int height;
+    final int depth;
+    final int sliceSize;
+    final int numVoxels;
+    final boolean[] blockedValues = new boolean[256];
+
+    /**
+     * @param slices             the stack slices as 8-bit pixel arrays (row major, as returned by ImageStack), used
+     *                           directly, not copied
+     * @param width              the width of a slice
+     * @param height             the height of a slice
+     * @param blockedPixelValues the grey values that must not be entered (e.g. walls)
+     */
+    public VolumeDistanceMap(byte[][] slices, int width, int height, int[] blockedPixelValues) {
+        this.width = width;
+        this.height = height;
+        this.depth = slices.length;
+        this.sliceSize = width * height;
+        if ((long) this.sliceSize * this.depth > Integer.MAX_VALUE) {
+            throw new RuntimeException("volume too large for int voxel indices");
+        }
+
+        this.numVoxels = this.sliceSize * this.depth;
+        for (byte[] slice : slices) {
+            if (slice.length < this.sliceSize) {
+                throw new RuntimeException("slice smaller than width * height");
+            }
+        }
+        this.slices = slices;
+
+        for (int blockedValue : blockedPixelValues) {
+            this.blockedValues[blockedValue] = true;
+        }
+    }
+
+    public int getIndex(int x, int y, int z) {
+        return z * this.sliceSize + y * this.width + x;
+    }
+
+    public int getX(int index) {
+        return index % this.width;
+    }
+
+    public int getY(int index) {
+        return (index % this.sliceSize) / this.width;
+    }
+
+    public int getZ(int index) {
+        return index / this.sliceSize;
+    }
+
+    boolean isBlocked(int x, int y, int z) {
+        return this.blockedValues[this.slices[z][y * this.width + x] & 0xFF];
+    }
+
+    /**
+     * @param connectivity 6, 18 or 26
+     * @return the neighbour offsets as {dx, dy, dz} triples
+     */
+    static int[][] getNeighborOffsets(int connectivity) {
+        if (connectivity != CONNECTIVITY_6 && connectivity != CONNECTIVITY_18 && connectivity != CONNECTIVITY_26) {
+            throw new RuntimeException("unsupported connectivity " + connectivity);
+        }
+        int[][] offsets = new int[connectivity][];
+        int count = 0;
+        for (int dz = -1; dz <= 1; dz++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nonZero = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+                    if (nonZero == 0) {
+                        continue; // exclude non - moves
+                    }
+                    if (nonZero == 1 || (nonZero == 2 && connectivity >= CONNECTIVITY_18) || connectivity == CONNECTIVITY_26) {
+                        offsets[count++] = new int[]{dx, dy, dz};
+                    }
+                }
+            }
+        }
+        return offsets;
+    }
+
+    // Calculates the moving costs of a move, same modes as DistanceMap_.costsBetweenPositions
+    // modes: Euclidean, Chebyshev(Chessboard), Manhattan
+    static double costsBetweenPositions(int dx, int dy, int dz, String mode) {
+        int ax = Math.abs(dx);
+        int ay = Math.abs(dy);
+        int az = Math.abs(dz);
+        switch (mode) {
+            case "Euclidean":
+                return Math.sqrt(ax * ax + ay * ay + az * az);
+            case "Chebyshev":
+                return Math.max(ax, Math.max(ay, az));
+            case "Manhattan":
+                return ax + ay + az;
+            default:
+                throw new RuntimeException("unknown metric " + mode);
+        }
+    }
+
+    // checks bounds, blocked target voxels and corner cutting:
+    // a diagonal move is not allowed if all voxels passed on the way (partial moves) are blocked
+    boolean isAllowedMove(int x, int y, int z, int[] offset) {
+        int tx = x + offset[0];
+        int ty = y + offset[1];
+        int tz = z + offset[2];
+        if (tx < 0 || tx >= this.width || ty < 0 || ty >= this.height || tz < 0 || tz >= this.depth) {
+            return false;
+        }
+        if (isBlocked(tx, ty, tz)) {
+            return false;
+        }
+
+        int nonZero = (offset[0] != 0 ? 1 : 0) + (offset[1] != 0 ? 1 : 0) + (offset[2] != 0 ? 1 : 0);
+        if (nonZero < 2) {
+            return true;
+        }
+        // all partial moves, i.e. combinations of a strict subset of the offset components
+        for (int mask = 1; mask < 7; mask++) {
+            int px = (mask & 1) != 0 ? offset[0] : 0;
+            int py = (mask & 2) != 0 ? offset[1] : 0;
+            int pz = (mask & 4) != 0 ? offset[2] : 0;
+            boolean isPartial = !(px == offset[0] && py == offset[1] && pz == offset[2]) && (px != 0 || py != 0 || pz != 0);
+            if (isPartial && !isBlocked(x + px, y + py, z + pz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indices of all voxels with the given value, slices are searched in parallel.
+     *
+     * @param initialPositionValue the grey value to search for
+     * @return voxel indices in ascending order
+     */
+    public int[] getInitialPositionsFromValue(int initialPositionValue) {
+        int[][] perSlice = new int[this.depth][];
+        IntStream.range(0, this.depth).parallel().forEach(z -> {
+            int[] found = new int[16];
+            int count = 0;
+            int offset = z * this.sliceSize;
+            byte[] slice = this.slices[z];
+            for (int i = 0; i < this.sliceSize; i++) {
+                if ((slice[i] & 0xFF) == initialPositionValue) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = offset + i;
+                }
+            }
+            perSlice[z] = Arrays.copyOf(found, count);
+        });
+
+        int total = 0;
+        for (int[] slice : perSlice) {
+            total += slice.length;
+        }
+        int[] positions = new int[total];
+        int pos = 0;
+        for (int[] slice : perSlice) {
+            System.arraycopy(slice, 0, positions, pos, slice.length);
+            pos += slice.length;
+        }
+        return positions;
+    }
+
+    /**
+     * calculates the distance map from all voxels with initialPositionValue (multi source)
+     *
+     * @param initialPositionValue the grey value of the source voxels
+     * @param mode                 Euclidean, Chebyshev or Manhattan
+     * @param connectivity         6, 18 or 26
+     * @param useBucketQueue       true for a bucket queue (O(1) operations), false for a binary heap
+     * @return flat distance map, unreachable voxels are +infinity
+     */
+    public float[] getDistanceMap(int initialPositionValue, String mode, int connectivity, boolean useBucketQueue) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("VolumeDistanceMap.getDistanceMap");
+        int[][] offsets = getNeighborOffsets(connectivity);
+        double[] moveCosts = new double[offsets.length];
+        int[] indexOffsets = new int[offsets.length];
+        double minCost = Double.POSITIVE_INFINITY;
+        double maxCost = 0.0;
+        for (int i = 0; i < offsets.length; i++) {
+            moveCosts[i] = costsBetweenPositions(offsets[i][0], offsets[i][1], offsets[i][2], mode);
+            indexOffsets[i] = offsets[i][2] * this.sliceSize + offsets[i][1] * this.width + offsets[i][0];
+            minCost = Math.min(minCost, moveCosts[i]);
+            maxCost = Math.max(maxCost, moveCosts[i]);
+        }
+
+        // initial pass per slice
+        float[] distanceMap = new float[this.numVoxels];
+        IntStream.range(0, this.depth).parallel().forEach(z -> {
+            int offset = z * this.sliceSize;
+            byte[] slice = this.slices[z];
+            for (int i = 0; i < this.sliceSize; i++) {
+                distanceMap[offset + i] = (slice[i] & 0xFF) == initialPositionValue ? 0.0f : Float.POSITIVE_INFINITY;
+            }
+        });
+
+        int[] seeds = getInitialPositionsFromValue(initialPositionValue);
+        if (seeds.length == 0) {
+            throw new RuntimeException("no target position exists");
+        }
+
+        NodeQueue openSet = useBucketQueue ? new BucketQueue(minCost, maxCost) : new IndexMinHeap(seeds.length * 4);
+        boolean[] settled = new boolean[this.numVoxels];
+        for (int seed : seeds) {
+            openSet.add(seed, 0.0);
+        }
+
+        long expanded = 0;
+        long relaxations = 0;
+        while (!openSet.isEmpty()) {
+            metrics.recordQueueSize(openSet.size());
+            int current = openSet.poll();
+            if (settled[current]) {
+                continue; // stale queue entry
+            }
+            settled[current] = true;
+            expanded++;
+            int x = getX(current);
+            int y = getY(current);
+            int z = getZ(current);
+            float currentDistance = distanceMap[current];
+            for (int i = 0; i < offsets.length; i++) {
+                if (isAllowedMove(x, y, z, offsets[i])) {
+                    int neighbor = current + indexOffsets[i];
+                    float tentativeScore = (float) (currentDistance + moveCosts[i]);
+                    if (!settled[neighbor] && tentativeScore < distanceMap[neighbor]) {
+                        distanceMap[neighbor] = tentativeScore;
+                        openSet.add(neighbor, tentativeScore);
+                        relaxations++;
+                    }
+                }
+            }
+        }
+
+        metrics.add(OperatorMetrics.Counter.CELLS_EXPANDED, expanded)
+                .add(OperatorMetrics.Counter.RELAXATIONS, relaxations)
+                .add(OperatorMetrics.Counter.PIXELS_PROCESSED, this.numVoxels)
+                .finish();
+        return distanceMap;
+    }
+
+    /**
+     * calculates the shortest path through the distance map by always choosing the smallest next neighbor
+     *
+     * @param distanceMap   the distance map as returned by getDistanceMap
+     * @param startIndex    the voxel index to start from
+     * @param connectivity  6, 18 or 26 (should match the distance map)
+     * @return the voxel indices of the path from start to the nearest target
+     */
+    public int[] calculateShortestPath(float[] distanceMap, int startIndex, int connectivity) {
+        if (Float.isInfinite(distanceMap[startIndex])) {
+            throw new RuntimeException("target not reachable from start position");
+        }
+        int[][] offsets = getNeighborOffsets(connectivity);
+
+        int[] resultPath = new int[64];
+        int length = 0;
+        resultPath[length++] = startIndex;
+
+        int current = startIndex;
+        double smallestNeighborDistanceToGoal = distanceMap[startIndex];
+        while (smallestNeighborDistanceToGoal > EPSILON) {
+            int bestNeighbor = -1;
+            int x = getX(current);
+            int y = getY(current);
+            int z = getZ(current);
+            for (int[] offset : offsets) {
+                if (isAllowedMove(x, y, z, offset)) {
+                    int neighbor = getIndex(x + offset[0], y + offset[1], z + offset[2]);
+                    if (distanceMap[neighbor] < smallestNeighborDistanceToGoal) {
+                        bestNeighbor = neighbor;
+                        smallestNeighborDistanceToGoal = distanceMap[neighbor];
+                    }
+                }
+            }
+            if (bestNeighbor < 0) {
+                throw new RuntimeException("path descent got stuck, distance map does not match connectivity");
+            }
+            if (length == resultPath.length) {
+                resultPath = Arrays.copyOf(resultPath, length * 2);
+            }
+            resultPath[length++] = bestNeighbor;
+            current = bestNeighbor;
+        }
+
+        return Arrays.copyOf(resultPath, length);
+    }
+
+    /**
+     * @param path the voxel indices of the path
+     * @param mode Euclidean, Chebyshev or Manhattan
+     * @return the cumulated moving costs along the path
+     */
+    public double calculateOverallPath(int[] path, String mode) {
+        double overallCost = 0;
+        for (int i = 1; i < path.length; i++) {
+            overallCost += costsBetweenPositions(getX(path[i]) - getX(path[i - 1]),
+                    getY(path[i]) - getY(path[i - 1]), getZ(path[i]) - getZ(path[i - 1]), mode);
+        }
+        return overallCost;
+    }
+
+}
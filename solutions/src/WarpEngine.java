@@ -0,0 +1,256 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Geometric warp (rotation around the image center + translation) with nearest neighbor, bilinear or bicubic
+ * interpolation. Same backward mapping as RegistrationTemplate_.transformImg:
+ * src = R(-rotAngle) * (dst - center) + center - translation
+ * The source coordinates are computed incrementally along each column (affine DDA, no per-pixel sin/cos). A one-off
+ * warp (e.g. one candidate of the registration search) computes them inline while sampling into the caller-supplied
+ * buffer. getSamplingGrid precomputes them for transformations that are applied again (RegistrationTemplate_ warps
+ * every slice of a stack with the same task and best parameters), those grids are kept in an LRU cache bounded by
+ * GRID_CACHE_MAX_BYTES. Columns are processed in parallel. Samples outside the image are BG_VAL.
+ */
+public class WarpEngine {
+
+    public enum Interpolation { NEAREST_NEIGHBOR, BILINEAR, BICUBIC }
+
+    public static final int BG_VAL = 0;
+    public static final int MAX_VAL = 255;
+
+    static final long GRID_CACHE_MAX_BYTES = 64L << 20;
+    static final double BICUBIC_A = -0.5; // Keys / Catmull-Rom
+
+    /**
+     * source coordinates for every target pixel, index = x * height + y (column major like the [x][y] images)
+     */
+    public static class SamplingGrid {
+        final int width;
+        final int height;
+        final float[] srcX;
+        final float[] srcY;
+
+        SamplingGrid(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.srcX = new float[width * height];
+            this.srcY = new float[width * height];
+        }
+
+        long getBytes() {
+            return 8L * this.width * this.height;
+        }
+    }
+
+    // access order (LRU), getSamplingGrid evicts the eldest grids until they fit into GRID_CACHE_MAX_BYTES
+    private static final Map<String, SamplingGrid> GRID_CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long gridCacheBytes = 0;
+
+    // backward mapping of one column: source coordinates of (x, 0) and the step per pixel in y
+    private static class ColumnMapping {
+        final double cosTheta;
+        final double sinTheta;
+        final double widthHalf;
+        final double heightHalf;
+        final double transX;
+        final double transY;
+
+        ColumnMapping(int width, int height, double transX, double transY, double rotAngle) {
+            this.cosTheta = Math.cos(Math.toRadians(-rotAngle));
+            this.sinTheta = Math.sin(Math.toRadians(-rotAngle));
+            this.widthHalf = width / 2.0;
+            this.heightHalf = height / 2.0;
+            this.transX = transX;
+            this.transY = transY;
+        }
+
+        double getStartX(int x) {
+            return (x - this.widthHalf) * this.cosTheta + this.heightHalf * this.sinTheta + this.widthHalf - this.transX;
+        }
+
+        double getStartY(int x) {
+            return (x - this.widthHalf) * this.sinTheta - this.heightHalf * this.cosTheta + this.heightHalf - this.transY;
+        }
+    }
+
+    /**
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param transX   translation in x-direction
+     * @param transY   translation in y-direction
+     * @param rotAngle rotation angle in degrees
+     * @return the (cached) sampling grid of the transformation
+     */
+    public static SamplingGrid getSamplingGrid(int width, int height, double transX, double transY, double rotAngle) {
+        String key = width + "x" + height + ":" + Double.doubleToLongBits(transX) + ":"
+                + Double.doubleToLongBits(transY) + ":" + Double.doubleToLongBits(rotAngle);
+        synchronized (GRID_CACHE) {
+            SamplingGrid cached = GRID_CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        SamplingGrid grid = new SamplingGrid(width, height);
+        ColumnMapping mapping = new ColumnMapping(width, height, transX, transY, rotAngle);
+        IntStream.range(0, width).parallel().forEach(x -> {
+            // exact start of the column, then one addition per pixel
+            double srcX = mapping.getStartX(x);
+            double srcY = mapping.getStartY(x);
+            int idx = x * height;
+            for (int y = 0; y < height; y++) {
+                grid.srcX[idx + y] = (float) srcX;
+                grid.srcY[idx + y] = (float) srcY;
+                srcX -= mapping.sinTheta;
+                srcY += mapping.cosTheta;
+            }
+        });
+
+        synchronized (GRID_CACHE) {
+            if (grid.getBytes() <= GRID_CACHE_MAX_BYTES && GRID_CACHE.put(key, grid) == null) {
+                gridCacheBytes += grid.getBytes();
+                Iterator<SamplingGrid> eldest = GRID_CACHE.values().iterator();
+                while (gridCacheBytes > GRID_CACHE_MAX_BYTES) {
+                    gridCacheBytes -= eldest.next().getBytes();
+                    eldest.remove();
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * one-off warp, the source coordinates are computed while sampling (no sampling grid is allocated or cached)
+     *
+     * @param inImg         input image
+     * @param width         the width of the input image
+     * @param height        the height of the input image
+     * @param transX        translation in x-direction
+     * @param transY        translation in y-direction
+     * @param rotAngle      rotation angle in degrees
+     * @param interpolation the interpolation kernel
+     * @param outImg        the result buffer [width][height], may be reused across calls
+     * @return outImg
+     */
+    public static int[][] warp(int[][] inImg, int width, int height, double transX, double transY, double rotAngle,
+                               Interpolation interpolation, int[][] outImg) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("WarpEngine.warp." + interpolation);
+        ColumnMapping mapping = new ColumnMapping(width, height, transX, transY, rotAngle);
+
+        IntStream.range(0, width).parallel().forEach(x -> {
+            int[] outColumn = outImg[x];
+            double srcX = mapping.getStartX(x);
+            double srcY = mapping.getStartY(x);
+            for (int y = 0; y < height; y++) {
+                // rounded like the grid, so both paths give the same result
+                outColumn[y] = getValue(inImg, width, height, (float) srcX, (float) srcY, interpolation);
+                srcX -= mapping.sinTheta;
+                srcY += mapping.cosTheta;
+            }
+        });
+
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return outImg;
+    }
+
+    /**
+     * @param inImg         input image
+     * @param grid          the sampling grid (see getSamplingGrid)
+     * @param interpolation the interpolation kernel
+     * @param outImg        the result buffer [width][height], may be reused across calls
+     * @return outImg
+     */
+    public static int[][] warp(int[][] inImg, SamplingGrid grid, Interpolation interpolation, int[][] outImg) {
+        OperatorMetrics.Run metrics = OperatorMetrics.start("WarpEngine.warp." + interpolation);
+        int width = grid.width;
+        int height = grid.height;
+
+        IntStream.range(0, width).parallel().forEach(x -> {
+            int[] outColumn = outImg[x];
+            int idx = x * height;
+            for (int y = 0; y < height; y++) {
+                outColumn[y] = getValue(inImg, width, height, grid.srcX[idx + y], grid.srcY[idx + y], interpolation);
+            }
+        });
+
+        metrics.add(OperatorMetrics.Counter.PIXELS_PROCESSED, (long) width * height).finish();
+        return outImg;
+    }
+
+    static int getValue(int[][] img, int width, int height, double srcX, double srcY, Interpolation interpolation) {
+        switch (interpolation) {
+            case BILINEAR:
+                return getBilinearValue(img, width, height, srcX, srcY);
+            case BICUBIC:
+                return getBicubicValue(img, width, height, srcX, srcY);
+            default:
+                return getNNValue(img, width, height, srcX, srcY);
+        }
+    }
+
+    static int getNNValue(int[][] img, int width, int height, double xIdx, double yIdx) {
+        int x = (int) Math.round(xIdx);
+        int y = (int) Math.round(yIdx);
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return BG_VAL;
+        }
+        return img[x][y];
+    }
+
+    // pixels outside the image count as BG_VAL
+    private static int getPixel(int[][] img, int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return BG_VAL;
+        }
+        return img[x][y];
+    }
+
+    static int getBilinearValue(int[][] img, int width, int height, double xIdx, double yIdx) {
+        if (xIdx <= -1.0 || yIdx <= -1.0 || xIdx >= width || yIdx >= height) {
+            return BG_VAL;
+        }
+        int x0 = (int) Math.floor(xIdx);
+        int y0 = (int) Math.floor(yIdx);
+        double dx = xIdx - x0;
+        double dy = yIdx - y0;
+
+        double top = (1.0 - dx) * getPixel(img, width, height, x0, y0) + dx * getPixel(img, width, height, x0 + 1, y0);
+        double bottom = (1.0 - dx) * getPixel(img, width, height, x0, y0 + 1) + dx * getPixel(img, width, height, x0 + 1, y0 + 1);
+        return (int) Math.round((1.0 - dy) * top + dy * bottom);
+    }
+
+    static int getBicubicValue(int[][] img, int width, int height, double xIdx, double yIdx) {
+        if (xIdx <= -1.0 || yIdx <= -1.0 || xIdx >= width || yIdx >= height) {
+            return BG_VAL;
+        }
+        int x0 = (int) Math.floor(xIdx);
+        int y0 = (int) Math.floor(yIdx);
+        double dx = xIdx - x0;
+        double dy = yIdx - y0;
+
+        double result = 0.0;
+        for (int j = -1; j <= 2; j++) {
+            double rowSum = 0.0;
+            for (int i = -1; i <= 2; i++) {
+                rowSum += getPixel(img, width, height, x0 + i, y0 + j) * cubicWeight(i - dx);
+            }
+            result += rowSum * cubicWeight(j - dy);
+        }
+        return Math.max(BG_VAL, Math.min(MAX_VAL, (int) Math.round(result)));
+    }
+
+    // Keys cubic convolution kernel
+    static double cubicWeight(double t) {
+        double absT = Math.abs(t);
+        if (absT <= 1.0) {
+            return ((BICUBIC_A + 2.0) * absT - (BICUBIC_A + 3.0)) * absT * absT + 1.0;
+        }
+        if (absT < 2.0) {
+            return ((BICUBIC_A * absT - 5.0 * BICUBIC_A) * absT + 8.0 * BICUBIC_A) * absT - 4.0 * BICUBIC_A;
+        }
+        return 0.0;
+    }
+
+}